@@ -0,0 +1,31 @@
+package org.daisleyharrison.security.common.models.authorization;
+
+import java.util.Map;
+
+/**
+ * One of the web tokens to produce in a batch, see
+ * TokenizerServiceProvider.produceWebTokens
+ */
+public class TokenRequest {
+    private final String tokenType;
+    private final Map<String, Object> claims;
+
+    public TokenRequest(String tokenType, Map<String, Object> claims) {
+        this.tokenType = tokenType;
+        this.claims = claims;
+    }
+
+    /**
+     * @return String return the web token type
+     */
+    public String getTokenType() {
+        return tokenType;
+    }
+
+    /**
+     * @return Map<String, Object> return the claims of the token
+     */
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+}
@@ -1,5 +1,10 @@
 package org.daisleyharrison.security.common.models.cypher;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import org.daisleyharrison.security.common.exceptions.CypherException;
 
 public interface Cypher {
@@ -7,4 +12,80 @@ public interface Cypher {
     byte[] decrypt(CypherEncryption cypherEncryption, byte[] aad) throws CypherException;
     byte[] encrypt(byte[] unsecure) throws CypherException;
     byte[] decrypt(byte[] secure) throws CypherException;
+
+    /**
+     * Encrypt the remaining bytes of unsecure into a newly allocated buffer, the
+     * buffer is direct when unsecure is direct
+     * 
+     * @param unsecure the buffer to encrypt, its position is advanced to its limit
+     * @return ByteBuffer the encrypted data, ready to be read
+     */
+    ByteBuffer encrypt(ByteBuffer unsecure) throws CypherException;
+
+    /**
+     * Decrypt the remaining bytes of secure into a newly allocated buffer, the
+     * buffer is direct when secure is direct
+     * 
+     * @param secure the buffer to decrypt, its position is advanced to its limit
+     * @return ByteBuffer the decrypted data, ready to be read
+     */
+    ByteBuffer decrypt(ByteBuffer secure) throws CypherException;
+
+    /**
+     * Encrypt the remaining bytes of unsecure into secure without intermediate
+     * copies
+     * 
+     * @param unsecure the buffer to encrypt
+     * @param secure   the buffer receiving the encrypted data
+     * @return int the number of bytes stored in secure
+     */
+    int encrypt(ByteBuffer unsecure, ByteBuffer secure) throws CypherException;
+
+    /**
+     * Decrypt the remaining bytes of secure into unsecure without intermediate
+     * copies
+     * 
+     * @param secure   the buffer to decrypt
+     * @param unsecure the buffer receiving the decrypted data
+     * @return int the number of bytes stored in unsecure
+     */
+    int decrypt(ByteBuffer secure, ByteBuffer unsecure) throws CypherException;
+
+    /**
+     * Wrap an output stream with a stream that encrypts everything written to
+     * it in authenticated segments, memory use does not depend on the size of
+     * the payload
+     * 
+     * @param secure the stream receiving the encrypted data
+     * @return OutputStream the stream to write the unsecure data to, must be
+     *         closed to complete the encryption
+     */
+    OutputStream encryptingOutputStream(OutputStream secure) throws CypherException;
+
+    /**
+     * Wrap an input stream of data written by encryptingOutputStream with a
+     * stream that decrypts it segment by segment as it is read
+     * 
+     * @param secure the stream of encrypted data
+     * @return InputStream the stream of decrypted data
+     */
+    InputStream decryptingInputStream(InputStream secure) throws CypherException;
+
+    /**
+     * Encrypt a batch, the key is resolved once and the items are encrypted in
+     * parallel
+     * 
+     * @param unsecures the items to encrypt, null items stay null
+     * @return List the encrypted items in the same order
+     */
+    List<byte[]> encryptAll(List<byte[]> unsecures) throws CypherException;
+
+    /**
+     * Decrypt a batch, the key is resolved once and the items are decrypted in
+     * parallel
+     * 
+     * @param secures the items to decrypt, null items stay null
+     * @return List the decrypted items in the same order
+     */
+    List<byte[]> decryptAll(List<byte[]> secures) throws CypherException;
 }
\ No newline at end of file
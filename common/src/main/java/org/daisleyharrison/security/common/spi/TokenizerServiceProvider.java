@@ -4,9 +4,11 @@ import org.daisleyharrison.security.common.exceptions.InvalidTokenException;
 import org.daisleyharrison.security.common.exceptions.TokenizerException;
 import org.daisleyharrison.security.common.models.authorization.AuthClaims;
 import org.daisleyharrison.security.common.models.authorization.TokenMetaData;
+import org.daisleyharrison.security.common.models.authorization.TokenRequest;
 
 import java.time.Duration;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 public interface TokenizerServiceProvider extends SecurityServiceProvider {
@@ -45,6 +47,8 @@ public interface TokenizerServiceProvider extends SecurityServiceProvider {
 
     public String produceWebToken(String tokenType, Map<String, Object> userClaims) throws TokenizerException;
 
+    public List<String> produceWebTokens(List<TokenRequest> requests) throws TokenizerException;
+
     public TokenMetaData getTokenMetaData(String tokenType);
 
     public AuthClaims consumeWebToken(String tokenType, String token) throws TokenizerException;
@@ -1,5 +1,7 @@
 package org.daisleyharrison.security.common.spi;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 public interface VaultServiceProvider extends SecurityServiceProvider {
@@ -14,4 +16,7 @@ public interface VaultServiceProvider extends SecurityServiceProvider {
     public CompletableFuture<String> readFromVault(String token, String path);
     public CompletableFuture<Void> removeFromVault(String token, String path);
     public CompletableFuture<Void> writeToVault(String token, String path, String secret);
+    public CompletableFuture<Map<String, String>> readManyFromVault(String token, List<String> paths);
+    public CompletableFuture<Void> writeManyToVault(String token, Map<String, String> secrets);
+    public CompletableFuture<List<String>> listVault(String token, String prefix, String startAfter, int limit);
 }
\ No newline at end of file
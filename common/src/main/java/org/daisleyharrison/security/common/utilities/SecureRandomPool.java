@@ -0,0 +1,201 @@
+package org.daisleyharrison.security.common.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SecureRandomParameters;
+import java.security.SecureRandomSpi;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A secure random that spreads its callers over a pool of non-blocking DRBG
+ * instances, chosen by thread, so threads drawing random bytes at the same
+ * time neither wait on each other nor on the entropy of the system.
+ *
+ * Each instance is seeded when it is created and is reseeded periodically,
+ * on a background thread, from a strong secure random. Only the reseeding
+ * ever waits for entropy.
+ */
+public class SecureRandomPool extends SecureRandom implements AutoCloseable {
+    private static final long serialVersionUID = 1L;
+    private static Logger LOGGER = LoggerFactory.getLogger(SecureRandomPool.class);
+    private static final String ALGORITHM = "DRBG";
+    private static final String FALLBACK_ALGORITHM = "SHA1PRNG";
+    private static final int SECURITY_STRENGTH = 256;
+    private static final int SEED_LENGTH = 32;
+
+    private static final ScheduledExecutorService RESEED_SCHEDULER = Executors
+            .newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "secure-random-reseed");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Hands every request of the pool to the stripe of the calling thread
+     */
+    private static class StripedSpi extends SecureRandomSpi {
+        private static final long serialVersionUID = 1L;
+        private final transient SecureRandom[] stripes;
+        private final transient SecureRandom seedSource;
+
+        private StripedSpi(SecureRandom[] stripes, SecureRandom seedSource) {
+            this.stripes = stripes;
+            this.seedSource = seedSource;
+        }
+
+        private SecureRandom stripe() {
+            return stripes[(int) (Thread.currentThread().getId() & (stripes.length - 1))];
+        }
+
+        @Override
+        protected void engineSetSeed(byte[] seed) {
+            stripe().setSeed(seed);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] bytes) {
+            stripe().nextBytes(bytes);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] bytes, SecureRandomParameters params) {
+            stripe().nextBytes(bytes, params);
+        }
+
+        @Override
+        protected byte[] engineGenerateSeed(int numBytes) {
+            return seedSource.generateSeed(numBytes);
+        }
+    }
+
+    private final transient StripedSpi spi;
+    private final transient ScheduledFuture<?> reseedTask;
+
+    /**
+     * @param stripeCount    the number of instances, rounded up to a power of
+     *                       two
+     * @param reseedInterval how often every instance is reseeded from the strong
+     *                       secure random
+     */
+    public SecureRandomPool(int stripeCount, Duration reseedInterval) {
+        this(new StripedSpi(createStripes(stripeCount), SecureRandomUtil.getStrongSecureRandom()), reseedInterval);
+    }
+
+    private SecureRandomPool(StripedSpi spi, Duration reseedInterval) {
+        super(spi, null);
+        this.spi = spi;
+        long reseedMillis = reseedInterval.toMillis();
+        if (reseedMillis <= 0) {
+            throw new IllegalArgumentException("reseedInterval must be positive");
+        }
+        this.reseedTask = RESEED_SCHEDULER.scheduleAtFixedRate(this::scheduledReseed, reseedMillis, reseedMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static SecureRandom[] createStripes(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be at least 1");
+        }
+        int size = Integer.highestOneBit(stripeCount);
+        if (size < stripeCount) {
+            size <<= 1;
+        }
+        SecureRandom[] stripes = new SecureRandom[size];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = createStripe(i);
+        }
+        return stripes;
+    }
+
+    private static SecureRandom createStripe(int index) {
+        // the personalization string keeps the instances from ever producing the same stream
+        byte[] personalization = ByteBuffer.allocate(Integer.BYTES + Long.BYTES).putInt(index)
+                .putLong(System.nanoTime()).array();
+        try {
+            return SecureRandom.getInstance(ALGORITHM, DrbgParameters.instantiation(SECURITY_STRENGTH,
+                    DrbgParameters.Capability.RESEED_ONLY, personalization));
+        } catch (NoSuchAlgorithmException exception1) {
+            try {
+                SecureRandom stripe = SecureRandom.getInstance(FALLBACK_ALGORITHM);
+                stripe.setSeed(SecureRandomUtil.getStrongSecureRandom().generateSeed(SEED_LENGTH));
+                return stripe;
+            } catch (NoSuchAlgorithmException exception2) {
+                throw new IllegalStateException("No valid secure random algorithm found.");
+            }
+        }
+    }
+
+    /**
+     * Reseed every instance from the strong secure random now, this may wait
+     * for entropy
+     */
+    @Override
+    public void reseed() {
+        for (SecureRandom stripe : spi.stripes) {
+            stripe.setSeed(spi.seedSource.generateSeed(SEED_LENGTH));
+        }
+    }
+
+    private void scheduledReseed() {
+        try {
+            reseed();
+        } catch (RuntimeException exception) {
+            LOGGER.warn("Unable to reseed the secure random pool: {}", exception.getMessage());
+        }
+    }
+
+    /**
+     * @return int the number of instances in the pool
+     */
+    public int getStripeCount() {
+        return spi.stripes.length;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return spi.stripes[0].getAlgorithm() + "-pool";
+    }
+
+    // SecureRandom locks itself around calls to a spi it cannot tell is thread
+    // safe, the stripes are, so the pool goes to them directly
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        spi.engineNextBytes(bytes);
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes, SecureRandomParameters params) {
+        if (params == null) {
+            throw new NullPointerException("params cannot be null");
+        }
+        spi.engineNextBytes(bytes, params);
+    }
+
+    @Override
+    public void setSeed(byte[] seed) {
+        spi.engineSetSeed(seed);
+    }
+
+    @Override
+    public byte[] generateSeed(int numBytes) {
+        return spi.engineGenerateSeed(numBytes);
+    }
+
+    /**
+     * Stop reseeding the pool
+     */
+    @Override
+    public void close() {
+        reseedTask.cancel(false);
+    }
+}
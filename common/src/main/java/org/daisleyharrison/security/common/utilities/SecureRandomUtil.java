@@ -2,13 +2,29 @@ package org.daisleyharrison.security.common.utilities;
 
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.Base64;
 
 public class SecureRandomUtil {
+    /**
+     * The source of the shared pool of non-blocking secure randoms
+     */
+    public static final String POOLED_SOURCE = "pool";
+    /**
+     * The source of the platform's strong secure random, which may block for
+     * entropy
+     */
+    public static final String STRONG_SOURCE = "strong";
+    private static final Duration POOL_RESEED_INTERVAL = Duration.ofMinutes(10);
 
     private static SecureRandom s_secureRandom;
 
-    private static SecureRandom getSecureRandom() {
+    private static class PoolHolder {
+        private static final SecureRandomPool POOL = new SecureRandomPool(Runtime.getRuntime().availableProcessors(),
+                POOL_RESEED_INTERVAL);
+    }
+
+    public static synchronized SecureRandom getStrongSecureRandom() {
         if (s_secureRandom == null) {
             try {
                 s_secureRandom = SecureRandom.getInstanceStrong();
@@ -23,13 +39,35 @@ public class SecureRandomUtil {
         return s_secureRandom;
     }
 
+    /**
+     * @return SecureRandom the shared pool of non-blocking secure randoms, one
+     *         instance per processor
+     */
+    public static SecureRandom getPooledSecureRandom() {
+        return PoolHolder.POOL;
+    }
+
+    /**
+     * @param source {@link #POOLED_SOURCE} or {@link #STRONG_SOURCE}
+     * @return SecureRandom the secure random of the source
+     */
+    public static SecureRandom getSecureRandom(String source) {
+        if (POOLED_SOURCE.equals(source)) {
+            return getPooledSecureRandom();
+        }
+        if (STRONG_SOURCE.equals(source)) {
+            return getStrongSecureRandom();
+        }
+        throw new IllegalArgumentException("Unknown secure random source " + source);
+    }
+
     public static String generateRandomString(int numberOfBytes) {
         if (numberOfBytes < 0) {
             throw new IllegalArgumentException("numberOfBytes is invalid");
         }
 
         byte[] jwtIdBytes = new byte[numberOfBytes];
-        getSecureRandom().nextBytes(jwtIdBytes);
+        getPooledSecureRandom().nextBytes(jwtIdBytes);
 
         return Base64.getEncoder().encodeToString(jwtIdBytes);
     }
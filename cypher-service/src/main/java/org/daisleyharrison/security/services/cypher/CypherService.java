@@ -4,6 +4,7 @@ import org.daisleyharrison.security.common.spi.CypherServiceProvider;
 import org.daisleyharrison.security.common.spi.KeyServiceProvider;
 import org.daisleyharrison.security.common.serviceProvider.LibraryServiceProvider;
 import org.daisleyharrison.security.common.utilities.StageImpl;
+import org.daisleyharrison.security.common.utilities.SecureRandomUtil;
 import org.daisleyharrison.security.common.spi.ConfigurationServiceProvider;
 import org.daisleyharrison.security.common.models.cypher.CypherFunc;
 import org.daisleyharrison.security.common.models.Endorser;
@@ -91,16 +92,7 @@ public class CypherService implements CypherServiceProvider {
     protected CypherService() throws CypherException {
         stateLock = new ReentrantLock();
 
-        try {
-            this.secureRandom = SecureRandom.getInstanceStrong();
-        } catch (NoSuchAlgorithmException exception1) {
-            try {
-                this.secureRandom = SecureRandom.getInstance("SHA1PRNG");
-            } catch (NoSuchAlgorithmException exception2) {
-                LOGGER.error("Unable to load a secure random algorithm", exception2);
-                throw new CypherException(exception2);
-            }
-        }
+        this.secureRandom = SecureRandomUtil.getPooledSecureRandom();
         this.state = CypherServiceState.CREATED;
 
         try (Stage stage = beginInitialize()) {
@@ -213,6 +205,11 @@ public class CypherService implements CypherServiceProvider {
         try {
             config = _serviceProvider.provideService(ConfigurationServiceProvider.class);
             this.cypherProvider = new CypherProviderImpl("org.daisleyharrison.security.services.cypher.cypherProvider.cyphers");
+            this.cypherProvider.setBatchPool(config.getIntegerValue(CYPHER_CONFIG_PREFIX + "batch.parallelism", 0),
+                    config.getIntegerValue(CYPHER_CONFIG_PREFIX + "batch.queue-capacity",
+                            CypherProviderImpl.DEFAULT_BATCH_QUEUE_CAPACITY));
+            this.secureRandom = SecureRandomUtil.getSecureRandom(
+                    config.getValue(CYPHER_CONFIG_PREFIX + "random.source", SecureRandomUtil.POOLED_SOURCE));
             this.keyProvider = (CachedKeyProvider)_serviceProvider.provideService(KeyServiceProvider.class);
             this.framedKeyProvider = new FramedKeyProviderImpl(keyProvider, false);
             this.cypherProvider.setKeyProvider(keyProvider);
@@ -534,6 +531,9 @@ public class CypherService implements CypherServiceProvider {
             if (this.framedKeyProvider != null) {
                 this.framedKeyProvider.close();
             }
+            if (this.cypherProvider != null) {
+                this.cypherProvider.close();
+            }
             this.state = CypherServiceState.CLOSED;
         } finally {
             stateLock.lock();
@@ -3,6 +3,12 @@ package org.daisleyharrison.security.services.cypher.cypherProvider;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.daisleyharrison.security.common.exceptions.CypherException;
@@ -16,6 +22,7 @@ import org.daisleyharrison.security.common.models.cypher.StringCypher;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherAlgorithm;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherContext;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherTemplate;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CipherPool;
 import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CypherImpl;
 import java.util.Arrays;
 import org.slf4j.Logger;
@@ -29,9 +36,14 @@ public class CypherProviderImpl implements CypherProvider, CypherContext {
     private static Logger LOGGER = LoggerFactory.getLogger(CypherProviderImpl.class);
     private Map<String, CypherTemplate> cypherSpecByName;
     private KeyProvider keyProvider;
+    private CipherPool cipherPool;
+    public static final int DEFAULT_BATCH_QUEUE_CAPACITY = 1024;
+    private ExecutorService batchPool;
 
     public CypherProviderImpl(String... packages) {
         this.cypherSpecByName = new HashMap<>();
+        this.cipherPool = new CipherPool();
+        this.batchPool = newBatchPool(0, DEFAULT_BATCH_QUEUE_CAPACITY);
         addPackage(packages);
     }
 
@@ -44,6 +56,69 @@ public class CypherProviderImpl implements CypherProvider, CypherContext {
         return keyProvider;
     }
 
+    /**
+     * @return CipherPool the pool of initialized ciphers, exposes hit/miss
+     *         counters for monitoring
+     */
+    @Override
+    public CipherPool getCipherPool() {
+        return cipherPool;
+    }
+
+    /**
+     * @return ExecutorService the dedicated pool batch operations are spread
+     *         over
+     */
+    @Override
+    public ExecutorService getBatchPool() {
+        return batchPool;
+    }
+
+    /**
+     * The batch pool has a fixed number of threads and a bounded queue. When the
+     * queue is full the submitting thread encrypts the item itself, once the
+     * pool is shut down submissions are rejected.
+     */
+    private static ExecutorService newBatchPool(int parallelism, int queueCapacity) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "cypher-batch-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("cypher batch pool is closed");
+                    }
+                    runnable.run();
+                });
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    /**
+     * Resize the pool batch operations are spread over
+     * 
+     * @param parallelism   the number of worker threads, 0 for one per processor
+     * @param queueCapacity the number of items that may wait for a worker
+     */
+    public void setBatchPool(int parallelism, int queueCapacity) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("parallelism cannot be negative");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queue capacity must be positive");
+        }
+        ExecutorService oldBatchPool = this.batchPool;
+        this.batchPool = newBatchPool(parallelism, queueCapacity);
+        oldBatchPool.shutdown();
+    }
+
+    public void close() {
+        batchPool.shutdown();
+    }
+
     public void addCypher(String algorithm, CypherTemplate cypherTemplate) {
         this.cypherSpecByName.put(algorithm, cypherTemplate);
     }
@@ -6,43 +6,82 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.InvalidAlgorithmParameterException;
 
 import org.daisleyharrison.security.common.exceptions.CypherException;
 import org.daisleyharrison.security.common.models.cypher.CypherEncryption;
 import org.daisleyharrison.security.common.models.key.KeyReference;
 import org.daisleyharrison.security.common.models.key.KeyProvider.KeyVersion;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CipherPool;
 import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CypherEncryptionImpl;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherAlgorithm;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherContext;
 
 public class ChaCha20Template extends CypherTemplateBase {
+    private static final int NONCE_SIZE = 12;
+    // buffers were once all encrypted with a zero nonce
+    private static final byte[] LEGACY_NONCE = new byte[NONCE_SIZE];
+
     public ChaCha20Template(String algorithm, String keyAlgoritm, int keySize) {
         setAlgorithm(algorithm);
         setKeyAlgorithm(keyAlgoritm);
         setKeySize(keySize);
     }
 
+    @Override
+    protected Cipher acquireCipher(CypherContext context, int mode, KeyVersion keyVersion, byte[] iv)
+            throws GeneralSecurityException {
+        if (iv == null) {
+            throw new InvalidAlgorithmParameterException(getAlgorithm() + " requires a nonce");
+        }
+
+        IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
+        SecretKey key = keyVersion.getKey(SecretKey.class);
+
+        SecretKeySpec secretKeySpec = new SecretKeySpec(key.getEncoded(), "ChaCha20");
+
+        return context.getCipherPool().acquire(getAlgorithm(), mode, keyVersion, secretKeySpec, ivParameterSpec);
+    }
+
+    @Override
+    protected int getNonceSize() {
+        return NONCE_SIZE;
+    }
+
+    @Override
+    protected byte[] getLegacyNonce() {
+        return LEGACY_NONCE;
+    }
+
+    @Override
+    protected boolean isStreamingSupported() {
+        return true;
+    }
+
+    @Override
+    protected Cipher acquireSegmentCipher(CypherContext context, int mode, KeyVersion keyVersion, Key streamKey,
+            byte[] nonce) throws GeneralSecurityException {
+        return context.getCipherPool().acquire(getAlgorithm(), mode, keyVersion, streamKey,
+                new IvParameterSpec(nonce));
+    }
+
     @Override
     public CypherEncryption encrypt(CypherContext context, KeyReference keyRef, byte[] unsecure, byte[] iv, byte[] aad)
             throws CypherException {
 
         try {
 
-            Cipher cipher = Cipher.getInstance("ChaCha20-Poly1305/None/NoPadding");
-
             if (iv == null) {
-                iv = new byte[12];
+                iv = newNonce();
             }
 
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
             KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
-            SecretKey key = keyVersion.getKey(SecretKey.class);
-
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key.getEncoded(), "ChaCha20");
-
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivParameterSpec);
+            CipherPool cipherPool = context.getCipherPool();
+            Cipher cipher = acquireCipher(context, Cipher.ENCRYPT_MODE, keyVersion, iv);
 
-            return new CypherEncryptionImpl(cipher.doFinal(unsecure), iv, aad);
+            return new CypherEncryptionImpl(doFinal(cipherPool, cipher, Cipher.ENCRYPT_MODE, keyVersion, unsecure),
+                    iv, aad);
         } catch (GeneralSecurityException exception) {
             throw new CypherException(exception);
         }
@@ -53,23 +92,16 @@ public class ChaCha20Template extends CypherTemplateBase {
             throws CypherException {
         try {
 
-            Cipher cipher = Cipher.getInstance("ChaCha20-Poly1305/None/NoPadding");
-
+            KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
+            CipherPool cipherPool = context.getCipherPool();
             byte[] iv = encryption.getIv();
             if (iv == null) {
-                iv = new byte[12];
+                // encrypted before a nonce was always drawn
+                iv = LEGACY_NONCE;
             }
+            Cipher cipher = acquireCipher(context, Cipher.DECRYPT_MODE, keyVersion, iv);
 
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
-
-            KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
-            SecretKey key = keyVersion.getKey(SecretKey.class);
-
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key.getEncoded(), "ChaCha20");
-
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivParameterSpec);
-
-            return cipher.doFinal(encryption.getSecureData());
+            return doFinal(cipherPool, cipher, Cipher.DECRYPT_MODE, keyVersion, encryption.getSecureData());
         } catch (GeneralSecurityException exception) {
             throw new CypherException(exception);
         }
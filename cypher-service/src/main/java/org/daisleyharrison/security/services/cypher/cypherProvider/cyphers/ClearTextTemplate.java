@@ -1,5 +1,11 @@
 package org.daisleyharrison.security.services.cypher.cypherProvider.cyphers;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.daisleyharrison.security.common.exceptions.CypherException;
 import org.daisleyharrison.security.common.models.cypher.CypherEncryption;
 import org.daisleyharrison.security.common.models.key.KeyReference;
@@ -44,4 +50,52 @@ public class ClearTextTemplate implements CypherTemplate {
             throws CypherException {
         return encryption.getSecureData();
     }
+
+    private ByteBuffer copy(ByteBuffer input, ByteBuffer output) {
+        if (output == null) {
+            output = input.isDirect() ? ByteBuffer.allocateDirect(input.remaining())
+                    : ByteBuffer.allocate(input.remaining());
+            output.put(input);
+            output.flip();
+        } else {
+            output.put(input);
+        }
+        return output;
+    }
+
+    @Override
+    public ByteBuffer encrypt(CypherContext context, KeyReference keyRef, ByteBuffer unsecure, ByteBuffer secure)
+            throws CypherException {
+        return copy(unsecure, secure);
+    }
+
+    @Override
+    public ByteBuffer decrypt(CypherContext context, KeyReference keyRef, ByteBuffer secure, ByteBuffer unsecure)
+            throws CypherException {
+        return copy(secure, unsecure);
+    }
+
+    @Override
+    public OutputStream encryptingOutputStream(CypherContext context, KeyReference keyRef, OutputStream secure)
+            throws CypherException {
+        return secure;
+    }
+
+    @Override
+    public InputStream decryptingInputStream(CypherContext context, KeyReference keyRef, InputStream secure)
+            throws CypherException {
+        return secure;
+    }
+
+    @Override
+    public List<byte[]> encryptAll(CypherContext context, KeyReference keyRef, List<byte[]> unsecures)
+            throws CypherException {
+        return new ArrayList<>(unsecures);
+    }
+
+    @Override
+    public List<byte[]> decryptAll(CypherContext context, KeyReference keyRef, List<byte[]> secures)
+            throws CypherException {
+        return new ArrayList<>(secures);
+    }
 }
\ No newline at end of file
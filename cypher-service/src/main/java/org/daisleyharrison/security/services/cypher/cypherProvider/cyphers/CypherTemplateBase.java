@@ -1,15 +1,42 @@
 package org.daisleyharrison.security.services.cypher.cypherProvider.cyphers;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+
 import org.daisleyharrison.security.common.exceptions.CypherException;
 import org.daisleyharrison.security.common.models.cypher.CypherEncryption;
 import org.daisleyharrison.security.common.models.key.KeyReference;
+import org.daisleyharrison.security.common.models.key.KeyProvider.KeyVersion;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CipherPool;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.Hkdf;
 import org.daisleyharrison.security.services.cypher.cypherProvider.internal.KeyDescriptorImpl;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentCipherFactory;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadInputStream;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadOutputStream;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherContext;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherDescriptor;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherTemplate;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.KeyDescriptor;
 
 public abstract class CypherTemplateBase extends KeyDescriptorImpl implements CypherTemplate, CypherDescriptor {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     private String algorithm;
 
     public CypherTemplateBase() {
@@ -30,6 +57,282 @@ public abstract class CypherTemplateBase extends KeyDescriptorImpl implements Cy
         return algorithm;
     }
 
+    /**
+     * Acquire a pooled cipher initialized for the given mode and key version
+     * 
+     * @param context    the cypher context providing the cipher pool
+     * @param mode       Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param keyVersion the resolved key version
+     * @param iv         the initialization vector, may be null
+     * @return Cipher an initialized cipher
+     * @throws GeneralSecurityException
+     */
+    protected abstract Cipher acquireCipher(CypherContext context, int mode, KeyVersion keyVersion, byte[] iv)
+            throws GeneralSecurityException;
+
+    /**
+     * The size of the random nonce generated for every buffer encryption, the
+     * nonce is prepended to the encrypted output and read back on decryption
+     * 
+     * @return int the nonce size in bytes, 0 when the cipher takes no nonce
+     */
+    protected int getNonceSize() {
+        return 0;
+    }
+
+    /**
+     * The fixed nonce of buffers encrypted before every buffer carried its own
+     * nonce. A buffer that fails to authenticate with the nonce it carries is
+     * decrypted once more, whole, with this nonce.
+     * 
+     * @return byte[] the legacy nonce, null when there is no legacy format
+     */
+    protected byte[] getLegacyNonce() {
+        return null;
+    }
+
+    /**
+     * @return byte[] a new random nonce of {@link #getNonceSize()} bytes
+     */
+    protected byte[] newNonce() {
+        byte[] nonce = new byte[getNonceSize()];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * @return boolean true if the template can encrypt streams
+     */
+    protected boolean isStreamingSupported() {
+        return false;
+    }
+
+    /**
+     * Acquire an AEAD cipher used to encrypt or decrypt one segment of a stream,
+     * only called when {@link #isStreamingSupported()} is true
+     * 
+     * @param context    the cypher context providing the cipher pool
+     * @param mode       Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param keyVersion the resolved key version
+     * @param streamKey  the key derived for the stream from the key version
+     * @param nonce      the nonce of the segment
+     * @return Cipher an initialized AEAD cipher
+     * @throws GeneralSecurityException
+     */
+    protected abstract Cipher acquireSegmentCipher(CypherContext context, int mode, KeyVersion keyVersion,
+            Key streamKey, byte[] nonce) throws GeneralSecurityException;
+
+    /**
+     * Segments are encrypted with a key derived from the key version and the
+     * random nonce prefix of the stream, so the template key is never used
+     * directly by the streaming cipher
+     */
+    private SegmentCipherFactory segmentCipherFactory(CypherContext context, KeyVersion keyVersion) {
+        byte[] info = ("segmented-aead:" + getAlgorithm()).getBytes(StandardCharsets.UTF_8);
+        return new SegmentCipherFactory() {
+            @Override
+            public Key deriveStreamKey(byte[] noncePrefix) throws GeneralSecurityException {
+                return Hkdf.derive(keyVersion.getKey(), noncePrefix, info, getKeyAlgorithm());
+            }
+
+            @Override
+            public Cipher getCipher(int mode, Key streamKey, byte[] nonce) throws GeneralSecurityException {
+                return acquireSegmentCipher(context, mode, keyVersion, streamKey, nonce);
+            }
+        };
+    }
+
+    private void ensureStreamingSupported() throws CypherException {
+        if (!isStreamingSupported()) {
+            throw new CypherException("cypher algorithm " + getAlgorithm() + " does not support streaming");
+        }
+    }
+
+    @Override
+    public OutputStream encryptingOutputStream(CypherContext context, KeyReference keyRef, OutputStream secure)
+            throws CypherException {
+        ensureStreamingSupported();
+        KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
+        try {
+            return new SegmentedAeadOutputStream(secure, segmentCipherFactory(context, keyVersion));
+        } catch (IOException exception) {
+            throw new CypherException(exception);
+        }
+    }
+
+    @Override
+    public InputStream decryptingInputStream(CypherContext context, KeyReference keyRef, InputStream secure)
+            throws CypherException {
+        ensureStreamingSupported();
+        KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
+        return new SegmentedAeadInputStream(secure, segmentCipherFactory(context, keyVersion));
+    }
+
+    /**
+     * Complete an operation on a pooled cipher, discarding the cipher from the
+     * pool when the operation fails
+     * 
+     * @param cipherPool the pool the cipher was acquired from
+     * @param cipher     the pooled cipher
+     * @param mode       the mode the cipher was acquired with
+     * @param keyVersion the key version the cipher was acquired with
+     * @param input      the data to encrypt or decrypt
+     * @return byte[] the result of the operation
+     * @throws GeneralSecurityException
+     */
+    protected byte[] doFinal(CipherPool cipherPool, Cipher cipher, int mode, KeyVersion keyVersion, byte[] input)
+            throws GeneralSecurityException {
+        try {
+            return cipher.doFinal(input);
+        } catch (GeneralSecurityException | RuntimeException exception) {
+            cipherPool.discard(getAlgorithm(), mode, keyVersion);
+            throw exception;
+        }
+    }
+
+    /**
+     * Run a cipher directly between buffers. When output is null a buffer of
+     * the required size is allocated (direct when the input is direct) and
+     * returned flipped, ready to be read.
+     */
+    private ByteBuffer doFinal(CypherContext context, KeyReference keyRef, int mode, ByteBuffer input,
+            ByteBuffer output) throws CypherException {
+        try {
+            KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
+            int nonceSize = getNonceSize();
+            int inputStart = input.position();
+            byte[] nonce = null;
+            if (nonceSize > 0) {
+                if (mode == Cipher.ENCRYPT_MODE) {
+                    nonce = newNonce();
+                } else if (input.remaining() < nonceSize) {
+                    throw new CypherException("secure buffer is shorter than its nonce");
+                } else {
+                    nonce = new byte[nonceSize];
+                    input.get(nonce);
+                }
+            }
+            try {
+                return doFinal(context, keyVersion, mode, nonce, input, output);
+            } catch (AEADBadTagException exception) {
+                byte[] legacyNonce = getLegacyNonce();
+                if (mode != Cipher.DECRYPT_MODE || legacyNonce == null) {
+                    throw exception;
+                }
+                // written before buffers carried their nonce
+                input.position(inputStart);
+                return doFinal(context, keyVersion, mode, legacyNonce, input, output);
+            }
+        } catch (GeneralSecurityException exception) {
+            throw new CypherException(exception);
+        }
+    }
+
+    private ByteBuffer doFinal(CypherContext context, KeyVersion keyVersion, int mode, byte[] nonce,
+            ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        CipherPool cipherPool = context.getCipherPool();
+        Cipher cipher = acquireCipher(context, mode, keyVersion, nonce);
+        try {
+            boolean prependNonce = nonce != null && mode == Cipher.ENCRYPT_MODE;
+            boolean allocated = output == null;
+            if (allocated) {
+                int outputSize = cipher.getOutputSize(input.remaining());
+                if (prependNonce) {
+                    outputSize += nonce.length;
+                }
+                output = input.isDirect() ? ByteBuffer.allocateDirect(outputSize) : ByteBuffer.allocate(outputSize);
+            }
+            if (prependNonce) {
+                output.put(nonce);
+            }
+            cipher.doFinal(input, output);
+            if (allocated) {
+                output.flip();
+            }
+            return output;
+        } catch (GeneralSecurityException | RuntimeException exception) {
+            cipherPool.discard(getAlgorithm(), mode, keyVersion);
+            throw exception;
+        }
+    }
+
+    @Override
+    public ByteBuffer encrypt(CypherContext context, KeyReference keyRef, ByteBuffer unsecure, ByteBuffer secure)
+            throws CypherException {
+        return doFinal(context, keyRef, Cipher.ENCRYPT_MODE, unsecure, secure);
+    }
+
+    @Override
+    public ByteBuffer decrypt(CypherContext context, KeyReference keyRef, ByteBuffer secure, ByteBuffer unsecure)
+            throws CypherException {
+        return doFinal(context, keyRef, Cipher.DECRYPT_MODE, secure, unsecure);
+    }
+
+    private byte[] doFinal(CypherContext context, int mode, KeyVersion keyVersion, byte[] input)
+            throws GeneralSecurityException {
+        int nonceSize = getNonceSize();
+        if (nonceSize == 0) {
+            Cipher cipher = acquireCipher(context, mode, keyVersion, null);
+            return doFinal(context.getCipherPool(), cipher, mode, keyVersion, input);
+        }
+        if (mode == Cipher.ENCRYPT_MODE) {
+            byte[] nonce = newNonce();
+            Cipher cipher = acquireCipher(context, mode, keyVersion, nonce);
+            byte[] output = new byte[nonceSize + cipher.getOutputSize(input.length)];
+            System.arraycopy(nonce, 0, output, 0, nonceSize);
+            int length = nonceSize + cipher.doFinal(input, 0, input.length, output, nonceSize);
+            return length == output.length ? output : Arrays.copyOf(output, length);
+        }
+        if (input.length < nonceSize) {
+            throw new GeneralSecurityException("secure buffer is shorter than its nonce");
+        }
+        Cipher cipher = acquireCipher(context, mode, keyVersion, Arrays.copyOf(input, nonceSize));
+        return cipher.doFinal(input, nonceSize, input.length - nonceSize);
+    }
+
+    /**
+     * Run a batch over the context's batch pool, each worker thread uses its own
+     * pooled cipher
+     */
+    private List<byte[]> doFinalAll(CypherContext context, KeyReference keyRef, int mode, List<byte[]> inputs)
+            throws CypherException {
+        KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
+        ExecutorService batchPool = context.getBatchPool();
+        List<Future<byte[]>> tasks = new ArrayList<>(inputs.size());
+        List<byte[]> outputs = new ArrayList<>(inputs.size());
+        try {
+            for (byte[] input : inputs) {
+                tasks.add(batchPool.submit(() -> input == null ? null : doFinal(context, mode, keyVersion, input)));
+            }
+            for (Future<byte[]> task : tasks) {
+                outputs.add(task.get());
+            }
+            return outputs;
+        } catch (RejectedExecutionException exception) {
+            tasks.forEach(task -> task.cancel(false));
+            throw new CypherException(exception);
+        } catch (ExecutionException exception) {
+            tasks.forEach(task -> task.cancel(false));
+            throw new CypherException(exception.getCause());
+        } catch (InterruptedException exception) {
+            tasks.forEach(task -> task.cancel(false));
+            Thread.currentThread().interrupt();
+            throw new CypherException(exception);
+        }
+    }
+
+    @Override
+    public List<byte[]> encryptAll(CypherContext context, KeyReference keyRef, List<byte[]> unsecures)
+            throws CypherException {
+        return doFinalAll(context, keyRef, Cipher.ENCRYPT_MODE, unsecures);
+    }
+
+    @Override
+    public List<byte[]> decryptAll(CypherContext context, KeyReference keyRef, List<byte[]> secures)
+            throws CypherException {
+        return doFinalAll(context, keyRef, Cipher.DECRYPT_MODE, secures);
+    }
+
     @Override
     public KeyDescriptor getKeyDescriptor() {
         return this;
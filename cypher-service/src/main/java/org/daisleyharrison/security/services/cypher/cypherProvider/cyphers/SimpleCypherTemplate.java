@@ -2,23 +2,27 @@ package org.daisleyharrison.security.services.cypher.cypherProvider.cyphers;
 
 import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 
 import org.daisleyharrison.security.common.exceptions.CypherException;
 import org.daisleyharrison.security.common.models.cypher.CypherEncryption;
 import org.daisleyharrison.security.common.models.key.KeyReference;
 import org.daisleyharrison.security.common.models.key.KeyProvider.KeyVersion;
 import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CypherEncryptionImpl;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadOutputStream;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherAlgorithm;
 import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherContext;
 
 public class SimpleCypherTemplate<E extends Key, D extends Key> extends CypherTemplateBase {
     private Class<E> encryptionKeyType;
     private Class<D> decryptionKeyType;
+    private String streamingAlgorithm;
 
     public SimpleCypherTemplate(String algorithm, String keyAlgorithm, int keySize, Class<E> encryptionKeyType,
             Class<D> decryptionKeyType) {
@@ -29,15 +33,45 @@ public class SimpleCypherTemplate<E extends Key, D extends Key> extends CypherTe
         this.decryptionKeyType = decryptionKeyType;
     }
 
+    /**
+     * @param streamingAlgorithm the java AEAD algorithm name used to encrypt
+     *                           streams with the same key
+     */
+    public void setStreamingAlgorithm(String streamingAlgorithm) {
+        this.streamingAlgorithm = streamingAlgorithm;
+    }
+
+    @Override
+    protected boolean isStreamingSupported() {
+        return streamingAlgorithm != null;
+    }
+
+    @Override
+    protected Cipher acquireSegmentCipher(CypherContext context, int mode, KeyVersion keyVersion, Key streamKey,
+            byte[] nonce) throws GeneralSecurityException {
+        if (streamingAlgorithm == null) {
+            throw new NoSuchAlgorithmException(getAlgorithm() + " does not support streaming");
+        }
+        return context.getCipherPool().acquire(streamingAlgorithm, mode, keyVersion, streamKey,
+                new GCMParameterSpec(SegmentedAeadOutputStream.TAG_SIZE * 8, nonce));
+    }
+
+    @Override
+    protected Cipher acquireCipher(CypherContext context, int mode, KeyVersion keyVersion, byte[] iv)
+            throws GeneralSecurityException {
+        Class<? extends Key> keyType = mode == Cipher.ENCRYPT_MODE ? encryptionKeyType : decryptionKeyType;
+        Key key = keyVersion.getKey(keyType);
+        return context.getCipherPool().acquire(getAlgorithm(), mode, keyVersion, key);
+    }
+
     @Override
     public CypherEncryption encrypt(CypherContext context, KeyReference keyRef, byte[] unsecure, byte[] iv, byte[] aad)
             throws CypherException {
         try {
             KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
-            Key key = keyVersion.getKey(encryptionKeyType);
-            Cipher cipher = Cipher.getInstance(getAlgorithm());
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            return new CypherEncryptionImpl(cipher.doFinal(unsecure), iv, aad);
+            Cipher cipher = acquireCipher(context, Cipher.ENCRYPT_MODE, keyVersion, iv);
+            return new CypherEncryptionImpl(
+                    doFinal(context.getCipherPool(), cipher, Cipher.ENCRYPT_MODE, keyVersion, unsecure), iv, aad);
         } catch (GeneralSecurityException exception) {
             throw new CypherException(exception);
         }
@@ -48,10 +82,9 @@ public class SimpleCypherTemplate<E extends Key, D extends Key> extends CypherTe
             throws CypherException {
         try {
             KeyVersion keyVersion = context.getKeyProvider().resolveKey(keyRef);
-            Key key = keyVersion.getKey(decryptionKeyType);
-            Cipher cipher = Cipher.getInstance(getAlgorithm());
-            cipher.init(Cipher.DECRYPT_MODE, key);
-            return cipher.doFinal(encryption.getSecureData());
+            Cipher cipher = acquireCipher(context, Cipher.DECRYPT_MODE, keyVersion, encryption.getIv());
+            return doFinal(context.getCipherPool(), cipher, Cipher.DECRYPT_MODE, keyVersion,
+                    encryption.getSecureData());
         } catch (GeneralSecurityException exception) {
             throw new CypherException(exception);
         }
@@ -75,6 +108,7 @@ public class SimpleCypherTemplate<E extends Key, D extends Key> extends CypherTe
     public static class Aes256 extends SimpleCypherTemplate<SecretKey, SecretKey> {
         public Aes256() {
             super("AES/ECB/PKCS5Padding", "AES", 256, SecretKey.class, SecretKey.class);
+            setStreamingAlgorithm("AES/GCM/NoPadding");
         }
     }
 
@@ -0,0 +1,184 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider.internal;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Cipher;
+
+import org.daisleyharrison.security.common.models.key.KeyProvider.KeyVersion;
+
+/**
+ * Per-thread pool of initialized {@link Cipher} instances.
+ *
+ * Ciphers are keyed by algorithm, cipher mode and key version path. A pooled
+ * cipher is only re-keyed when the resolved {@link KeyVersion} hands out a
+ * different key than the one the cipher was initialized with.
+ *
+ * Ciphers that need fresh parameters, such as a nonce, on every operation are
+ * pooled too, but are initialized again on every acquire. The ciphers of a key
+ * version are dropped from a thread's pool once the key version is destroyed,
+ * the next time that thread creates or re-keys a cipher.
+ */
+public class CipherPool {
+    private final ThreadLocal<Map<String, PooledCipher>> ciphers;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    private static class PooledCipher {
+        private KeyVersion keyVersion;
+        private Cipher cipher;
+        private Key key;
+
+        private PooledCipher(KeyVersion keyVersion) {
+            this.keyVersion = keyVersion;
+        }
+    }
+
+    public CipherPool() {
+        this.ciphers = ThreadLocal.withInitial(HashMap::new);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    private static String toPoolKey(String algorithm, int mode, KeyVersion keyVersion) {
+        return algorithm + "|" + mode + "|" + keyVersion.getVersionPath();
+    }
+
+    private PooledCipher getPooledCipher(String algorithm, int mode, KeyVersion keyVersion) {
+        return ciphers.get().computeIfAbsent(toPoolKey(algorithm, mode, keyVersion),
+                poolKey -> new PooledCipher(keyVersion));
+    }
+
+    /**
+     * Get the pooled cipher to initialize with a new key, creating the cipher
+     * if needed
+     */
+    private PooledCipher getRekeyedCipher(String algorithm, int mode, KeyVersion keyVersion)
+            throws GeneralSecurityException {
+        evictDestroyed();
+        PooledCipher pooled = getPooledCipher(algorithm, mode, keyVersion);
+        pooled.keyVersion = keyVersion;
+        pooled.key = null;
+        if (pooled.cipher == null) {
+            pooled.cipher = Cipher.getInstance(algorithm);
+        }
+        return pooled;
+    }
+
+    /**
+     * Drop the current thread's ciphers of destroyed key versions, so retired
+     * keys are not kept alive by the pool
+     */
+    private void evictDestroyed() {
+        ciphers.get().values().removeIf(pooled -> pooled.keyVersion.isDestroyed());
+    }
+
+    /**
+     * Acquire a cipher initialized with the given key. The cipher is reused as
+     * is when it was previously initialized with the same key, since
+     * {@link Cipher#doFinal} returns a cipher to its initialized state.
+     *
+     * @param algorithm  the java cipher transformation
+     * @param mode       Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param keyVersion the key version used to key the cipher
+     * @param key        the key (derived from keyVersion) to init the cipher with
+     * @return an initialized cipher owned by the current thread
+     * @throws GeneralSecurityException
+     */
+    public Cipher acquire(String algorithm, int mode, KeyVersion keyVersion, Key key)
+            throws GeneralSecurityException {
+        PooledCipher pooled = getPooledCipher(algorithm, mode, keyVersion);
+        if (pooled.cipher != null && pooled.key == key) {
+            hits.increment();
+            return pooled.cipher;
+        }
+        misses.increment();
+        pooled = getRekeyedCipher(algorithm, mode, keyVersion);
+        pooled.cipher.init(mode, key);
+        pooled.key = key;
+        return pooled.cipher;
+    }
+
+    /**
+     * Acquire a cipher initialized with the given key and parameters. Ciphers
+     * that take parameters on every operation need a fresh nonce each time, so
+     * the pooled instance is initialized again on every call. Providers refuse
+     * to initialize an instance with the key and nonce it was last initialized
+     * with, so that case gets a new instance, as if it were not pooled.
+     * Reusing the instance counts as a hit, creating it or changing its key
+     * version counts as a miss.
+     *
+     * @param algorithm  the java cipher transformation
+     * @param mode       Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param keyVersion the key version used to key the cipher
+     * @param key        the key (derived from keyVersion) to init the cipher with
+     * @param params     the algorithm parameters for this operation
+     * @return an initialized cipher owned by the current thread
+     * @throws GeneralSecurityException
+     */
+    public Cipher acquire(String algorithm, int mode, KeyVersion keyVersion, Key key,
+            AlgorithmParameterSpec params) throws GeneralSecurityException {
+        PooledCipher pooled = getPooledCipher(algorithm, mode, keyVersion);
+        if (pooled.cipher != null && pooled.keyVersion == keyVersion) {
+            // the cipher's key no longer matches once it is initialized with params
+            pooled.key = null;
+            try {
+                pooled.cipher.init(mode, key, params);
+                hits.increment();
+                return pooled.cipher;
+            } catch (InvalidKeyException | InvalidAlgorithmParameterException exception) {
+                // the same key and nonce as the last operation, start over
+                pooled.cipher = null;
+            }
+        }
+        misses.increment();
+        pooled = getRekeyedCipher(algorithm, mode, keyVersion);
+        try {
+            pooled.cipher.init(mode, key, params);
+        } catch (GeneralSecurityException | RuntimeException exception) {
+            discard(algorithm, mode, keyVersion);
+            throw exception;
+        }
+        return pooled.cipher;
+    }
+
+    /**
+     * Remove a cipher from the current thread's pool, used when an operation
+     * failed and the cipher may be left in an unknown state
+     *
+     * @param algorithm  the java cipher transformation
+     * @param mode       Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param keyVersion the key version used to key the cipher
+     */
+    public void discard(String algorithm, int mode, KeyVersion keyVersion) {
+        ciphers.get().remove(toPoolKey(algorithm, mode, keyVersion));
+    }
+
+    /**
+     * Remove all ciphers from the current thread's pool
+     */
+    public void clear() {
+        ciphers.get().clear();
+    }
+
+    /**
+     * @return long the number of times a pooled cipher was reused, whether
+     *         as is or initialized again with new parameters
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return long the number of times a cipher had to be created or re-keyed
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -1,7 +1,13 @@
 package org.daisleyharrison.security.services.cypher.cypherProvider.internal;
 
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 
 import org.daisleyharrison.security.common.exceptions.CypherException;
 import org.daisleyharrison.security.common.models.cypher.Cypher;
@@ -12,7 +18,7 @@ import org.daisleyharrison.security.services.cypher.cypherProvider.models.Cypher
 import org.daisleyharrison.security.common.models.cypher.StringCypher;
 
 public class CypherImpl implements Cypher, StringCypher {
-    private static final String DEFAULT_CHARSET = "UTF-8";
+    private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
     private CypherContext context;
     private KeyReference keyRef;
     private CypherTemplate cypherTemplate;
@@ -22,11 +28,12 @@ public class CypherImpl implements Cypher, StringCypher {
         if (unsecureText == null) {
             return null;
         }
+        ByteBuffer unsecure = DEFAULT_CHARSET.encode(unsecureText);
         try {
-            byte[] unsecure = unsecureText.getBytes(DEFAULT_CHARSET);
-            return Base64.getEncoder().encodeToString(encrypt(unsecure));
-        } catch (UnsupportedEncodingException exception) {
-            throw new CypherException(exception);
+            ByteBuffer encoded = Base64.getEncoder().encode(encrypt(unsecure));
+            return new String(encoded.array(), encoded.arrayOffset(), encoded.limit(), StandardCharsets.US_ASCII);
+        } finally {
+            Arrays.fill(unsecure.array(), (byte) 0);
         }
     }
 
@@ -35,11 +42,12 @@ public class CypherImpl implements Cypher, StringCypher {
         if (secureText == null) {
             return null;
         }
+        ByteBuffer secure = ByteBuffer.wrap(Base64.getDecoder().decode(secureText));
+        ByteBuffer unsecure = decrypt(secure);
         try {
-            byte[] secure = Base64.getDecoder().decode(secureText);
-            return new String(decrypt(secure), DEFAULT_CHARSET);
-        } catch (UnsupportedEncodingException exception) {
-            throw new CypherException(exception);
+            return DEFAULT_CHARSET.decode(unsecure).toString();
+        } finally {
+            Arrays.fill(unsecure.array(), (byte) 0);
         }
     }
 
@@ -51,12 +59,16 @@ public class CypherImpl implements Cypher, StringCypher {
         return cypherTemplate.encrypt(context, keyRef, unsecure, iv, aad);
     }
 
+    /**
+     * Encrypt in the format of {@link #encrypt(ByteBuffer)}, so a template that
+     * draws a nonce per encryption carries it in front of the secure data
+     */
     @Override
     public byte[] encrypt(byte[] unsecure) throws CypherException {
         if (unsecure == null) {
             return null;
         }
-        return cypherTemplate.encrypt(context, keyRef, unsecure, null, null).getSecureData();
+        return toArray(cypherTemplate.encrypt(context, keyRef, ByteBuffer.wrap(unsecure), null));
     }
 
     @Override
@@ -66,7 +78,76 @@ public class CypherImpl implements Cypher, StringCypher {
 
     @Override
     public byte[] decrypt(byte[] secure) throws CypherException {
-        return cypherTemplate.decrypt(context, keyRef, new CypherEncryptionImpl(secure), null);
+        if (secure == null) {
+            return null;
+        }
+        return toArray(cypherTemplate.decrypt(context, keyRef, ByteBuffer.wrap(secure), null));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.limit() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] array = new byte[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+
+    @Override
+    public ByteBuffer encrypt(ByteBuffer unsecure) throws CypherException {
+        if (unsecure == null) {
+            return null;
+        }
+        return cypherTemplate.encrypt(context, keyRef, unsecure, null);
+    }
+
+    @Override
+    public ByteBuffer decrypt(ByteBuffer secure) throws CypherException {
+        if (secure == null) {
+            return null;
+        }
+        return cypherTemplate.decrypt(context, keyRef, secure, null);
+    }
+
+    @Override
+    public int encrypt(ByteBuffer unsecure, ByteBuffer secure) throws CypherException {
+        int position = secure.position();
+        cypherTemplate.encrypt(context, keyRef, unsecure, secure);
+        return secure.position() - position;
+    }
+
+    @Override
+    public int decrypt(ByteBuffer secure, ByteBuffer unsecure) throws CypherException {
+        int position = unsecure.position();
+        cypherTemplate.decrypt(context, keyRef, secure, unsecure);
+        return unsecure.position() - position;
+    }
+
+    @Override
+    public OutputStream encryptingOutputStream(OutputStream secure) throws CypherException {
+        return cypherTemplate.encryptingOutputStream(context, keyRef, secure);
+    }
+
+    @Override
+    public InputStream decryptingInputStream(InputStream secure) throws CypherException {
+        return cypherTemplate.decryptingInputStream(context, keyRef, secure);
+    }
+
+    @Override
+    public List<byte[]> encryptAll(List<byte[]> unsecures) throws CypherException {
+        if (unsecures == null) {
+            return null;
+        }
+        return cypherTemplate.encryptAll(context, keyRef, unsecures);
+    }
+
+    @Override
+    public List<byte[]> decryptAll(List<byte[]> secures) throws CypherException {
+        if (secures == null) {
+            return null;
+        }
+        return cypherTemplate.decryptAll(context, keyRef, secures);
     }
 
     public CypherImpl(CypherContext context, CypherTemplate cypherTemplate, KeyReference keyRef) {
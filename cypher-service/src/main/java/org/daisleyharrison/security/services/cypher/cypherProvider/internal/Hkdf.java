@@ -0,0 +1,62 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider.internal;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-based extract-and-expand key derivation (RFC 5869) over HmacSHA256
+ */
+public class Hkdf {
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int HASH_SIZE = 32;
+
+    private Hkdf() {
+    }
+
+    /**
+     * Derive a secret key from the input key material
+     *
+     * @param key       the input key material, must be a secret key
+     * @param salt      the salt, such as a random stream nonce
+     * @param info      the context the derived key is bound to
+     * @param algorithm the algorithm of the derived key
+     * @return SecretKey a key of the same length as the input key
+     * @throws GeneralSecurityException
+     */
+    public static SecretKey derive(Key key, byte[] salt, byte[] info, String algorithm)
+            throws GeneralSecurityException {
+        byte[] ikm = key.getEncoded();
+        if (ikm == null) {
+            throw new GeneralSecurityException("key " + key.getAlgorithm() + " cannot be exported for derivation");
+        }
+        byte[] prk = null;
+        byte[] okm = new byte[ikm.length];
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(salt, MAC_ALGORITHM));
+            prk = mac.doFinal(ikm);
+
+            mac.init(new SecretKeySpec(prk, MAC_ALGORITHM));
+            byte[] block = new byte[0];
+            for (int offset = 0, counter = 1; offset < okm.length; offset += HASH_SIZE, counter++) {
+                mac.update(block);
+                mac.update(info);
+                mac.update((byte) counter);
+                block = mac.doFinal();
+                System.arraycopy(block, 0, okm, offset, Math.min(HASH_SIZE, okm.length - offset));
+            }
+            return new SecretKeySpec(okm, algorithm);
+        } finally {
+            Arrays.fill(ikm, (byte) 0);
+            if (prk != null) {
+                Arrays.fill(prk, (byte) 0);
+            }
+            Arrays.fill(okm, (byte) 0);
+        }
+    }
+}
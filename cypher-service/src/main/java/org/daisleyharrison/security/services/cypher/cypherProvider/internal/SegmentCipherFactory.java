@@ -0,0 +1,26 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider.internal;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+import javax.crypto.Cipher;
+
+public interface SegmentCipherFactory {
+    /**
+     * Derive the key of one stream, called once per stream
+     *
+     * @param noncePrefix the random nonce prefix of the stream
+     * @return Key the key used for every segment of the stream
+     * @throws GeneralSecurityException
+     */
+    public Key deriveStreamKey(byte[] noncePrefix) throws GeneralSecurityException;
+
+    /**
+     * @param mode      Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param streamKey the key derived for the stream
+     * @param nonce     the nonce of the segment
+     * @return Cipher an AEAD cipher initialized for the segment
+     * @throws GeneralSecurityException
+     */
+    public Cipher getCipher(int mode, Key streamKey, byte[] nonce) throws GeneralSecurityException;
+}
@@ -0,0 +1,145 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider.internal;
+
+import static org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadOutputStream.NONCE_PREFIX_SIZE;
+import static org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadOutputStream.SEGMENT_SIZE;
+import static org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadOutputStream.TAG_SIZE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+
+/**
+ * Decrypts a stream produced by {@link SegmentedAeadOutputStream} one segment
+ * at a time, plain text is released as soon as its segment is authenticated.
+ */
+public class SegmentedAeadInputStream extends InputStream {
+    private final InputStream secure;
+    private final SegmentCipherFactory cipherFactory;
+    private byte[] noncePrefix;
+    private Key streamKey;
+    // one byte of look ahead tells whether the segment is the last one
+    private final byte[] secureSegment;
+    private int secureLength;
+    private final byte[] segment;
+    private int position;
+    private int length;
+    private int index;
+    private boolean lastSegmentRead;
+    private boolean closed;
+
+    public SegmentedAeadInputStream(InputStream secure, SegmentCipherFactory cipherFactory) {
+        this.secure = secure;
+        this.cipherFactory = cipherFactory;
+        this.secureSegment = new byte[SEGMENT_SIZE + TAG_SIZE + 1];
+        this.segment = new byte[SEGMENT_SIZE];
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    private void readHeader() throws IOException {
+        byte[] header = secure.readNBytes(NONCE_PREFIX_SIZE);
+        if (header.length < NONCE_PREFIX_SIZE) {
+            throw new IOException("stream truncated, missing header");
+        }
+        try {
+            streamKey = cipherFactory.deriveStreamKey(header);
+        } catch (GeneralSecurityException exception) {
+            throw new IOException("stream key derivation failed", exception);
+        }
+        noncePrefix = header;
+    }
+
+    private void readSegment() throws IOException {
+        if (noncePrefix == null) {
+            readHeader();
+        }
+        while (secureLength < secureSegment.length) {
+            int count = secure.read(secureSegment, secureLength, secureSegment.length - secureLength);
+            if (count < 0) {
+                break;
+            }
+            secureLength += count;
+        }
+        boolean last = secureLength < secureSegment.length;
+        int segmentLength = last ? secureLength : secureSegment.length - 1;
+        if (segmentLength < TAG_SIZE) {
+            throw new IOException("stream truncated");
+        }
+        try {
+            Cipher cipher = cipherFactory.getCipher(Cipher.DECRYPT_MODE, streamKey,
+                    SegmentedAeadOutputStream.segmentNonce(noncePrefix, index, last));
+            length = cipher.doFinal(secureSegment, 0, segmentLength, segment, 0);
+            position = 0;
+            index++;
+        } catch (GeneralSecurityException exception) {
+            throw new IOException("segment authentication failed", exception);
+        }
+        if (last) {
+            lastSegmentRead = true;
+            secureLength = 0;
+        } else {
+            secureSegment[0] = secureSegment[segmentLength];
+            secureLength = 1;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (!fill()) {
+            return -1;
+        }
+        return segment[position++] & 0xFF;
+    }
+
+    /**
+     * @return boolean false at the end of the stream, otherwise there is plain
+     *         text left in the current segment
+     */
+    private boolean fill() throws IOException {
+        while (position == length) {
+            if (lastSegmentRead) {
+                return false;
+            }
+            readSegment();
+        }
+        return true;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, length - position);
+        System.arraycopy(segment, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            Arrays.fill(segment, (byte) 0);
+            secure.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+
+/**
+ * Encrypts a stream as a sequence of independently authenticated segments so
+ * memory use is constant regardless of the size of the payload.
+ *
+ * The stream starts with a random nonce prefix, followed by the encrypted
+ * segments. Each segment holds SEGMENT_SIZE bytes of plain text (the last
+ * segment may hold less) plus the authentication tag. The nonce of a segment is
+ * {nonce-prefix} {segment-index (4 bytes)} {last-segment-flag (1 byte)}, so
+ * segments cannot be reordered, dropped or the stream truncated without
+ * failing authentication. The segments are not encrypted with the template key
+ * itself but with a key derived from it and the nonce prefix, so every stream
+ * has its own key.
+ */
+public class SegmentedAeadOutputStream extends OutputStream {
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    public static final int TAG_SIZE = 16;
+    public static final int NONCE_SIZE = 12;
+    public static final int NONCE_PREFIX_SIZE = NONCE_SIZE - 5;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final OutputStream secure;
+    private final SegmentCipherFactory cipherFactory;
+    private final byte[] noncePrefix;
+    private final Key streamKey;
+    private final byte[] segment;
+    private final byte[] secureSegment;
+    private int length;
+    private int index;
+    private boolean closed;
+
+    public SegmentedAeadOutputStream(OutputStream secure, SegmentCipherFactory cipherFactory) throws IOException {
+        this.secure = secure;
+        this.cipherFactory = cipherFactory;
+        this.noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        this.segment = new byte[SEGMENT_SIZE];
+        this.secureSegment = new byte[SEGMENT_SIZE + TAG_SIZE];
+        RANDOM.nextBytes(noncePrefix);
+        try {
+            this.streamKey = cipherFactory.deriveStreamKey(noncePrefix);
+        } catch (GeneralSecurityException exception) {
+            throw new IOException("stream key derivation failed", exception);
+        }
+        secure.write(noncePrefix);
+    }
+
+    /**
+     * Build the nonce of a segment
+     *
+     * @param noncePrefix the random prefix of the stream
+     * @param index       the index of the segment
+     * @param last        true if this is the last segment of the stream
+     * @return byte[] the segment nonce
+     */
+    public static byte[] segmentNonce(byte[] noncePrefix, int index, boolean last) {
+        byte[] nonce = Arrays.copyOf(noncePrefix, NONCE_SIZE);
+        nonce[NONCE_PREFIX_SIZE] = (byte) (index >>> 24);
+        nonce[NONCE_PREFIX_SIZE + 1] = (byte) (index >>> 16);
+        nonce[NONCE_PREFIX_SIZE + 2] = (byte) (index >>> 8);
+        nonce[NONCE_PREFIX_SIZE + 3] = (byte) index;
+        nonce[NONCE_SIZE - 1] = (byte) (last ? 1 : 0);
+        return nonce;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        if (index == Integer.MAX_VALUE) {
+            throw new IOException("stream exceeds the maximum number of segments");
+        }
+        try {
+            Cipher cipher = cipherFactory.getCipher(Cipher.ENCRYPT_MODE, streamKey,
+                    segmentNonce(noncePrefix, index, last));
+            int secureLength = cipher.doFinal(segment, 0, length, secureSegment, 0);
+            secure.write(secureSegment, 0, secureLength);
+            index++;
+            length = 0;
+        } catch (GeneralSecurityException exception) {
+            throw new IOException("segment encryption failed", exception);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (length == segment.length) {
+            writeSegment(false);
+        }
+        segment[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            // a full segment is only written once more data arrives, the last
+            // segment is written on close
+            if (length == segment.length) {
+                writeSegment(false);
+            }
+            int count = Math.min(len, segment.length - length);
+            System.arraycopy(b, off, segment, length, count);
+            length += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        secure.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                writeSegment(true);
+            } finally {
+                Arrays.fill(segment, (byte) 0);
+                secure.close();
+            }
+        }
+    }
+}
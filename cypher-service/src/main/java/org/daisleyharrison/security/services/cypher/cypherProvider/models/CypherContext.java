@@ -1,7 +1,12 @@
 package org.daisleyharrison.security.services.cypher.cypherProvider.models;
 
+import java.util.concurrent.ExecutorService;
+
 import org.daisleyharrison.security.common.models.key.KeyProvider;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CipherPool;
 
 public interface CypherContext {
     public KeyProvider getKeyProvider();
+    public CipherPool getCipherPool();
+    public ExecutorService getBatchPool();
 }
\ No newline at end of file
@@ -1,5 +1,10 @@
 package org.daisleyharrison.security.services.cypher.cypherProvider.models;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import org.daisleyharrison.security.common.exceptions.CypherException;
 import org.daisleyharrison.security.common.models.cypher.CypherEncryption;
 import org.daisleyharrison.security.common.models.key.KeyReference;
@@ -9,4 +14,28 @@ public interface CypherTemplate {
     public CypherDescriptor getCypherDescriptor();
     public CypherEncryption encrypt(CypherContext context, KeyReference keyRef, byte[] unsecure, byte[] iv, byte[] aad) throws CypherException;
     public byte[] decrypt(CypherContext context, KeyReference keyRef, CypherEncryption encryption, byte[] aad) throws CypherException;
+    /**
+     * Encrypt from the unsecure buffer into the secure buffer, if secure is null a new buffer is allocated and returned flipped
+     */
+    public ByteBuffer encrypt(CypherContext context, KeyReference keyRef, ByteBuffer unsecure, ByteBuffer secure) throws CypherException;
+    /**
+     * Decrypt from the secure buffer into the unsecure buffer, if unsecure is null a new buffer is allocated and returned flipped
+     */
+    public ByteBuffer decrypt(CypherContext context, KeyReference keyRef, ByteBuffer secure, ByteBuffer unsecure) throws CypherException;
+    /**
+     * Wrap the secure stream with a stream that encrypts everything written to it, closing the returned stream completes the encryption
+     */
+    public OutputStream encryptingOutputStream(CypherContext context, KeyReference keyRef, OutputStream secure) throws CypherException;
+    /**
+     * Wrap the secure stream with a stream that decrypts it as it is read
+     */
+    public InputStream decryptingInputStream(CypherContext context, KeyReference keyRef, InputStream secure) throws CypherException;
+    /**
+     * Encrypt a batch of buffers, the key is resolved once and the work is spread over the context's batch pool, results are in input order
+     */
+    public List<byte[]> encryptAll(CypherContext context, KeyReference keyRef, List<byte[]> unsecures) throws CypherException;
+    /**
+     * Decrypt a batch of buffers, the key is resolved once and the work is spread over the context's batch pool, results are in input order
+     */
+    public List<byte[]> decryptAll(CypherContext context, KeyReference keyRef, List<byte[]> secures) throws CypherException;
 }
\ No newline at end of file
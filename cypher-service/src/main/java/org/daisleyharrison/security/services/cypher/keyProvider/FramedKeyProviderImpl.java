@@ -3,7 +3,7 @@ package org.daisleyharrison.security.services.cypher.keyProvider;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentMap;
 
 import org.daisleyharrison.security.common.exceptions.KeyProviderException;
 import org.daisleyharrison.security.common.models.key.CachedKeyProvider;
@@ -16,16 +16,16 @@ import org.slf4j.LoggerFactory;
 public class FramedKeyProviderImpl implements FramedKeyProvider, AutoCloseable {
     private static Logger LOGGER = LoggerFactory.getLogger(FramedKeyProviderImpl.class);
     private final Map<String, KeyFrameImpl> frames;
-    private Map<String, Integer> countByKeyPath;
+    // number of open frames holding each key path, updated atomically per key
+    // path so resolutions of different keys never contend
+    private final ConcurrentMap<String, Integer> countByKeyPath;
     private boolean requireFrame;
-    private ReentrantLock lock;
 
     private CachedKeyProvider cachedKeyProvider;
 
     public FramedKeyProviderImpl(CachedKeyProvider cachedKeyProvider, boolean requireFrame) {
         this.cachedKeyProvider = cachedKeyProvider;
         this.requireFrame = requireFrame;
-        this.lock = new ReentrantLock();
         this.frames = new ConcurrentHashMap<>();
         this.countByKeyPath = new ConcurrentHashMap<>();
     }
@@ -37,18 +37,13 @@ public class FramedKeyProviderImpl implements FramedKeyProvider, AutoCloseable {
      */
     @Override
     public KeyFrame openFrame() throws KeyProviderException {
-        this.lock.lock();
-        try {
-            String key = UUID.randomUUID().toString();
-            KeyFrameImpl frame = new KeyFrameImpl(key);
-            frame.addCloseListener(() -> {
-                closeFrame(frame);
-            });
-            this.frames.put(key, frame);
-            return frame;
-        } finally {
-            this.lock.unlock();
-        }
+        String key = UUID.randomUUID().toString();
+        KeyFrameImpl frame = new KeyFrameImpl(key);
+        frame.addCloseListener(() -> {
+            closeFrame(frame);
+        });
+        this.frames.put(key, frame);
+        return frame;
     }
 
     /**
@@ -62,12 +57,9 @@ public class FramedKeyProviderImpl implements FramedKeyProvider, AutoCloseable {
     }
 
     private void closeFrame(KeyFrameImpl frame) {
-        this.lock.lock();
-        try {
+        // only the first close of a frame releases its key paths
+        if (this.frames.remove(frame.getKey()) != null) {
             frame.getKeyPaths().forEach(keyPath -> releaseKeyPath(keyPath));
-            this.frames.remove(frame.getKey());
-        } finally {
-            this.lock.unlock();
         }
     }
 
@@ -86,21 +78,32 @@ public class FramedKeyProviderImpl implements FramedKeyProvider, AutoCloseable {
         }
     }
 
+    private void retainKeyPath(String keyPath) {
+        countByKeyPath.merge(keyPath, 1, Integer::sum);
+    }
+
     private void releaseKeyPath(String keyPath) {
-        try {
-            Integer count = countByKeyPath.get(keyPath);
-            if (count != null) {
-                count = count - 1;
-                if (count <= 0) {
-                    this.cachedKeyProvider.evict(keyPath);
-                    countByKeyPath.remove(keyPath);
-                } else {
-                    countByKeyPath.put(keyPath, count);
-                }
+        countByKeyPath.computeIfPresent(keyPath, (path, count) -> {
+            if (count > 1) {
+                return count - 1;
             }
-        } catch (Exception exception) {
-            LOGGER.error("Error evicting key path {}: {}", keyPath, exception.getMessage());
-        }
+            // evict while the count entry is locked so a concurrent retain
+            // cannot lose its key
+            try {
+                this.cachedKeyProvider.evict(path);
+            } catch (Exception exception) {
+                LOGGER.error("Error evicting key path {}: {}", path, exception.getMessage());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @param keyPath the key path
+     * @return int the number of open frames holding the key path
+     */
+    public int getFrameCount(String keyPath) {
+        return countByKeyPath.getOrDefault(keyPath, 0);
     }
 
     @Override
@@ -110,36 +113,23 @@ public class FramedKeyProviderImpl implements FramedKeyProvider, AutoCloseable {
 
     @Override
     public KeyVersion resolveKey(KeyReference keyRef) throws KeyProviderException {
-        this.lock.lock();
-        try {
-            String keyPath = keyRef.getPath();
-            KeyVersion keyVersion = cachedKeyProvider.resolveKey(keyRef);
-            if (hasFrame()) {
-                getFrame().put(keyPath);
-                Integer count = countByKeyPath.get(keyPath);
-                if (count == null) {
-                    countByKeyPath.put(keyPath, 1);
-                } else {
-                    countByKeyPath.put(keyPath, count + 1);
-                }
-            } else if (requireFrame) {
-                throw new KeyProviderException("No open frame on this thread");
+        String keyPath = keyRef.getPath();
+        if (hasFrame()) {
+            KeyFrameImpl frame = getFrame();
+            // a frame holds a single reference to each key path it resolved
+            if (frame.put(keyPath)) {
+                retainKeyPath(keyPath);
             }
-            return keyVersion;
-        } finally {
-            this.lock.unlock();
+        } else if (requireFrame) {
+            throw new KeyProviderException("No open frame on this thread");
         }
+        return cachedKeyProvider.resolveKey(keyRef);
     }
 
     public void close() throws Exception {
-        this.lock.lock();
-        try {
-            this.frames.values().forEach(frame -> {
-                closeFrame(frame);
-            });
-        } finally {
-            this.lock.unlock();
-        }
+        this.frames.values().forEach(frame -> {
+            closeFrame(frame);
+        });
     }
 
 }
@@ -42,9 +42,10 @@ public class KeyFrameImpl implements KeyFrame, Stage {
      * Put a keyPath into the frame
      * 
      * @param handle
+     * @return boolean true if the keyPath was not already in the frame
      */
-    public void put(String keyPath) {
-        this.keyPaths.add(keyPath);
+    public boolean put(String keyPath) {
+        return this.keyPaths.add(keyPath);
     }
 
     protected Set<String> getKeyPaths() {
@@ -19,13 +19,18 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class CypherServiceTest {
 
@@ -200,6 +205,69 @@ public class CypherServiceTest {
         }
     }
 
+    @Test
+    public void encrypt_decrypt_direct_buffer() throws Exception {
+
+        Charset charset = Charset.forName("UTF8");
+
+        ByteBuffer unsecureBuffer = ByteBuffer.allocateDirect(QUICK_TEST_STRING.length() * 4);
+        unsecureBuffer.put(charset.encode(QUICK_TEST_STRING));
+        unsecureBuffer.flip();
+
+        initializeCypherService();
+        Cypher cypher = cypherService.getCypher("semetric");
+        ByteBuffer secureBuffer = cypher.encrypt(unsecureBuffer.duplicate());
+        assertTrue("encrypted buffer should be direct", secureBuffer.isDirect());
+        ByteBuffer decryptedBuffer = ByteBuffer.allocateDirect(secureBuffer.remaining());
+        int length = cypher.decrypt(secureBuffer, decryptedBuffer);
+        decryptedBuffer.flip();
+        assertEquals(unsecureBuffer.remaining(), length);
+        assertEquals("decrypted data does not match", unsecureBuffer, decryptedBuffer);
+    }
+
+    @Test
+    public void encrypt_decrypt_stream() throws Exception {
+        byte[] unsecureData = new byte[200000];
+        for (int i = 0; i < unsecureData.length; i++) {
+            unsecureData[i] = (byte) QUICK_TEST_STRING.charAt(i % QUICK_TEST_STRING.length());
+        }
+
+        initializeCypherService();
+        Cypher cypher = cypherService.getCypher("semetric");
+
+        ByteArrayOutputStream secureStream = new ByteArrayOutputStream();
+        try (OutputStream encryptingStream = cypher.encryptingOutputStream(secureStream)) {
+            encryptingStream.write(unsecureData);
+        }
+
+        byte[] decryptedData;
+        try (InputStream decryptingStream = cypher
+                .decryptingInputStream(new ByteArrayInputStream(secureStream.toByteArray()))) {
+            decryptedData = decryptingStream.readAllBytes();
+        }
+        assertTrue("decrypted data does not match", Arrays.equals(unsecureData, decryptedData));
+    }
+
+    @Test
+    public void encrypt_decrypt_batch() throws Exception {
+        Charset charset = Charset.forName("UTF8");
+        List<byte[]> unsecureData = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            unsecureData.add((i + ": " + QUICK_TEST_STRING).getBytes(charset));
+        }
+
+        initializeCypherService();
+        Cypher cypher = cypherService.getCypher("semetric");
+        List<byte[]> secureData = cypher.encryptAll(unsecureData);
+        List<byte[]> decryptedData = cypher.decryptAll(secureData);
+
+        assertEquals(unsecureData.size(), decryptedData.size());
+        for (int i = 0; i < unsecureData.size(); i++) {
+            assertTrue("decrypted data does not match at " + i,
+                    Arrays.equals(unsecureData.get(i), decryptedData.get(i)));
+        }
+    }
+
     @Test
     public void encrypt_decrypt_string() throws Exception {
 
@@ -0,0 +1,47 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CypherProviderImplTest {
+
+    @Test
+    public void testBatchPoolBounded() throws Exception {
+        CypherProviderImpl cypherProvider = new CypherProviderImpl();
+        cypherProvider.setBatchPool(1, 1);
+        ExecutorService batchPool = cypherProvider.getBatchPool();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> blocked = batchPool.submit(() -> {
+                release.await();
+                return null;
+            });
+            Future<?> queued = batchPool.submit(() -> {
+            });
+            // the queue is full so this runs on the submitting thread
+            Thread submitter = Thread.currentThread();
+            Future<Boolean> overflow = batchPool.submit(() -> Thread.currentThread() == submitter);
+            assertTrue(overflow.isDone());
+            assertTrue(overflow.get());
+            release.countDown();
+            blocked.get();
+            queued.get();
+        } finally {
+            release.countDown();
+            cypherProvider.close();
+        }
+        try {
+            batchPool.submit(() -> {
+            });
+            fail("a closed batch pool should reject work");
+        } catch (RejectedExecutionException exception) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider.cyphers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CipherPool;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CypherEncryptionImpl;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CypherImpl;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChaCha20TemplateTest {
+    public static final String QUICK = "The quick brown fox jumped over the lazy dog.";
+
+    private final TestCypherContext context = new TestCypherContext("ChaCha20", 256);
+    private final ChaCha20Template template = new ChaCha20Template.ChaCha20Poly1305_256();
+
+    @Test
+    public void testBufferNonce() throws Exception {
+        ByteBuffer unsecure = ByteBuffer.wrap(QUICK.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer first = template.encrypt(context, TestCypherContext.KEY_REF, unsecure.duplicate(), null);
+        ByteBuffer second = template.encrypt(context, TestCypherContext.KEY_REF, unsecure.duplicate(), null);
+
+        // every encryption carries its own random nonce
+        assertFalse(first.equals(second));
+        assertFalse(first.duplicate().limit(12).equals(second.duplicate().limit(12)));
+
+        assertEquals(unsecure, template.decrypt(context, TestCypherContext.KEY_REF, first, null));
+        assertEquals(unsecure, template.decrypt(context, TestCypherContext.KEY_REF, second, null));
+    }
+
+    @Test
+    public void testDirectBufferNonce() throws Exception {
+        ByteBuffer unsecure = ByteBuffer.allocateDirect(QUICK.length());
+        unsecure.put(QUICK.getBytes(StandardCharsets.UTF_8)).flip();
+        ByteBuffer secure = template.encrypt(context, TestCypherContext.KEY_REF, unsecure.duplicate(), null);
+        assertTrue(secure.isDirect());
+
+        ByteBuffer decrypted = ByteBuffer.allocateDirect(secure.remaining());
+        template.decrypt(context, TestCypherContext.KEY_REF, secure, decrypted);
+        decrypted.flip();
+        assertEquals(unsecure, decrypted);
+    }
+
+    @Test
+    public void testPooledNonceCipher() throws Exception {
+        CipherPool cipherPool = context.getCipherPool();
+        ByteBuffer unsecure = ByteBuffer.wrap(QUICK.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer first = template.encrypt(context, TestCypherContext.KEY_REF, unsecure.duplicate(), null);
+        long misses = cipherPool.getMisses();
+        long hits = cipherPool.getHits();
+        ByteBuffer second = template.encrypt(context, TestCypherContext.KEY_REF, unsecure.duplicate(), null);
+
+        // the pooled cipher is initialized again with the new nonce
+        assertEquals(misses, cipherPool.getMisses());
+        assertEquals(hits + 1, cipherPool.getHits());
+        assertFalse(first.equals(second));
+        assertEquals(unsecure, template.decrypt(context, TestCypherContext.KEY_REF, first, null));
+        assertEquals(unsecure, template.decrypt(context, TestCypherContext.KEY_REF, second, null));
+    }
+
+    @Test
+    public void testByteArrayNonce() throws Exception {
+        CypherImpl cypher = new CypherImpl(context, template, TestCypherContext.KEY_REF);
+        byte[] unsecure = QUICK.getBytes(StandardCharsets.UTF_8);
+        byte[] first = cypher.encrypt(unsecure);
+        byte[] second = cypher.encrypt(unsecure);
+        assertFalse(Arrays.equals(first, second));
+        assertTrue(Arrays.equals(unsecure, cypher.decrypt(first)));
+        assertTrue(Arrays.equals(unsecure, cypher.decrypt(second)));
+        assertEquals(QUICK, cypher.decrypt(cypher.encrypt(QUICK)));
+    }
+
+    @Test
+    public void testLegacyZeroNonce() throws Exception {
+        // encrypted the way strings were before every buffer carried its nonce
+        Cipher cipher = Cipher.getInstance("ChaCha20-Poly1305");
+        cipher.init(Cipher.ENCRYPT_MODE, context.resolveKey(TestCypherContext.KEY_REF).getKey(),
+                new IvParameterSpec(new byte[12]));
+        byte[] legacy = cipher.doFinal(QUICK.getBytes(StandardCharsets.UTF_8));
+
+        CypherImpl cypher = new CypherImpl(context, template, TestCypherContext.KEY_REF);
+        assertEquals(QUICK, cypher.decrypt(Base64.getEncoder().encodeToString(legacy)));
+        assertEquals(QUICK, new String(
+                template.decrypt(context, TestCypherContext.KEY_REF, new CypherEncryptionImpl(legacy), null),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        byte[] unsecure = new byte[100000];
+        for (int i = 0; i < unsecure.length; i++) {
+            unsecure[i] = (byte) QUICK.charAt(i % QUICK.length());
+        }
+        ByteArrayOutputStream secure = new ByteArrayOutputStream();
+        try (OutputStream encrypting = template.encryptingOutputStream(context, TestCypherContext.KEY_REF, secure)) {
+            encrypting.write(unsecure);
+        }
+        try (InputStream decrypting = template.decryptingInputStream(context, TestCypherContext.KEY_REF,
+                new ByteArrayInputStream(secure.toByteArray()))) {
+            assertTrue(Arrays.equals(unsecure, decrypting.readAllBytes()));
+        }
+    }
+
+    @Test
+    public void testBatchNonce() throws Exception {
+        byte[] unsecure = QUICK.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> secures = template.encryptAll(context, TestCypherContext.KEY_REF, List.of(unsecure, unsecure));
+        assertFalse(Arrays.equals(secures.get(0), secures.get(1)));
+
+        List<byte[]> decrypted = template.decryptAll(context, TestCypherContext.KEY_REF, secures);
+        assertTrue(Arrays.equals(unsecure, decrypted.get(0)));
+        assertTrue(Arrays.equals(unsecure, decrypted.get(1)));
+    }
+}
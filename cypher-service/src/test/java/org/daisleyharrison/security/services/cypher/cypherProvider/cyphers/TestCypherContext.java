@@ -0,0 +1,81 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider.cyphers;
+
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.daisleyharrison.security.common.models.key.KeyProvider;
+import org.daisleyharrison.security.common.models.key.KeyReference;
+import org.daisleyharrison.security.services.cypher.cypherProvider.internal.CipherPool;
+import org.daisleyharrison.security.services.cypher.cypherProvider.models.CypherContext;
+
+/**
+ * A cypher context over a single random secret key, so templates can be tested
+ * without the key service
+ */
+class TestCypherContext implements CypherContext, KeyProvider, KeyProvider.KeyVersion {
+    public static final KeyReference KEY_REF = () -> "test/secret";
+
+    private final Key key;
+    private final CipherPool cipherPool = new CipherPool();
+    private final ExecutorService batchPool = Executors.newFixedThreadPool(2);
+
+    public TestCypherContext(String keyAlgorithm, int keySize) {
+        byte[] encoded = new byte[keySize / 8];
+        new SecureRandom().nextBytes(encoded);
+        this.key = new SecretKeySpec(encoded, keyAlgorithm);
+    }
+
+    @Override
+    public KeyProvider getKeyProvider() {
+        return this;
+    }
+
+    @Override
+    public CipherPool getCipherPool() {
+        return cipherPool;
+    }
+
+    @Override
+    public ExecutorService getBatchPool() {
+        return batchPool;
+    }
+
+    @Override
+    public boolean isSupported(KeyReference keyRef) {
+        return KEY_REF.getPath().equals(keyRef.getPath());
+    }
+
+    @Override
+    public KeyVersion resolveKey(KeyReference keyRef) {
+        return this;
+    }
+
+    @Override
+    public void close() {
+        batchPool.shutdown();
+    }
+
+    @Override
+    public String getPath() {
+        return KEY_REF.getPath();
+    }
+
+    @Override
+    public String getVersionPath() {
+        return KEY_REF.getPath() + "/1";
+    }
+
+    @Override
+    public Key getKey() {
+        return key;
+    }
+
+    @Override
+    public <T extends Key> T getKey(Class<T> type) {
+        return type.cast(key);
+    }
+}
@@ -0,0 +1,180 @@
+package org.daisleyharrison.security.services.cypher.cypherProvider.internal;
+
+import static org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadOutputStream.NONCE_PREFIX_SIZE;
+import static org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadOutputStream.SEGMENT_SIZE;
+import static org.daisleyharrison.security.services.cypher.cypherProvider.internal.SegmentedAeadOutputStream.TAG_SIZE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class SegmentedAeadStreamTest {
+    private static final int SECURE_SEGMENT_SIZE = SEGMENT_SIZE + TAG_SIZE;
+
+    private final Key key;
+    private final SegmentCipherFactory cipherFactory;
+
+    public SegmentedAeadStreamTest() {
+        byte[] encoded = new byte[32];
+        new SecureRandom().nextBytes(encoded);
+        key = new SecretKeySpec(encoded, "AES");
+        byte[] info = "segmented-aead:test".getBytes(StandardCharsets.UTF_8);
+        cipherFactory = new SegmentCipherFactory() {
+            @Override
+            public Key deriveStreamKey(byte[] noncePrefix) throws GeneralSecurityException {
+                return Hkdf.derive(key, noncePrefix, info, "AES");
+            }
+
+            @Override
+            public Cipher getCipher(int mode, Key streamKey, byte[] nonce) throws GeneralSecurityException {
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(mode, streamKey, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+                return cipher;
+            }
+        };
+    }
+
+    private static byte[] plainText(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private byte[] encrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream secure = new ByteArrayOutputStream();
+        try (OutputStream encrypting = new SegmentedAeadOutputStream(secure, cipherFactory)) {
+            encrypting.write(data);
+        }
+        return secure.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] secure) throws IOException {
+        try (InputStream decrypting = new SegmentedAeadInputStream(new ByteArrayInputStream(secure),
+                cipherFactory)) {
+            return decrypting.readAllBytes();
+        }
+    }
+
+    private void assertRejected(byte[] secure, String reason) {
+        try {
+            decrypt(secure);
+            fail(reason + " should fail authentication");
+        } catch (IOException exception) {
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = plainText(3 * SEGMENT_SIZE + 100);
+        assertArrayEquals(data, decrypt(encrypt(data)));
+        assertArrayEquals(new byte[0], decrypt(encrypt(new byte[0])));
+        // an exact multiple of the segment size ends with a full last segment
+        byte[] full = plainText(2 * SEGMENT_SIZE);
+        assertArrayEquals(full, decrypt(encrypt(full)));
+    }
+
+    @Test
+    public void testSingleByteReadWrite() throws Exception {
+        byte[] data = plainText(SEGMENT_SIZE + 10);
+        ByteArrayOutputStream secure = new ByteArrayOutputStream();
+        try (OutputStream encrypting = new SegmentedAeadOutputStream(secure, cipherFactory)) {
+            for (byte b : data) {
+                encrypting.write(b);
+            }
+        }
+        assertEquals(encrypt(data).length, secure.size());
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        try (InputStream decrypting = new SegmentedAeadInputStream(
+                new ByteArrayInputStream(secure.toByteArray()), cipherFactory)) {
+            int b;
+            while ((b = decrypting.read()) >= 0) {
+                decrypted.write(b);
+            }
+        }
+        assertArrayEquals(data, decrypted.toByteArray());
+    }
+
+    @Test
+    public void testStreamKeys() throws Exception {
+        byte[] data = plainText(100);
+        byte[] first = encrypt(data);
+        byte[] second = encrypt(data);
+        assertFalse(Arrays.equals(first, second));
+        byte[] firstPrefix = Arrays.copyOf(first, NONCE_PREFIX_SIZE);
+        byte[] secondPrefix = Arrays.copyOf(second, NONCE_PREFIX_SIZE);
+        assertFalse(Arrays.equals(cipherFactory.deriveStreamKey(firstPrefix).getEncoded(),
+                cipherFactory.deriveStreamKey(secondPrefix).getEncoded()));
+        assertFalse(Arrays.equals(key.getEncoded(), cipherFactory.deriveStreamKey(firstPrefix).getEncoded()));
+    }
+
+    @Test
+    public void testTamper() throws Exception {
+        byte[] secure = encrypt(plainText(2 * SEGMENT_SIZE + 100));
+        byte[] tampered = secure.clone();
+        tampered[NONCE_PREFIX_SIZE + SECURE_SEGMENT_SIZE + 10] ^= 1;
+        assertRejected(tampered, "a modified segment");
+
+        tampered = secure.clone();
+        tampered[0] ^= 1;
+        assertRejected(tampered, "a modified nonce prefix");
+
+        tampered = secure.clone();
+        tampered[tampered.length - 1] ^= 1;
+        assertRejected(tampered, "a modified tag");
+    }
+
+    @Test
+    public void testTruncation() throws Exception {
+        byte[] secure = encrypt(plainText(2 * SEGMENT_SIZE + 100));
+        // dropping the last segment leaves a stream ending on a segment that was
+        // not encrypted as the last one
+        assertRejected(Arrays.copyOf(secure, NONCE_PREFIX_SIZE + 2 * SECURE_SEGMENT_SIZE),
+                "a stream missing its last segment");
+        assertRejected(Arrays.copyOf(secure, secure.length - 1), "a stream cut inside a segment");
+        assertRejected(Arrays.copyOf(secure, NONCE_PREFIX_SIZE + TAG_SIZE - 1), "a stream cut before a tag");
+        assertRejected(Arrays.copyOf(secure, NONCE_PREFIX_SIZE - 1), "a stream missing its header");
+
+        // appending data after the last segment is detected too
+        byte[] extended = Arrays.copyOf(secure, secure.length + 1);
+        assertRejected(extended, "a stream with trailing data");
+    }
+
+    @Test
+    public void testReorder() throws Exception {
+        byte[] secure = encrypt(plainText(2 * SEGMENT_SIZE + 100));
+        byte[] reordered = secure.clone();
+        int first = NONCE_PREFIX_SIZE;
+        int second = NONCE_PREFIX_SIZE + SECURE_SEGMENT_SIZE;
+        System.arraycopy(secure, first, reordered, second, SECURE_SEGMENT_SIZE);
+        System.arraycopy(secure, second, reordered, first, SECURE_SEGMENT_SIZE);
+        assertRejected(reordered, "swapped segments");
+
+        // a segment replayed from another stream under the same key is rejected
+        byte[] other = encrypt(plainText(2 * SEGMENT_SIZE + 100));
+        byte[] spliced = secure.clone();
+        System.arraycopy(other, first, spliced, first, SECURE_SEGMENT_SIZE);
+        assertRejected(spliced, "a segment from another stream");
+        assertEquals(2 * SEGMENT_SIZE + 100, decrypt(secure).length);
+    }
+}
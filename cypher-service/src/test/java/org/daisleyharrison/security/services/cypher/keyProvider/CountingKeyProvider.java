@@ -0,0 +1,73 @@
+package org.daisleyharrison.security.services.cypher.keyProvider;
+
+import java.security.Key;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.daisleyharrison.security.common.models.key.CachedKeyProvider;
+import org.daisleyharrison.security.common.models.key.KeyReference;
+
+/**
+ * A cached key provider that only records which key paths are cached, so
+ * frame reference counting can be tested without the key service
+ */
+class CountingKeyProvider implements CachedKeyProvider {
+    private final Set<String> cached = ConcurrentHashMap.newKeySet();
+    private final LongAdder evictions = new LongAdder();
+
+    public boolean isCached(String keyPath) {
+        return cached.contains(keyPath);
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public boolean isSupported(KeyReference keyRef) {
+        return true;
+    }
+
+    @Override
+    public KeyVersion resolveKey(KeyReference keyRef) {
+        String keyPath = keyRef.getPath();
+        cached.add(keyPath);
+        return new KeyVersion() {
+            @Override
+            public String getPath() {
+                return keyPath;
+            }
+
+            @Override
+            public String getVersionPath() {
+                return keyPath + "/1";
+            }
+
+            @Override
+            public Key getKey() {
+                return null;
+            }
+
+            @Override
+            public <T extends Key> T getKey(Class<T> type) {
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        cached.clear();
+    }
+
+    @Override
+    public void evict(String path) {
+        evictions.increment();
+        cached.remove(path);
+    }
+
+    @Override
+    public void close() {
+    }
+}
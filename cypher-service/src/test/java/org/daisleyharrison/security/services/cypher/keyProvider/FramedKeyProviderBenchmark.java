@@ -0,0 +1,52 @@
+package org.daisleyharrison.security.services.cypher.keyProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.daisleyharrison.security.common.models.key.KeyFrame;
+import org.junit.Test;
+
+/**
+ * Throughput of framed key resolution with many threads contending for the
+ * same key path, not part of the unit suite, run with -Pbenchmark
+ */
+public class FramedKeyProviderBenchmark {
+    private static final String KEY_PATH = "test/aes256";
+
+    @Test
+    public void framedKeyResolutionContention() throws Exception {
+        FramedKeyProviderImpl framedKeyProvider = new FramedKeyProviderImpl(new CountingKeyProvider(), false);
+
+        int threadCount = Runtime.getRuntime().availableProcessors() * 2;
+        int iterations = 100000;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int round = 0; round < 3; round++) {
+                List<Future<?>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int t = 0; t < threadCount; t++) {
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < iterations; i++) {
+                            try (KeyFrame frame = framedKeyProvider.openFrame()) {
+                                framedKeyProvider.resolveKey(() -> KEY_PATH);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                long elapsed = System.nanoTime() - start;
+                System.out.println(String.format("%d framed key resolutions on %d threads in %d ms (%d ops/s)",
+                        threadCount * iterations, threadCount, elapsed / 1000000,
+                        threadCount * iterations * 1000000000L / elapsed));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.daisleyharrison.security.services.cypher.keyProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.daisleyharrison.security.common.models.key.KeyFrame;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramedKeyProviderImplTest {
+    private static final String KEY_PATH = "test/aes256";
+
+    @Test
+    public void testFramedKeyResolutionContention() throws Exception {
+        CountingKeyProvider cachedKeyProvider = new CountingKeyProvider();
+        FramedKeyProviderImpl framedKeyProvider = new FramedKeyProviderImpl(cachedKeyProvider, false);
+
+        int threadCount = 8;
+        int iterations = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try (KeyFrame held = framedKeyProvider.openFrame()) {
+            framedKeyProvider.resolveKey(() -> KEY_PATH);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threadCount; t++) {
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < iterations; i++) {
+                            try (KeyFrame frame = framedKeyProvider.openFrame()) {
+                                framedKeyProvider.resolveKey(() -> KEY_PATH);
+                                // resolving twice in one frame holds a single reference
+                                framedKeyProvider.resolveKey(() -> KEY_PATH);
+                                assertTrue(framedKeyProvider.getFrameCount(KEY_PATH) >= 2);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            // the frame opened first still holds the key
+            assertEquals(1, framedKeyProvider.getFrameCount(KEY_PATH));
+            assertTrue(cachedKeyProvider.isCached(KEY_PATH));
+            assertEquals(0, cachedKeyProvider.getEvictionCount());
+        }
+        // closing the last frame drains the count and evicts the key
+        assertEquals(0, framedKeyProvider.getFrameCount(KEY_PATH));
+        assertFalse(cachedKeyProvider.isCached(KEY_PATH));
+        assertEquals(1, cachedKeyProvider.getEvictionCount());
+    }
+}
@@ -235,8 +235,15 @@ public class Main {
         return openidService;
     }
 
+    // the tokenizer is used on every authenticated request, so it is looked up once
+    private static volatile TokenizerServiceProvider _tokenizerService;
+
     public static TokenizerServiceProvider getTokenizerService() throws ServiceNotFoundException {
-        TokenizerServiceProvider tokenizerService = _serviceProvider.provideService(TokenizerServiceProvider.class);
+        TokenizerServiceProvider tokenizerService = _tokenizerService;
+        if (tokenizerService != null) {
+            return tokenizerService;
+        }
+        tokenizerService = _serviceProvider.provideService(TokenizerServiceProvider.class);
 
         if (!tokenizerService.isInitialized()) {
             try (Stage stage = tokenizerService.beginInitialize()) {
@@ -245,6 +252,9 @@ public class Main {
                 LOGGER.error("tokenizer-service configuration failed.", exception);
             }
         }
+        if (tokenizerService.isReady()) {
+            _tokenizerService = tokenizerService;
+        }
 
         return tokenizerService;
     }
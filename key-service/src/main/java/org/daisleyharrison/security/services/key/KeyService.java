@@ -5,8 +5,12 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 import javax.management.ServiceNotFoundException;
 
@@ -19,8 +23,7 @@ import java.nio.file.StandardOpenOption;
 
 import org.daisleyharrison.security.common.exceptions.KeyProviderException;
 import org.daisleyharrison.security.common.models.Stage;
-import org.daisleyharrison.security.common.models.key.CachedKeyProvider;
-import org.daisleyharrison.security.common.models.key.KeyProvider;
+import org.daisleyharrison.security.common.models.key.KeyPathComponents;
 import org.daisleyharrison.security.common.models.key.KeyReference;
 import org.daisleyharrison.security.common.serviceProvider.LibraryServiceProvider;
 import org.daisleyharrison.security.common.spi.ConfigurationServiceProvider;
@@ -29,6 +32,7 @@ import org.daisleyharrison.security.common.utilities.StageImpl;
 import org.daisleyharrison.security.services.key.internal.CachedKeyProviderImpl;
 import org.daisleyharrison.security.services.key.internal.KeyStoreKeyProviderImpl;
 import org.daisleyharrison.security.services.key.internal.MultiplexedKeyProviderImpl;
+import org.daisleyharrison.security.services.key.utilities.FileWatcher;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
@@ -37,6 +41,8 @@ public class KeyService implements KeyServiceProvider {
     private static final String CONFIG_KEY_STORES = CONFIG_ROOT + ".keystores";
     private static Logger LOGGER = LoggerFactory.getLogger(KeyService.class);
     private static final int DEFAULT_CACHED_KEY_TTL = 10 * 60; // in seconds
+    private static final int DEFAULT_MAX_CACHED_KEYS = 10000;
+    private static final Duration DEFAULT_RELOAD_SETTLE_TIME = Duration.ofSeconds(2);
     private ReentrantLock stateLock;
 
     public enum State {
@@ -58,7 +64,22 @@ public class KeyService implements KeyServiceProvider {
 
     private static LibraryServiceProvider _serviceProvider = LibraryServiceProvider.getInstance();
 
-    private CachedKeyProvider keyProvider;
+    private static class ConfiguredKeyStore {
+        private String name;
+        private Path path;
+        private String type;
+        private char[] password;
+        private String keyPathRoot;
+        private KeyStoreKeyProviderImpl keyProvider;
+    }
+
+    private CachedKeyProviderImpl keyProvider;
+
+    private MultiplexedKeyProviderImpl multiKeyProvider;
+
+    private List<ConfiguredKeyStore> keyStores;
+
+    private FileWatcher keyStoreWatcher;
 
     private static KeyServiceProvider s_instance;
 
@@ -152,36 +173,43 @@ public class KeyService implements KeyServiceProvider {
             ConfigurationServiceProvider config = _serviceProvider.provideService(ConfigurationServiceProvider.class);
             Set<String> keyStoreNames = config.getNames(CONFIG_KEY_STORES);
             MultiplexedKeyProviderImpl multiKeyProvider = new MultiplexedKeyProviderImpl();
+            List<ConfiguredKeyStore> keyStores = new ArrayList<>();
             int minCachedKeyTTL = Integer.MAX_VALUE;
             for (String keyStoreName : keyStoreNames) {
                 LOGGER.info("key-service configuring keyStore {}", keyStoreName);
                 String keyStoreConfig = CONFIG_KEY_STORES + "." + keyStoreName;
-                Path keyStorePath = Path.of(config.getValue(keyStoreConfig + ".path"));
-                char[] keyStorePassword = config.getCharsValue(keyStoreConfig + ".password");
-                String keyPathRoot = config.getValue(keyStoreConfig + ".keyPath");
-                String keyStoreType = config.getValue(keyStoreConfig + ".type", "JKS");
+                ConfiguredKeyStore configured = new ConfiguredKeyStore();
+                configured.name = keyStoreName;
+                configured.path = Path.of(config.getValue(keyStoreConfig + ".path"));
+                configured.password = config.getCharsValue(keyStoreConfig + ".password");
+                configured.keyPathRoot = config.getValue(keyStoreConfig + ".keyPath");
+                configured.type = config.getValue(keyStoreConfig + ".type", "JKS");
                 int cachedKeyTTL = config.getIntegerValue(keyStoreConfig + ".cachedKeyTTL", DEFAULT_CACHED_KEY_TTL);
-                if (cachedKeyTTL > minCachedKeyTTL) {
+                if (cachedKeyTTL < minCachedKeyTTL) {
                     minCachedKeyTTL = cachedKeyTTL;
                 }
-                KeyStore keyStore = getKeyStore(keyStorePath, keyStoreType, keyStorePassword);
-                KeyProvider kskProvider = new KeyStoreKeyProviderImpl(keyPathRoot, keyStore, keyStorePassword);
-                multiKeyProvider.addKeyProvider(kskProvider);
+                configured.keyProvider = loadKeyStore(configured);
+                multiKeyProvider.addKeyProvider(configured.keyPathRoot, configured.keyProvider);
+                keyStores.add(configured);
                 LOGGER.info("key-service keyStore {} configured for key paths starting with {}", keyStoreName,
-                        keyPathRoot);
+                        configured.keyPathRoot);
             }
-            KeyProvider keyProvider;
-            switch (multiKeyProvider.size()) {
-            case 0:
+            if (multiKeyProvider.size() == 0) {
                 throw new KeyProviderException("No Key Stores configured");
-            case 1:
-                keyProvider = multiKeyProvider.iterator().next();
-                break;
-            default:
-                keyProvider = multiKeyProvider;
-                break;
             }
-            this.keyProvider = new CachedKeyProviderImpl(keyProvider, Duration.ofSeconds(minCachedKeyTTL));
+            int maxCachedKeys = config.getIntegerValue(CONFIG_ROOT + ".maxCachedKeys", DEFAULT_MAX_CACHED_KEYS);
+            this.multiKeyProvider = multiKeyProvider;
+            this.keyStores = keyStores;
+            this.keyProvider = new CachedKeyProviderImpl(multiKeyProvider, Duration.ofSeconds(minCachedKeyTTL),
+                    maxCachedKeys);
+            if (config.getBooleanValue(CONFIG_ROOT + ".reload.enabled", false)) {
+                Duration settleTime = config.getDurationValue(CONFIG_ROOT + ".reload.settleTime",
+                        DEFAULT_RELOAD_SETTLE_TIME);
+                this.keyStoreWatcher = new FileWatcher(
+                        keyStores.stream().map(keyStore -> keyStore.path).collect(Collectors.toSet()), settleTime,
+                        this::reloadKeyStores);
+                LOGGER.info("key-service watching keyStores for changes");
+            }
 
         } catch (ServiceNotFoundException exception) {
             this.state = State.COMPROMIZED;
@@ -190,6 +218,50 @@ public class KeyService implements KeyServiceProvider {
 
     }
 
+    private KeyStoreKeyProviderImpl loadKeyStore(ConfiguredKeyStore configured) throws FileNotFoundException,
+            IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        KeyStore keyStore = getKeyStore(configured.path, configured.type, configured.password);
+        // each provider zeroes its own copy of the password when closed
+        return new KeyStoreKeyProviderImpl(configured.keyPathRoot, keyStore, configured.password.clone());
+    }
+
+    private void reloadKeyStores(Path path) {
+        Path changedPath = path.toAbsolutePath().normalize();
+        for (ConfiguredKeyStore configured : keyStores) {
+            if (configured.path.toAbsolutePath().normalize().equals(changedPath)) {
+                reloadKeyStore(configured);
+            }
+        }
+    }
+
+    /**
+     * Swap in a freshly loaded key store and evict only the cached keys whose
+     * alias changed, keys that did not change stay cached. The provider is
+     * swapped before the eviction and the cache does not keep a value loaded
+     * across an eviction, so a resolution or refresh that started against the
+     * old key store cannot put its key back. The old provider is closed once
+     * the resolutions in progress against it complete.
+     */
+    private void reloadKeyStore(ConfiguredKeyStore configured) {
+        LOGGER.info("key-service reloading keyStore {}", configured.name);
+        try {
+            KeyStoreKeyProviderImpl reloaded = loadKeyStore(configured);
+            KeyStoreKeyProviderImpl current = configured.keyProvider;
+            Set<String> changedAliases = reloaded.changedAliases(current);
+            multiKeyProvider.replaceKeyProvider(current, reloaded);
+            configured.keyProvider = reloaded;
+            String keyPathRoot = configured.keyPathRoot;
+            keyProvider.evictAll(keyPath -> keyPath.startsWith(keyPathRoot)
+                    && changedAliases.contains(KeyPathComponents.getComponents(keyPathRoot, keyPath).getAlias()));
+            current.retire();
+            LOGGER.info("key-service keyStore {} reloaded, {} aliases changed", configured.name,
+                    changedAliases.size());
+        } catch (Exception exception) {
+            LOGGER.warn("key-service failed to reload keyStore {}, the loaded keys are kept", configured.name,
+                    exception);
+        }
+    }
+
     private KeyStore getKeyStore(Path path, String keyStoreType, char[] password) throws FileNotFoundException,
             IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
         if (path == null) {
@@ -234,9 +306,19 @@ public class KeyService implements KeyServiceProvider {
 
     @Override
     public void close() throws Exception {
+        if (this.keyStoreWatcher != null) {
+            this.keyStoreWatcher.close();
+            this.keyStoreWatcher = null;
+        }
         if (this.keyProvider != null) {
             this.keyProvider.close();
         }
+        if (this.keyStores != null) {
+            for (ConfiguredKeyStore configured : keyStores) {
+                Arrays.fill(configured.password, Character.MAX_SURROGATE);
+            }
+            this.keyStores = null;
+        }
         this.state = State.CLOSED;
     }
 
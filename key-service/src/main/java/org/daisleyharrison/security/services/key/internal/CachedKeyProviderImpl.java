@@ -1,6 +1,7 @@
 package org.daisleyharrison.security.services.key.internal;
 
 import java.time.Duration;
+import java.util.function.Predicate;
 
 import javax.security.auth.DestroyFailedException;
 import org.daisleyharrison.security.common.exceptions.KeyProviderException;
@@ -10,12 +11,19 @@ import org.daisleyharrison.security.common.models.key.KeyReference;
 import org.daisleyharrison.security.services.key.utilities.MemoryCache;
 
 public class CachedKeyProviderImpl implements CachedKeyProvider {
+    // keys are reloaded in the background during the last fifth of their ttl
+    private static final int REFRESH_AHEAD_DIVISOR = 5;
     private KeyProvider keyProvider;
     private MemoryCache<KeyVersion> cache;
 
     public CachedKeyProviderImpl(KeyProvider keyProvider, Duration ttl) {
+        this(keyProvider, ttl, MemoryCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public CachedKeyProviderImpl(KeyProvider keyProvider, Duration ttl, int maximumSize) {
         this.keyProvider = keyProvider;
-        this.cache = new MemoryCache<KeyVersion>(ttl, this::evict);
+        this.cache = new MemoryCache<KeyVersion>(ttl, maximumSize, ttl.dividedBy(REFRESH_AHEAD_DIVISOR),
+                this::evict);
     }
 
     private void evict(String path, KeyVersion keyVersion) {
@@ -36,6 +44,15 @@ public class CachedKeyProviderImpl implements CachedKeyProvider {
         cache.evict(path);
     }
 
+    /**
+     * Evict every cached key whose path matches a filter
+     *
+     * @param pathFilter selects the key paths to evict
+     */
+    public void evictAll(Predicate<String> pathFilter) {
+        cache.evictAll(pathFilter);
+    }
+
     @Override
     public boolean isSupported(KeyReference keyRef) {
         return this.keyProvider.isSupported(keyRef);
@@ -43,18 +60,19 @@ public class CachedKeyProviderImpl implements CachedKeyProvider {
 
     @Override
     public KeyProvider.KeyVersion resolveKey(KeyReference keyRef) throws KeyProviderException {
-        String path = keyRef.getPath();
-        KeyVersion keyVersion = cache.get(path);
-        if (keyVersion == null) {
-            keyVersion = this.keyProvider.resolveKey(keyRef);
-            cache.add(path, keyVersion);
-        }
-        return keyVersion;
+        return cache.get(keyRef.getPath(), path -> this.keyProvider.resolveKey(keyRef));
+    }
+
+    /**
+     * @return MemoryCache the underlying cache, exposed for its statistics
+     */
+    public MemoryCache<KeyVersion> getCache() {
+        return cache;
     }
 
     @Override
     public void close() throws Exception {
-        this.clear();
+        this.cache.close();
         this.keyProvider.close();
     }
 }
\ No newline at end of file
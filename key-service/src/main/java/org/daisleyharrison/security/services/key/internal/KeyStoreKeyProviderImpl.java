@@ -5,7 +5,14 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.security.cert.Certificate;
 import java.security.Key;
@@ -19,32 +26,92 @@ public class KeyStoreKeyProviderImpl implements KeyProvider {
     private String keyPathRoot;
     private KeyStore keyStore;
     private char[] defaultPassword;
+    // alias (without version) -> keystore alias of its latest version
+    private Map<String, String> latestAliasByAlias;
+    // resolutions in progress, -1 once closed
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean retired;
 
-    public KeyStoreKeyProviderImpl(String keyPathRoot, KeyStore keyStore, char[] defaultPassword) {
+    public KeyStoreKeyProviderImpl(String keyPathRoot, KeyStore keyStore, char[] defaultPassword)
+            throws KeyStoreException {
         this.keyPathRoot = keyPathRoot;
         this.keyStore = keyStore;
         this.defaultPassword = defaultPassword;
+        this.latestAliasByAlias = indexAliases(keyStore);
+    }
+
+    /**
+     * Index every alias of the key store by its unversioned alias so the latest
+     * version of a key is found without scanning the key store
+     * 
+     * @param keyStore the key store to index
+     * @return Map unversioned alias to the alias of its latest version
+     * @throws KeyStoreException
+     */
+    private static Map<String, String> indexAliases(KeyStore keyStore) throws KeyStoreException {
+        Map<String, String> latestAliasByAlias = new HashMap<>();
+        Map<String, Integer> latestVersionByAlias = new HashMap<>();
+        Enumeration<String> ksAliases = keyStore.aliases();
+        while (ksAliases.hasMoreElements()) {
+            String ksAlias = ksAliases.nextElement();
+            KeyPathComponents aliasComponents = KeyPathComponents.getComponents(null, ksAlias);
+            int version;
+            try {
+                version = aliasComponents.getVersion();
+            } catch (NumberFormatException exception) {
+                // not a versioned alias
+                continue;
+            }
+            String alias = aliasComponents.getPath();
+            Integer latestVersion = latestVersionByAlias.get(alias);
+            if (latestVersion == null || version > latestVersion) {
+                latestVersionByAlias.put(alias, version);
+                latestAliasByAlias.put(alias, ksAlias);
+            }
+        }
+        return Collections.unmodifiableMap(latestAliasByAlias);
+    }
+
+    public String getKeyPathRoot() {
+        return keyPathRoot;
+    }
+
+    /**
+     * Compare the key store of this provider with the key store of the provider
+     * it replaces. Entries are compared by creation date and certificate.
+     *
+     * @param previous the provider this provider replaces
+     * @return Set the unversioned aliases with an added, removed or changed
+     *         version
+     * @throws KeyStoreException
+     */
+    public Set<String> changedAliases(KeyStoreKeyProviderImpl previous) throws KeyStoreException {
+        Set<String> ksAliases = new HashSet<>(Collections.list(keyStore.aliases()));
+        ksAliases.addAll(Collections.list(previous.keyStore.aliases()));
+        Set<String> changedAliases = new HashSet<>();
+        for (String ksAlias : ksAliases) {
+            if (!isSameEntry(previous.keyStore, keyStore, ksAlias)) {
+                changedAliases.add(KeyPathComponents.getComponents(null, ksAlias).getPath());
+            }
+        }
+        return changedAliases;
+    }
+
+    private static boolean isSameEntry(KeyStore previous, KeyStore current, String ksAlias)
+            throws KeyStoreException {
+        if (!previous.containsAlias(ksAlias) || !current.containsAlias(ksAlias)) {
+            return false;
+        }
+        return Objects.equals(previous.getCreationDate(ksAlias), current.getCreationDate(ksAlias))
+                && Objects.equals(previous.getCertificate(ksAlias), current.getCertificate(ksAlias));
     }
 
     private String toAlias(KeyPathComponents components) throws KeyStoreException {
-        String alias = components.getAlias();
         int version = components.getVersion();
         if (version == 0) {
-            // no version specified... need to find the latest version
-            String currentAlias = null;
-            int currentVersion = 0;
-            Enumeration<String> ksAliases = keyStore.aliases();
-            while (ksAliases.hasMoreElements()) {
-                String ksAlias = ksAliases.nextElement();
-                if (ksAlias.startsWith(alias)) {
-                    KeyPathComponents aliasComponents = KeyPathComponents.getComponents(null, ksAlias);
-                    if (aliasComponents.getVersion() > currentVersion) {
-                        currentAlias = ksAlias;
-                        currentVersion = aliasComponents.getVersion();
-                    }
-                }
-            }
-            return currentAlias == null ? components.getVersionAlias() : currentAlias;
+            // no version specified... use the latest version
+            String latestAlias = latestAliasByAlias.get(components.getAlias());
+            return latestAlias == null ? components.getVersionAlias() : latestAlias;
         } else {
             return components.getVersionAlias();
         }
@@ -73,8 +140,48 @@ public class KeyStoreKeyProviderImpl implements KeyProvider {
         return keyPath.startsWith(keyPathRoot);
     }
 
+    /**
+     * Close the provider once the resolutions in progress against it complete,
+     * used when a reloaded key store replaces this provider
+     */
+    public void retire() {
+        retired = true;
+        closeIfIdle();
+    }
+
+    private void closeIfIdle() {
+        if (inFlight.compareAndSet(0, -1)) {
+            closeKeyStore();
+        }
+    }
+
+    private void enter() throws KeyProviderException {
+        int count;
+        do {
+            count = inFlight.get();
+            if (count < 0) {
+                throw new KeyProviderException("keyStore has been closed");
+            }
+        } while (!inFlight.compareAndSet(count, count + 1));
+    }
+
+    private void exit() {
+        if (inFlight.decrementAndGet() == 0 && retired) {
+            closeIfIdle();
+        }
+    }
+
     @Override
     public KeyVersion resolveKey(KeyReference keyRef) throws KeyProviderException {
+        enter();
+        try {
+            return resolve(keyRef);
+        } finally {
+            exit();
+        }
+    }
+
+    private KeyVersion resolve(KeyReference keyRef) throws KeyProviderException {
         try {
             if (isSupported(keyRef)) {
                 KeyPathComponents pathComponents = KeyPathComponents.getComponents(keyPathRoot, keyRef.getPath());
@@ -100,8 +207,17 @@ public class KeyStoreKeyProviderImpl implements KeyProvider {
 
     @Override
     public void close() throws Exception {
+        inFlight.set(-1);
+        closeKeyStore();
+    }
+
+    private synchronized void closeKeyStore() {
+        if (this.defaultPassword == null) {
+            return;
+        }
         this.keyStore = null;
         this.keyPathRoot = null;
+        this.latestAliasByAlias = Collections.emptyMap();
         Arrays.fill(this.defaultPassword, Character.MAX_SURROGATE);
         this.defaultPassword = null;
     }
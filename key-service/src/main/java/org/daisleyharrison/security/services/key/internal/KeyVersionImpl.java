@@ -8,6 +8,7 @@ import org.daisleyharrison.security.common.models.key.KeyProvider;
 public class KeyVersionImpl implements KeyProvider.KeyVersion {
     private Key key;
     private String versionPath;
+    private volatile boolean destroyed;
 
     public KeyVersionImpl(String versionPath, Key key) {
         this.versionPath = versionPath;
@@ -34,4 +35,18 @@ public class KeyVersionImpl implements KeyProvider.KeyVersion {
         return type.cast(key);
     }
 
+    /**
+     * Marks this version as no longer current, callers holding on to it resolve
+     * the key again. The key itself is left alone as it may still be in use.
+     */
+    @Override
+    public void destroy() {
+        destroyed = true;
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
 }
\ No newline at end of file
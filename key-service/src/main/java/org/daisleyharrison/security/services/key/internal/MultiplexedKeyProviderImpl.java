@@ -1,50 +1,193 @@
 package org.daisleyharrison.security.services.key.internal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
-
 import java.util.List;
 
 import org.daisleyharrison.security.common.exceptions.KeyProviderException;
 import org.daisleyharrison.security.common.models.key.KeyProvider;
 import org.daisleyharrison.security.common.models.key.KeyReference;
 
+/**
+ * Routes key references to the key provider mounted at the longest key path
+ * prefix. Mounted providers are held in a prefix trie that is rebuilt whenever
+ * a provider is added or replaced, so selecting a provider walks the key path
+ * once without allocating. Providers added without a key path root are asked
+ * in turn when no mounted provider matches.
+ */
 public class MultiplexedKeyProviderImpl implements KeyProvider {
 
-    private List<KeyProvider> keyProviders;
+    private static class Mount {
+        private final String keyPathRoot;
+        private final KeyProvider keyProvider;
+
+        public Mount(String keyPathRoot, KeyProvider keyProvider) {
+            this.keyPathRoot = keyPathRoot;
+            this.keyProvider = keyProvider;
+        }
+    }
+
+    private static class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private KeyProvider keyProvider;
+
+        private Node child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            Node child = new Node();
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newLabels[index] = label;
+            newChildren[index] = child;
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            labels = newLabels;
+            children = newChildren;
+            return child;
+        }
+    }
+
+    private List<Mount> mounts;
+    private volatile Node root;
+    private volatile List<KeyProvider> unmountedKeyProviders;
 
     public MultiplexedKeyProviderImpl() {
-        keyProviders = new LinkedList<>();
+        mounts = new ArrayList<>();
+        root = new Node();
+        unmountedKeyProviders = Collections.emptyList();
+    }
+
+    private void rebuild() {
+        Node newRoot = new Node();
+        List<KeyProvider> unmounted = new ArrayList<>();
+        for (Mount mount : mounts) {
+            if (mount.keyPathRoot == null) {
+                unmounted.add(mount.keyProvider);
+                continue;
+            }
+            Node node = newRoot;
+            for (int i = 0; i < mount.keyPathRoot.length(); i++) {
+                node = node.child(mount.keyPathRoot.charAt(i));
+            }
+            // the first provider mounted at a root wins
+            if (node.keyProvider == null) {
+                node.keyProvider = mount.keyProvider;
+            }
+        }
+        this.unmountedKeyProviders = Collections.unmodifiableList(unmounted);
+        this.root = newRoot;
     }
 
+    /**
+     * Add a key provider that is asked in turn whether it supports a key
+     * reference when no mounted key provider matches
+     *
+     * @param keyProvider the key provider
+     */
     public void addKeyProvider(KeyProvider keyProvider) {
-        keyProviders.add(keyProvider);
+        addKeyProvider(null, keyProvider);
     }
 
-    public int size() {
-        return keyProviders.size();
+    /**
+     * Mount a key provider at a key path root
+     *
+     * @param keyPathRoot the key path prefix routed to keyProvider
+     * @param keyProvider the key provider
+     */
+    public synchronized void addKeyProvider(String keyPathRoot, KeyProvider keyProvider) {
+        mounts.add(new Mount(keyPathRoot, keyProvider));
+        rebuild();
     }
 
-    public Iterator<KeyProvider> iterator(){
+    /**
+     * Atomically replace a key provider, resolutions in progress complete
+     * against the provider they started with
+     *
+     * @param keyProvider the key provider to replace
+     * @param replacement the key provider that takes its place
+     * @return boolean true if keyProvider was found and replaced
+     */
+    public synchronized boolean replaceKeyProvider(KeyProvider keyProvider, KeyProvider replacement) {
+        for (int i = 0; i < mounts.size(); i++) {
+            Mount mount = mounts.get(i);
+            if (mount.keyProvider == keyProvider) {
+                mounts.set(i, new Mount(mount.keyPathRoot, replacement));
+                rebuild();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return mounts.size();
+    }
+
+    public synchronized Iterator<KeyProvider> iterator() {
+        List<KeyProvider> keyProviders = new ArrayList<>(mounts.size());
+        for (Mount mount : mounts) {
+            keyProviders.add(mount.keyProvider);
+        }
         return keyProviders.iterator();
     }
 
+    private KeyProvider route(KeyReference keyRef) {
+        if (keyRef == null) {
+            throw new IllegalArgumentException("keyRef cannot be null");
+        }
+        String keyPath = keyRef.getPath();
+        if (keyPath == null) {
+            throw new IllegalArgumentException("keyRef.getPath() cannot be null");
+        }
+        Node node = root;
+        KeyProvider match = node.keyProvider;
+        for (int i = 0; i < keyPath.length(); i++) {
+            int index = Arrays.binarySearch(node.labels, keyPath.charAt(i));
+            if (index < 0) {
+                break;
+            }
+            node = node.children[index];
+            if (node.keyProvider != null) {
+                match = node.keyProvider;
+            }
+        }
+        if (match == null) {
+            for (KeyProvider keyProvider : unmountedKeyProviders) {
+                if (keyProvider.isSupported(keyRef)) {
+                    return keyProvider;
+                }
+            }
+        }
+        return match;
+    }
+
     @Override
     public boolean isSupported(KeyReference keyRef) {
-        return keyProviders.stream().anyMatch(p -> p.isSupported(keyRef));
+        return route(keyRef) != null;
     }
 
     @Override
     public KeyProvider.KeyVersion resolveKey(KeyReference keyRef) throws KeyProviderException {
-        return keyProviders.stream().filter(p -> p.isSupported(keyRef)).findFirst()
-                .orElseThrow(KeyProviderException::new).resolveKey(keyRef);
+        KeyProvider keyProvider = route(keyRef);
+        if (keyProvider == null) {
+            throw new KeyProviderException("key path " + keyRef.getPath() + " is not supported");
+        }
+        return keyProvider.resolveKey(keyRef);
     }
 
     @Override
-    public void close() throws Exception {
-        for (KeyProvider keyProvider : keyProviders) {
-            keyProvider.close();
+    public synchronized void close() throws Exception {
+        for (Mount mount : mounts) {
+            mount.keyProvider.close();
         }
     }
 
-}
\ No newline at end of file
+}
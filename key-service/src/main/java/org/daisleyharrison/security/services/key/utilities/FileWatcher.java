@@ -0,0 +1,116 @@
+package org.daisleyharrison.security.services.key.utilities;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a set of files and reports each changed file once it has been quiet
+ * for a settle time, so a file written in several steps is reported once.
+ */
+public class FileWatcher implements AutoCloseable {
+    private static Logger LOGGER = LoggerFactory.getLogger(FileWatcher.class);
+
+    public interface OnChange {
+        public void changed(Path path);
+    }
+
+    private final WatchService watchService;
+    private final Set<Path> files;
+    private final Duration settleTime;
+    private final OnChange onChange;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    public FileWatcher(Collection<Path> files, Duration settleTime, OnChange onChange) throws IOException {
+        this.settleTime = settleTime;
+        this.onChange = onChange;
+        this.files = new HashSet<>();
+        Set<Path> directories = new HashSet<>();
+        for (Path file : files) {
+            Path absoluteFile = file.toAbsolutePath().normalize();
+            this.files.add(absoluteFile);
+            directories.add(absoluteFile.getParent());
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (Path directory : directories) {
+                directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            }
+        } catch (IOException exception) {
+            watchService.close();
+            throw exception;
+        }
+        this.thread = new Thread(this::run, "file-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        Set<Path> pending = new LinkedHashSet<>();
+        try {
+            while (!closed) {
+                WatchKey watchKey = pending.isEmpty() ? watchService.take()
+                        : watchService.poll(settleTime.toMillis(), TimeUnit.MILLISECONDS);
+                if (watchKey == null) {
+                    // quiet for the settle time
+                    for (Path path : pending) {
+                        notifyChanged(path);
+                    }
+                    pending.clear();
+                    continue;
+                }
+                Path directory = (Path) watchKey.watchable();
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        for (Path file : files) {
+                            if (file.getParent().equals(directory)) {
+                                pending.add(file);
+                            }
+                        }
+                    } else {
+                        Path changed = directory.resolve((Path) event.context());
+                        if (files.contains(changed)) {
+                            pending.add(changed);
+                        }
+                    }
+                }
+                watchKey.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException exception) {
+            // closing
+        }
+    }
+
+    private void notifyChanged(Path path) {
+        try {
+            onChange.changed(path);
+        } catch (RuntimeException exception) {
+            LOGGER.warn("change handler for {} failed", path, exception);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        thread.interrupt();
+    }
+}
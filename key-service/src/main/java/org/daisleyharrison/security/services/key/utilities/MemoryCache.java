@@ -1,32 +1,116 @@
 package org.daisleyharrison.security.services.key.utilities;
 
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 import org.daisleyharrison.security.common.models.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * A bounded cache with a fixed time to live.
+ *
+ * Entries are spread over lock striped segments. Each segment is a segmented
+ * LRU: new entries enter a probation area and are promoted to a protected area
+ * when read again, so a burst of one time keys cannot flush the keys in
+ * regular use. Expired entries are purged by a scheduler shared by all caches,
+ * in expiry order, so a purge only visits the entries that expired. The
+ * eviction callbacks of expired entries run on a separate eviction thread, so
+ * a slow callback cannot hold up the purge of other caches.
+ *
+ * Values obtained through {@link #get(String, Loader)} are loaded once per key
+ * no matter how many threads miss concurrently, and when a refresh ahead
+ * window is set, entries read within that window of their expiry are reloaded
+ * in the background while the current value keeps being served. A load that
+ * was in flight when its key was evicted returns its value to its callers but
+ * does not cache it, so an eviction cannot be undone by a stale load or
+ * refresh. Refreshes run on a small bounded pool shared by all caches, a
+ * refresh that cannot be queued is skipped and retried on a later read.
+ */
 public class MemoryCache<T> implements Cache<T> {
+    private static Logger LOGGER = LoggerFactory.getLogger(MemoryCache.class);
 
     public interface OnEviction<T> {
         public void evict(String key, T value);
     }
 
+    public interface Loader<T, E extends Exception> {
+        public T load(String key) throws E;
+    }
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+    private static final int SEGMENT_COUNT = 16;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int REFRESH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int REFRESH_QUEUE_CAPACITY = 256;
+
+    private static final ScheduledExecutorService EXPIRY_SCHEDULER = Executors
+            .newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "memory-cache-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static final ExecutorService EVICTION_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "memory-cache-eviction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService REFRESH_EXECUTOR = newRefreshExecutor();
+
+    private static ExecutorService newRefreshExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REFRESH_QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "memory-cache-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private static class CacheContainer<T> {
 
         private T value;
         private long expiryTime;
+        private final AtomicBoolean refreshing;
 
         public CacheContainer(T value, long expiryTime) {
             this.value = value;
             this.expiryTime = expiryTime;
+            this.refreshing = new AtomicBoolean();
+        }
+
+        public boolean isExpired(long now) {
+            return now > expiryTime;
         }
 
-        public boolean isExpired() {
-            return System.currentTimeMillis() > expiryTime;
+        public boolean startRefresh(long now, long refreshAhead) {
+            return refreshAhead > 0 && expiryTime - now <= refreshAhead && refreshing.compareAndSet(false, true);
+        }
+
+        public void refreshFailed() {
+            refreshing.set(false);
         }
 
         public T getValue() {
@@ -39,34 +123,235 @@ public class MemoryCache<T> implements Cache<T> {
         }
     }
 
-    private final ConcurrentHashMap<String, CacheContainer<T>> cache = new ConcurrentHashMap<>();
-    private Duration ttl;
-    private Timer cleanupTimer;
-    private OnEviction<T> onEviction;
+    private class Segment {
+        private final int maximumSize;
+        private final int maximumProtectedSize;
+        // access ordered, least recently used first
+        private final LinkedHashMap<String, CacheContainer<T>> probation;
+        private final LinkedHashMap<String, CacheContainer<T>> protectedEntries;
+        // insertion ordered, since the ttl is fixed this is also expiry order
+        private final LinkedHashMap<String, CacheContainer<T>> expiryOrder;
+
+        public Segment(int maximumSize) {
+            this.maximumSize = maximumSize;
+            this.maximumProtectedSize = Math.max(1, maximumSize * PROTECTED_PERCENT / 100);
+            this.probation = new LinkedHashMap<>(16, 0.75f, true);
+            this.protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+            this.expiryOrder = new LinkedHashMap<>();
+        }
+
+        private int size() {
+            return probation.size() + protectedEntries.size();
+        }
+
+        private void unlink(String key, List<Map.Entry<String, CacheContainer<T>>> removed) {
+            CacheContainer<T> container = expiryOrder.remove(key);
+            probation.remove(key);
+            protectedEntries.remove(key);
+            if (container != null) {
+                removed.add(Map.entry(key, container));
+            }
+        }
+
+        private void evictOverflow(List<Map.Entry<String, CacheContainer<T>>> removed) {
+            while (size() > maximumSize) {
+                Map<String, CacheContainer<T>> victims = probation.isEmpty() ? protectedEntries : probation;
+                String victim = victims.keySet().iterator().next();
+                unlink(victim, removed);
+                evictions.increment();
+            }
+        }
+
+        public synchronized CacheContainer<T> get(String key, long now,
+                List<Map.Entry<String, CacheContainer<T>>> removed) {
+            CacheContainer<T> container = protectedEntries.get(key);
+            if (container == null) {
+                container = probation.remove(key);
+                if (container == null) {
+                    return null;
+                }
+                if (!container.isExpired(now)) {
+                    // promote, demoting the least recently used protected entry when full
+                    protectedEntries.put(key, container);
+                    if (protectedEntries.size() > maximumProtectedSize) {
+                        Iterator<Map.Entry<String, CacheContainer<T>>> eldest = protectedEntries.entrySet()
+                                .iterator();
+                        Map.Entry<String, CacheContainer<T>> demoted = eldest.next();
+                        eldest.remove();
+                        probation.put(demoted.getKey(), demoted.getValue());
+                    }
+                    return container;
+                }
+                probation.put(key, container);
+            }
+            if (container.isExpired(now)) {
+                unlink(key, removed);
+                return null;
+            }
+            return container;
+        }
+
+        public synchronized void put(String key, CacheContainer<T> container,
+                List<Map.Entry<String, CacheContainer<T>>> removed) {
+            unlink(key, removed);
+            probation.put(key, container);
+            expiryOrder.put(key, container);
+            evictOverflow(removed);
+        }
+
+        /**
+         * Put a loaded value, unless its key was removed since the load started
+         *
+         * @return boolean true if the value was cached
+         */
+        public synchronized boolean putLoaded(String key, CompletableFuture<T> load, CacheContainer<T> container,
+                List<Map.Entry<String, CacheContainer<T>>> removed) {
+            if (!loadsInFlight.remove(key, load)) {
+                return false;
+            }
+            put(key, container, removed);
+            return true;
+        }
+
+        /**
+         * Forget the loads in flight for the keys of this segment that match a
+         * filter, so later misses start a new load rather than wait for a stale
+         * one, and the stale load is not cached
+         */
+        private void removeLoads(Predicate<String> keyFilter) {
+            loadsInFlight.keySet().removeIf(key -> segmentFor(key) == this && keyFilter.test(key));
+        }
+
+        public synchronized void remove(String key, List<Map.Entry<String, CacheContainer<T>>> removed) {
+            unlink(key, removed);
+            loadsInFlight.remove(key);
+        }
+
+        public synchronized void removeIf(Predicate<String> keyFilter,
+                List<Map.Entry<String, CacheContainer<T>>> removed) {
+            removeLoads(keyFilter);
+            Iterator<Map.Entry<String, CacheContainer<T>>> iterator = expiryOrder.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, CacheContainer<T>> entry = iterator.next();
+                if (keyFilter.test(entry.getKey())) {
+                    iterator.remove();
+                    probation.remove(entry.getKey());
+                    protectedEntries.remove(entry.getKey());
+                    removed.add(entry);
+                }
+            }
+        }
+
+        public synchronized void clear(List<Map.Entry<String, CacheContainer<T>>> removed) {
+            removeLoads(key -> true);
+            removed.addAll(expiryOrder.entrySet());
+            expiryOrder.clear();
+            probation.clear();
+            protectedEntries.clear();
+        }
+
+        public synchronized void expire(long now, List<Map.Entry<String, CacheContainer<T>>> removed) {
+            Iterator<Map.Entry<String, CacheContainer<T>>> iterator = expiryOrder.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, CacheContainer<T>> entry = iterator.next();
+                if (!entry.getValue().isExpired(now)) {
+                    break;
+                }
+                iterator.remove();
+                probation.remove(entry.getKey());
+                protectedEntries.remove(entry.getKey());
+                removed.add(entry);
+            }
+        }
+
+        public synchronized int count(long now) {
+            int count = 0;
+            for (CacheContainer<T> container : expiryOrder.values()) {
+                if (!container.isExpired(now)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private final Segment[] segments;
+    private final Duration ttl;
+    private final long refreshAhead;
+    private final OnEviction<T> onEviction;
+    private final ScheduledFuture<?> expiryTask;
+    private final ConcurrentMap<String, CompletableFuture<T>> loadsInFlight;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
 
     public MemoryCache(Duration ttl, OnEviction<T> onEviction) {
+        this(ttl, DEFAULT_MAXIMUM_SIZE, onEviction);
+    }
+
+    public MemoryCache(Duration ttl, int maximumSize, OnEviction<T> onEviction) {
+        this(ttl, maximumSize, Duration.ZERO, onEviction);
+    }
+
+    /**
+     * @param ttl          the time to live of an entry
+     * @param maximumSize  the maximum number of entries held
+     * @param refreshAhead entries read within this duration of their expiry are
+     *                     reloaded in the background by
+     *                     {@link #get(String, Loader)}, zero disables refresh
+     *                     ahead
+     * @param onEviction   called for every value removed from the cache
+     */
+    @SuppressWarnings("unchecked")
+    public MemoryCache(Duration ttl, int maximumSize, Duration refreshAhead, OnEviction<T> onEviction) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be > 0");
+        }
         this.ttl = ttl;
+        this.refreshAhead = refreshAhead.toMillis();
         this.onEviction = onEviction;
-        start(Duration.ofMillis(ttl.toMillis() / 2));
-    }
-
-    private void start(Duration cleanupPeriod) {
-        TimerTask cleanupTask = new TimerTask() {
-            public void run() {
-                cache.entrySet().removeIf(entry -> {
-                    CacheContainer<T> container = entry.getValue();
-                    if (container.isExpired()) {
-                        onEviction.evict(entry.getKey(), container.getValue());
-                        container.destroy();
-                        return true;
-                    } else {
-                        return false;
-                    }
-                });
+        this.loadsInFlight = new ConcurrentHashMap<>();
+        int segmentCount = Math.min(SEGMENT_COUNT, maximumSize);
+        this.segments = (Segment[]) new MemoryCache.Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // spread the remainder so the segments add up to maximumSize
+            int segmentSize = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+            this.segments[i] = new Segment(segmentSize);
+        }
+        long cleanupPeriod = Math.max(1, ttl.toMillis() / 2);
+        this.expiryTask = EXPIRY_SCHEDULER.scheduleAtFixedRate(this::expire, cleanupPeriod, cleanupPeriod,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7FFFFFFF) % segments.length];
+    }
+
+    private void notifyEvicted(List<Map.Entry<String, CacheContainer<T>>> removed) {
+        for (Map.Entry<String, CacheContainer<T>> entry : removed) {
+            CacheContainer<T> container = entry.getValue();
+            T value = container.getValue();
+            if (value != null) {
+                onEviction.evict(entry.getKey(), value);
             }
-        };
-        cleanupTimer = new Timer("cleanUpTimer");
-        cleanupTimer.scheduleAtFixedRate(cleanupTask, 0, cleanupPeriod.toMillis());
+            container.destroy();
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, CacheContainer<T>>> removed = new ArrayList<>();
+        for (Segment segment : segments) {
+            segment.expire(now, removed);
+        }
+        if (!removed.isEmpty()) {
+            EVICTION_EXECUTOR.execute(() -> notifyEvicted(removed));
+        }
     }
 
     public void add(String key, T value) {
@@ -74,45 +359,194 @@ public class MemoryCache<T> implements Cache<T> {
             throw new IllegalArgumentException("key cannot be null");
         }
         if (value == null) {
-            throw new IllegalArgumentException("key cannot be null");
+            throw new IllegalArgumentException("value cannot be null");
+        }
+        long expiryTime = System.currentTimeMillis() + ttl.toMillis();
+        List<Map.Entry<String, CacheContainer<T>>> removed = new ArrayList<>();
+        segmentFor(key).put(key, new CacheContainer<T>(value, expiryTime), removed);
+        notifyEvicted(removed);
+    }
+
+    private CacheContainer<T> getContainer(String key, long now) {
+        List<Map.Entry<String, CacheContainer<T>>> removed = new ArrayList<>(0);
+        CacheContainer<T> container = segmentFor(key).get(key, now, removed);
+        notifyEvicted(removed);
+        if (container == null) {
+            misses.increment();
+        } else {
+            hits.increment();
         }
-        long expiryTime = Instant.now().plus(ttl).toEpochMilli();
-        cache.put(key, new CacheContainer<T>(value, expiryTime));
+        return container;
     }
 
     public T get(String key) {
-        return Optional.ofNullable(cache.get(key)).filter(cacheContainer -> !cacheContainer.isExpired())
-                .map(CacheContainer<T>::getValue).orElse(null);
+        CacheContainer<T> container = getContainer(key, System.currentTimeMillis());
+        return container == null ? null : container.getValue();
     }
 
-    public T orElse(String key, OrElse<T> orElse) {
-        T value = get(key);
-        if (value == null) {
-            value = orElse.orElse(key);
-            add(key, value);
+    /**
+     * Get a value, loading and caching it on a miss. Concurrent misses for the
+     * same key wait for a single load, and entries within the refresh ahead
+     * window are reloaded in the background. The time spent loading is recorded
+     * in the cache statistics.
+     *
+     * All callers loading the same key are expected to use equivalent loaders,
+     * a caller waiting on another caller's load receives that load's result or
+     * exception.
+     *
+     * @param key    the key of the value
+     * @param loader loads the value on a miss
+     * @return T the cached or loaded value
+     * @throws E the exception thrown by the loader
+     */
+    public <E extends Exception> T get(String key, Loader<T, E> loader) throws E {
+        long now = System.currentTimeMillis();
+        CacheContainer<T> container = getContainer(key, now);
+        if (container == null) {
+            return load(key, loader);
+        }
+        T value = container.getValue();
+        if (container.startRefresh(now, refreshAhead)) {
+            refresh(key, container, loader);
         }
         return value;
     }
 
+    private <E extends Exception> void refresh(String key, CacheContainer<T> container, Loader<T, E> loader) {
+        try {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    load(key, loader);
+                } catch (Exception exception) {
+                    LOGGER.warn("refresh of cache entry {} failed, the current value is kept", key, exception);
+                    container.refreshFailed();
+                }
+            }, REFRESH_EXECUTOR);
+            refreshes.increment();
+        } catch (RejectedExecutionException exception) {
+            // the refresh pool is saturated, a later read retries
+            container.refreshFailed();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> T load(String key, Loader<T, E> loader) throws E {
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> inFlight = loadsInFlight.putIfAbsent(key, load);
+        if (inFlight != null) {
+            try {
+                return inFlight.get();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted waiting for cache entry " + key, exception);
+            } catch (ExecutionException exception) {
+                Throwable cause = exception.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (E) cause;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            T value = loader.load(key);
+            if (value != null) {
+                List<Map.Entry<String, CacheContainer<T>>> removed = new ArrayList<>();
+                long expiryTime = System.currentTimeMillis() + ttl.toMillis();
+                segmentFor(key).putLoaded(key, load, new CacheContainer<T>(value, expiryTime), removed);
+                notifyEvicted(removed);
+            }
+            load.complete(value);
+            return value;
+        } catch (Exception | Error exception) {
+            load.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            loadsInFlight.remove(key, load);
+            loads.increment();
+            loadTime.add(System.nanoTime() - start);
+        }
+    }
+
+    public T orElse(String key, OrElse<T> orElse) {
+        return get(key, orElse::orElse);
+    }
+
     public long size() {
-        return cache.entrySet().stream().filter(
-                entry -> Optional.ofNullable(entry.getValue()).map(container -> !container.isExpired()).orElse(false))
-                .count();
+        long now = System.currentTimeMillis();
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count(now);
+        }
+        return size;
     }
 
     public void evict(String key) {
-        Optional.ofNullable(cache.remove(key)).ifPresent(container -> {
-            T value = container.getValue();
-            onEviction.evict(key, value);
-            container.destroy();
-        });
+        List<Map.Entry<String, CacheContainer<T>>> removed = new ArrayList<>(1);
+        segmentFor(key).remove(key, removed);
+        notifyEvicted(removed);
+    }
+
+    /**
+     * Evict every entry whose key matches a filter
+     *
+     * @param keyFilter selects the keys to evict
+     */
+    public void evictAll(Predicate<String> keyFilter) {
+        for (Segment segment : segments) {
+            List<Map.Entry<String, CacheContainer<T>>> removed = new ArrayList<>();
+            segment.removeIf(keyFilter, removed);
+            notifyEvicted(removed);
+        }
     }
 
     public void clear() {
-        cache.entrySet().forEach(entry -> {
-            CacheContainer<T> container = entry.getValue();
-            onEviction.evict(entry.getKey(), container.getValue());
-            container.destroy();
-        });
+        for (Segment segment : segments) {
+            List<Map.Entry<String, CacheContainer<T>>> removed = new ArrayList<>();
+            segment.clear(removed);
+            notifyEvicted(removed);
+        }
+    }
+
+    /**
+     * Stop expiring entries and remove all entries from the cache
+     */
+    public void close() {
+        expiryTask.cancel(false);
+        clear();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return long the number of entries evicted to keep the cache within its
+     *         maximum size
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    public Duration getTotalLoadTime() {
+        return Duration.ofNanos(loadTime.sum());
+    }
+
+    /**
+     * @return long the number of background refreshes started
+     */
+    public long getRefreshCount() {
+        return refreshes.sum();
     }
-}
\ No newline at end of file
+}
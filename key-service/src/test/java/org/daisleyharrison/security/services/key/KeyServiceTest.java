@@ -1,13 +1,30 @@
 package org.daisleyharrison.security.services.key;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.spec.SecretKeySpec;
+import org.daisleyharrison.security.common.exceptions.KeyProviderException;
 
 import org.daisleyharrison.security.common.models.Stage;
 import org.daisleyharrison.security.common.models.key.KeyReference;
@@ -15,6 +32,9 @@ import org.daisleyharrison.security.common.models.key.KeyProvider.KeyVersion;
 import org.daisleyharrison.security.common.serviceProvider.LibraryServiceProvider;
 import org.daisleyharrison.security.common.spi.ConfigurationServiceProvider;
 import org.daisleyharrison.security.common.spi.KeyServiceProvider;
+import org.daisleyharrison.security.services.key.internal.KeyStoreKeyProviderImpl;
+import org.daisleyharrison.security.services.key.internal.MultiplexedKeyProviderImpl;
+import org.daisleyharrison.security.services.key.utilities.MemoryCache;
 import org.junit.Test;
 
 /**
@@ -95,6 +115,21 @@ public class KeyServiceTest {
         assertNotNull(keyVersion);
     }
 
+    @Test
+    public void resolveLatestKeyVersion() throws Exception {
+        initailizeConfigurationService();
+        initailizeKeyService();
+
+        KeyVersion keyVersion = keyService.resolveKey(new KeyReference() {
+
+            @Override
+            public String getPath() {
+                return "test1/jwe-bearer";
+            }
+        });
+        assertEquals("test1/jwe-bearer@1", keyVersion.getVersionPath());
+    }
+
     @Test
     public void resolveKeyFromTest2() throws Exception {
         initailizeConfigurationService();
@@ -139,4 +174,219 @@ public class KeyServiceTest {
         });
         assertTrue(PrivateKey.class.isInstance(keyVersion.getKey()));
     }
+
+    private KeyStore loadTestKeyStore() throws Exception {
+        File keyStoreFile = new File(
+                locatePath(".\\key-service\\src\\test\\resources\\testkeystore.jks", "key-service"));
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream inputStream = new FileInputStream(keyStoreFile)) {
+            keyStore.load(inputStream, "123456".toCharArray());
+        }
+        return keyStore;
+    }
+
+    @Test
+    public void reloadedKeyStoreChangedAliases() throws Exception {
+        KeyStoreKeyProviderImpl loaded = new KeyStoreKeyProviderImpl("test1/", loadTestKeyStore(),
+                "123456".toCharArray());
+        KeyStoreKeyProviderImpl unchanged = new KeyStoreKeyProviderImpl("test1/", loadTestKeyStore(),
+                "123456".toCharArray());
+        assertTrue(unchanged.changedAliases(loaded).isEmpty());
+
+        KeyStore rotatedKeyStore = loadTestKeyStore();
+        rotatedKeyStore.deleteEntry("jwe-bearer@1");
+        KeyStoreKeyProviderImpl rotated = new KeyStoreKeyProviderImpl("test1/", rotatedKeyStore,
+                "123456".toCharArray());
+        assertEquals(Set.of("jwe-bearer"), rotated.changedAliases(loaded));
+    }
+
+    @Test
+    public void retiredKeyStoreClosesWhenIdle() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setEntry("secret@1", new KeyStore.SecretKeyEntry(new SecretKeySpec(new byte[32], "AES")),
+                new KeyStore.PasswordProtection("123456".toCharArray()));
+        KeyStoreKeyProviderImpl keyProvider = new KeyStoreKeyProviderImpl("test1/", keyStore,
+                "123456".toCharArray());
+        CountDownLatch resolving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        KeyReference slowKeyRef = new KeyReference() {
+            @Override
+            public String getPath() {
+                return "test1/secret";
+            }
+
+            @Override
+            public char[] getPassword() {
+                resolving.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+                return "123456".toCharArray();
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<KeyVersion> inFlight = executor.submit(() -> keyProvider.resolveKey(slowKeyRef));
+            resolving.await();
+            keyProvider.retire();
+            release.countDown();
+            // the resolution that started before the provider retired completes
+            assertEquals("test1/secret@1", inFlight.get().getVersionPath());
+            try {
+                keyProvider.resolveKey(() -> "test1/secret");
+                fail("a retired key store should be closed once idle");
+            } catch (KeyProviderException exception) {
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void multiplexedKeyProviderRoutesLongestPrefix() throws Exception {
+        MultiplexedKeyProviderImpl keyProvider = new MultiplexedKeyProviderImpl();
+        keyProvider.addKeyProvider("test1/",
+                new KeyStoreKeyProviderImpl("test1/", loadTestKeyStore(), "123456".toCharArray()));
+        keyProvider.addKeyProvider("test1/nested/",
+                new KeyStoreKeyProviderImpl("test1/nested/", loadTestKeyStore(), "123456".toCharArray()));
+
+        assertEquals("test1/jwe-bearer@1", keyProvider.resolveKey(() -> "test1/jwe-bearer").getVersionPath());
+        assertEquals("test1/nested/jwe-bearer@1",
+                keyProvider.resolveKey(() -> "test1/nested/jwe-bearer").getVersionPath());
+        assertFalse(keyProvider.isSupported(() -> "test2/jwe-bearer"));
+        keyProvider.close();
+    }
+
+    @Test
+    public void memoryCacheStaysBounded() throws Exception {
+        List<String> evicted = new ArrayList<>();
+        MemoryCache<String> cache = new MemoryCache<>(Duration.ofMinutes(10), 100,
+                (key, value) -> evicted.add(key));
+        try {
+            cache.add("hot", "hot");
+            for (int i = 0; i < 10000; i++) {
+                cache.add("key" + i, "value" + i);
+                assertEquals("hot", cache.get("hot"));
+            }
+            assertTrue(cache.size() <= 100);
+            assertEquals(evicted.size(), cache.getEvictionCount());
+            assertEquals(10000, cache.getHitCount());
+
+            cache.clear();
+            assertEquals(0, cache.size());
+            assertEquals(null, cache.get("hot"));
+            assertEquals(10001, evicted.size());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void memoryCacheNotifiesExpiryOffTheScheduler() throws Exception {
+        CompletableFuture<String> evictedOn = new CompletableFuture<>();
+        MemoryCache<String> cache = new MemoryCache<>(Duration.ofMillis(50), 100,
+                (key, value) -> evictedOn.complete(Thread.currentThread().getName()));
+        try {
+            cache.add("key", "value");
+            assertEquals("memory-cache-eviction", evictedOn.get(5, TimeUnit.SECONDS));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void memoryCacheDropsLoadsAcrossEviction() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MemoryCache<String> cache = new MemoryCache<>(Duration.ofMinutes(10), 100, (key, value) -> {
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> stale = executor.submit(() -> cache.get("key", key -> {
+                loading.countDown();
+                release.await();
+                return "stale";
+            }));
+            loading.await();
+            cache.evict("key");
+            // a miss after the eviction does not wait for the stale load
+            assertEquals("fresh", cache.get("key", key -> "fresh"));
+            release.countDown();
+            assertEquals("stale", stale.get());
+            // and the stale load does not overwrite the fresh value
+            assertEquals("fresh", cache.get("key"));
+
+            // evicting other keys does not stop a load from being cached
+            CountDownLatch otherLoading = new CountDownLatch(1);
+            CountDownLatch otherRelease = new CountDownLatch(1);
+            Future<String> other = executor.submit(() -> cache.get("other", key -> {
+                otherLoading.countDown();
+                otherRelease.await();
+                return "other";
+            }));
+            otherLoading.await();
+            cache.evictAll(key -> !key.equals("other"));
+            otherRelease.countDown();
+            assertEquals("other", other.get());
+            assertEquals("other", cache.get("other"));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            cache.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void memoryCacheCoalescesAndRefreshesLoads() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch[] loading = { new CountDownLatch(1), new CountDownLatch(1) };
+        CountDownLatch[] release = { new CountDownLatch(1), new CountDownLatch(1) };
+        MemoryCache.Loader<String, Exception> loader = key -> {
+            int load = loads.getAndIncrement();
+            loading[load].countDown();
+            release[load].await();
+            return "value" + (load + 1);
+        };
+        // every read is within the refresh ahead window
+        MemoryCache<String> cache = new MemoryCache<>(Duration.ofMinutes(10), 100, Duration.ofMinutes(10),
+                (key, value) -> {
+                });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.get("key", loader)));
+            }
+            loading[0].await();
+            // every caller has missed and waits on the load in flight
+            while (cache.getMissCount() < 8) {
+                Thread.sleep(1);
+            }
+            release[0].countDown();
+            for (Future<String> result : results) {
+                assertEquals("value1", result.get());
+            }
+            assertEquals(1, loads.get());
+
+            // a read starts a refresh and the current value is still served
+            assertEquals("value1", cache.get("key", loader));
+            loading[1].await();
+            assertEquals("value1", cache.get("key"));
+            assertEquals(1, cache.getRefreshCount());
+            release[1].countDown();
+            while (cache.getLoadCount() < 2) {
+                Thread.sleep(1);
+            }
+            assertEquals("value2", cache.get("key"));
+            assertEquals(2, loads.get());
+        } finally {
+            release[0].countDown();
+            release[1].countDown();
+            executor.shutdown();
+            cache.close();
+        }
+    }
 }
@@ -18,6 +18,7 @@ import org.daisleyharrison.security.common.models.authorization.AuthClaims;
 import org.daisleyharrison.security.common.models.authorization.Claims;
 import org.daisleyharrison.security.common.models.authorization.OpenIdClaims;
 import org.daisleyharrison.security.common.models.authorization.TokenMetaData;
+import org.daisleyharrison.security.common.models.authorization.TokenRequest;
 import org.daisleyharrison.security.common.spi.TokenizerServiceProvider;
 import org.daisleyharrison.security.common.utilities.AuthClaimsImpl;
 import org.daisleyharrison.security.samples.spring.microservices.identityservice.models.AccessToken;
@@ -267,10 +268,11 @@ public class IdentityController {
             }
 
             TokenMetaData tokenMetaData = tokenizerService.getTokenMetaData(ENCRYPTED_ACCESS_TOKEN_TYPE);
-            String idToken = tokenizerService.produceWebToken(ENCRYPTED_ID_TOKEN_TYPE, idClaims.getClaimsMap());
-
-            String accessToken = tokenizerService.produceWebToken(ENCRYPTED_ACCESS_TOKEN_TYPE,
-                    accessClaims.getClaimsMap());
+            List<String> tokens = tokenizerService.produceWebTokens(
+                    List.of(new TokenRequest(ENCRYPTED_ID_TOKEN_TYPE, idClaims.getClaimsMap()),
+                            new TokenRequest(ENCRYPTED_ACCESS_TOKEN_TYPE, accessClaims.getClaimsMap())));
+            String idToken = tokens.get(0);
+            String accessToken = tokens.get(1);
 
             response.setScope(String.join(" ", codeClaims.getScopes()));
             int expiresInMinutes = tokenMetaData.getExpires();
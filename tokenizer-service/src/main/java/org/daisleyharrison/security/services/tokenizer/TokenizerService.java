@@ -10,27 +10,45 @@ import org.daisleyharrison.security.common.models.Stage;
 import org.daisleyharrison.security.common.models.datastore.DatastoreCollection;
 import org.daisleyharrison.security.common.models.datastore.DatastoreCursor;
 import org.daisleyharrison.security.common.models.datastore.Query;
-import org.daisleyharrison.security.common.models.key.KeyProvider.KeyVersion;
 import org.daisleyharrison.security.common.models.authorization.AuthClaims;
 import org.daisleyharrison.security.common.models.authorization.TokenMetaData;
+import org.daisleyharrison.security.common.models.authorization.TokenRequest;
 import org.daisleyharrison.security.data.models.TokenContainer;
 import org.daisleyharrison.security.jose4j.Jose4JExtensions;
 import org.daisleyharrison.security.jose4j.jwe.ExtendedContentEncryptionAlgorithmIdentifiers;
+import org.daisleyharrison.security.services.tokenizer.models.NonceStore;
 import org.daisleyharrison.security.services.tokenizer.models.TokenGenerator;
 import org.daisleyharrison.security.services.tokenizer.models.WebTokenDefinition;
-import org.daisleyharrison.security.services.tokenizer.models.KeyRefImpl;
+import org.daisleyharrison.security.services.tokenizer.models.TokenPipeline;
+import org.daisleyharrison.security.services.tokenizer.utilities.DatastoreNonceStore;
+import org.daisleyharrison.security.services.tokenizer.utilities.MemoryNonceStore;
+import org.daisleyharrison.security.services.tokenizer.utilities.VerifiedTokenCache;
 import org.daisleyharrison.security.services.tokenizer.models.RandomTokenGeneratorImpl;
 import org.daisleyharrison.security.common.utilities.AuthClaimsImpl;
+import org.daisleyharrison.security.common.utilities.SecureRandomUtil;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.ServiceNotFoundException;
 
@@ -51,11 +69,7 @@ import org.daisleyharrison.security.common.exceptions.NonceExpiredException;
 import org.daisleyharrison.security.common.exceptions.NonceReplayException;
 import org.daisleyharrison.security.common.exceptions.TokenExpiredException;
 import org.daisleyharrison.security.common.exceptions.TokenizerException;
-import org.jose4j.jwa.AlgorithmConstraints;
-import org.jose4j.jwa.AlgorithmConstraints.ConstraintType;
-import org.jose4j.jwe.ContentEncryptionAlgorithmIdentifiers;
 import org.jose4j.jwe.JsonWebEncryption;
-import org.jose4j.jwe.KeyManagementAlgorithmIdentifiers;
 import org.jose4j.jwk.JsonWebKey;
 import org.jose4j.jws.JsonWebSignature;
 import org.jose4j.jwt.JwtClaims;
@@ -96,11 +110,22 @@ public final class TokenizerService implements TokenizerServiceProvider {
     private State state;
     private Map<String, TokenGenerator> tokenGenerators = new HashMap<>();
     private DatastoreCollection<TokenContainer> tokenCollection;
+    private NonceStore nonceStore;
+    private Duration usedNonceRetention = Duration.ZERO;
+    private ExecutorService signingPool;
 
     private static final String TOKEN_TYPES_PROPERTY = "tokenizer.token-types";
     private static final String TOKEN_DATASTORE_ACCESS_PROPERTY = "tokenizer.datastore.access";
+    private static final String RANDOM_SOURCE_PROPERTY = "tokenizer.random.source";
+    private static final String NONCE_STORE_PROPERTY = "tokenizer.nonce-store";
+    private static final String DATASTORE_NONCE_STORE = "datastore";
+    private static final String MEMORY_NONCE_STORE = "memory";
+    private static final Duration DEFAULT_NONCE_CLOCK_SKEW = Duration.ofMinutes(2);
+    private static final String SIGNING_POOL_PROPERTY = "tokenizer.signing";
+    private static final int DEFAULT_SIGNING_QUEUE_CAPACITY = 1024;
 
-    private Map<String, WebTokenDefinition> webTokenDefinitionsByType;
+    private Map<String, TokenPipeline> tokenPipelinesByType;
+    private volatile KeyServiceProvider keyService;
 
     private static TokenizerService _instance;
 
@@ -114,30 +139,47 @@ public final class TokenizerService implements TokenizerServiceProvider {
     protected TokenizerService() {
         Jose4JExtensions.extend();
         this.state = State.CREATED;
-        this.webTokenDefinitionsByType = new HashMap<>();
+        this.tokenPipelinesByType = new HashMap<>();
+        addTokenGenerators(SecureRandomUtil.getPooledSecureRandom());
+
+        Jose4JExtensions.extend(); // adds support for chacha20 to he jose4j library
+    }
+
+    private void addTokenGenerators(SecureRandom secureRandom) {
         this.tokenGenerators.put(DEFAULT_TOKEN_TYPE,
-                new RandomTokenGeneratorImpl(DEFAULT_TOKEN_NAMESPACE, DEFAULT_TOKEN_LENGTH));
+                new RandomTokenGeneratorImpl(DEFAULT_TOKEN_NAMESPACE, DEFAULT_TOKEN_LENGTH, secureRandom));
 
         this.tokenGenerators.put(NONCE_TOKEN_TYPE,
-                new RandomTokenGeneratorImpl(NONCE_TOKEN_NAMESPACE, NONCE_TOKEN_LENGTH));
-
-        this.tokenGenerators.put(CHACHA20_NONCE_TOKEN_TYPE,
-                new RandomTokenGeneratorImpl(CHACHA20_NONCE_TOKEN_NAMESPACE, CHACHA20_NONCE_TOKEN_LENGTH));
+                new RandomTokenGeneratorImpl(NONCE_TOKEN_NAMESPACE, NONCE_TOKEN_LENGTH, secureRandom));
 
-        Jose4JExtensions.extend(); // adds support for chacha20 to he jose4j library
+        this.tokenGenerators.put(CHACHA20_NONCE_TOKEN_TYPE, new RandomTokenGeneratorImpl(
+                CHACHA20_NONCE_TOKEN_NAMESPACE, CHACHA20_NONCE_TOKEN_LENGTH, secureRandom));
     }
 
-    private WebTokenDefinition getWebTokenDefinition(String webTokenType) throws TokenizerException {
-        WebTokenDefinition webTokenDef = webTokenDefinitionsByType.get(webTokenType);
-        if (webTokenDef == null) {
+    private TokenPipeline getTokenPipeline(String webTokenType) throws TokenizerException {
+        TokenPipeline pipeline = tokenPipelinesByType.get(webTokenType);
+        if (pipeline == null) {
             throw new TokenizerException("invalid web token type");
         }
-        return webTokenDef;
+        return pipeline;
+    }
+
+    /**
+     * The key service is looked up once, on first use, rather than per token
+     */
+    private KeyServiceProvider getKeyService() throws ServiceNotFoundException {
+        KeyServiceProvider service = this.keyService;
+        if (service == null) {
+            service = _serviceProvider.provideService(KeyServiceProvider.class);
+            this.keyService = service;
+        }
+        return service;
     }
 
     @Override
     public TokenMetaData getTokenMetaData(String webTokenType) {
-        return webTokenDefinitionsByType.get(webTokenType);
+        TokenPipeline pipeline = tokenPipelinesByType.get(webTokenType);
+        return pipeline == null ? null : pipeline.getWebTokenDefinition();
     }
 
     @Override
@@ -170,6 +212,13 @@ public final class TokenizerService implements TokenizerServiceProvider {
         }
     }
 
+    private void assertNonceStoreReady() {
+        assertReady();
+        if (this.nonceStore == null) {
+            throw new IllegalStateException("tokenizer-service does not have a nonce store.");
+        }
+    }
+
     @Override
     public Stage beginInitialize() {
         if (this.state != State.CREATED && this.state != State.CLOSED) {
@@ -191,10 +240,14 @@ public final class TokenizerService implements TokenizerServiceProvider {
         try {
 
             ConfigurationServiceProvider config = _serviceProvider.provideService(ConfigurationServiceProvider.class);
+            String randomSource = config.getValue(RANDOM_SOURCE_PROPERTY, SecureRandomUtil.POOLED_SOURCE);
+            if (!SecureRandomUtil.POOLED_SOURCE.equals(randomSource)) {
+                addTokenGenerators(SecureRandomUtil.getSecureRandom(randomSource));
+            }
             Set<String> jwtTokenTypes = config.getNames(TOKEN_TYPES_PROPERTY);
             for (String tokenType : jwtTokenTypes) {
                 WebTokenDefinition jwtDef = new WebTokenDefinition(config, TOKEN_TYPES_PROPERTY, tokenType);
-                webTokenDefinitionsByType.put(tokenType, jwtDef);
+                tokenPipelinesByType.put(tokenType, new TokenPipeline(jwtDef));
             }
             boolean datastoreAccess = config.getBooleanValue(TOKEN_DATASTORE_ACCESS_PROPERTY, true);
             if (datastoreAccess) {
@@ -210,15 +263,104 @@ public final class TokenizerService implements TokenizerServiceProvider {
                 LOGGER.warn(
                         "tokenizer-service was configured to not access the datastore-service, nonce and opaque token functionality not available");
             }
+            this.nonceStore = createNonceStore(config);
+            this.usedNonceRetention = getUsedNonceRetention(config);
+            this.signingPool = createSigningPool(
+                    config.getIntegerValue(SIGNING_POOL_PROPERTY + ".parallelism", 0),
+                    config.getIntegerValue(SIGNING_POOL_PROPERTY + ".queue-capacity",
+                            DEFAULT_SIGNING_QUEUE_CAPACITY));
         } catch (ServiceNotFoundException exception) {
             this.state = State.COMPROMIZED;
             throw new IllegalStateException(exception);
         }
     }
 
+    /**
+     * Nonces are kept in the datastore by default. A memory nonce store keeps
+     * them in this tokenizer only, optionally writing them behind to the
+     * datastore.
+     */
+    private NonceStore createNonceStore(ConfigurationServiceProvider config) {
+        String type = config.getValue(NONCE_STORE_PROPERTY + ".type", DATASTORE_NONCE_STORE);
+        NonceStore datastoreNonceStore = this.tokenCollection == null ? null
+                : new DatastoreNonceStore(this.tokenCollection);
+        if (DATASTORE_NONCE_STORE.equals(type)) {
+            return datastoreNonceStore;
+        }
+        if (!MEMORY_NONCE_STORE.equals(type)) {
+            throw new IllegalArgumentException("Unknown nonce store type " + type);
+        }
+        NonceStore writeBehindStore = null;
+        if (config.getBooleanValue(NONCE_STORE_PROPERTY + ".write-behind", false)) {
+            if (datastoreNonceStore == null) {
+                LOGGER.warn("tokenizer-service does not have access to the datastore-service, nonces are not written behind");
+            } else {
+                writeBehindStore = datastoreNonceStore;
+            }
+        }
+        return new MemoryNonceStore(
+                config.getIntegerValue(NONCE_STORE_PROPERTY + ".segments", MemoryNonceStore.DEFAULT_SEGMENT_COUNT),
+                config.getDurationValue(NONCE_STORE_PROPERTY + ".expiry-period",
+                        MemoryNonceStore.DEFAULT_EXPIRY_PERIOD),
+                writeBehindStore,
+                config.getDurationValue(NONCE_STORE_PROPERTY + ".flush-period", Duration.ofSeconds(1)));
+    }
+
+    /**
+     * A used nonce has to be remembered for as long as a token carrying it can
+     * still be accepted, or a replay gets through once the nonce is purged. By
+     * default that is the longest expiry of the configured token types, plus
+     * the clock skew allowed between the tokenizers and their clients.
+     */
+    private Duration getUsedNonceRetention(ConfigurationServiceProvider config) {
+        int longestExpiry = 0;
+        for (TokenPipeline pipeline : tokenPipelinesByType.values()) {
+            longestExpiry = Math.max(longestExpiry, pipeline.getWebTokenDefinition().getExpires());
+        }
+        Duration maxTokenLifetime = config.getDurationValue(NONCE_STORE_PROPERTY + ".max-token-lifetime",
+                Duration.ofMinutes(longestExpiry));
+        Duration clockSkew = config.getDurationValue(NONCE_STORE_PROPERTY + ".clock-skew", DEFAULT_NONCE_CLOCK_SKEW);
+        return maxTokenLifetime.plus(clockSkew);
+    }
+
+    /**
+     * The pool produceWebTokens spreads signing and encryption over, kept apart
+     * from the common pool so a large batch cannot starve other work. It has a
+     * fixed number of threads and a bounded queue, when the queue is full the
+     * requesting thread produces the token itself.
+     *
+     * @param parallelism   the number of worker threads, 0 for one per processor
+     * @param queueCapacity the number of tokens that may wait for a worker
+     */
+    private static ExecutorService createSigningPool(int parallelism, int queueCapacity) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "tokenizer-signing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("tokenizer signing pool is closed");
+                    }
+                    runnable.run();
+                });
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
     @Override
     public void close() {
         this.state = State.CLOSED;
+        if (this.nonceStore != null) {
+            this.nonceStore.close();
+            this.nonceStore = null;
+        }
+        if (this.signingPool != null) {
+            this.signingPool.shutdown();
+            this.signingPool = null;
+        }
     }
 
     private TokenGenerator getTokenGenerator(String tokenType) {
@@ -354,39 +496,24 @@ public final class TokenizerService implements TokenizerServiceProvider {
      */
     @Override
     public void consumeNonce(String namespaceName, String nonce, Duration expires) throws TokenizerException {
-        assertDatastoreReady();
+        assertNonceStoreReady();
 
         String id = namespaceName + NONCE_NAMESPACE_SUFFIX + nonce;
-        TokenContainer container = this.tokenCollection.findById(id);
-        if (container == null) {
-            Date expiryDate = Date.from(new Date().toInstant().plus(expires));
-            container = new TokenContainer(id, expiryDate, 0, "");
-            this.tokenCollection.insert(container); // invalidate (uses==0)
-        } else if (container.getUses() == 1 && !container.hasExpired()) {
-            container.setUses(0);
-            this.tokenCollection.save(container);
-        } else {
+        // never forget a used nonce while a token carrying it may still be accepted
+        Duration retention = expires.compareTo(usedNonceRetention) < 0 ? usedNonceRetention : expires;
+        NonceStore.Entry used = new NonceStore.Entry("", System.currentTimeMillis() + retention.toMillis());
+        if (!this.nonceStore.putIfAbsent(id, used)) {
             throw new NonceReplayException(String.format("Replay detected for nonce %s/%s", namespaceName, nonce));
         }
     }
 
     @Override
     public String produceNonce(String namespaceName, String id, Duration expires) throws TokenizerException {
-        assertDatastoreReady();
+        assertNonceStoreReady();
 
-        Date expiryDate = Date.from(new Date().toInstant().plus(expires));
         String nonce = getTokenGenerator(NONCE_TOKEN_TYPE).produceToken();
         String key = namespaceName + NONCE_ID_NAMESPACE_SUFFIX + id;
-        TokenContainer container = this.tokenCollection.findById(key);
-        if (container == null) {
-            container = new TokenContainer(key, expiryDate, 1, nonce);
-            this.tokenCollection.insert(container);
-        } else {
-            container.setExpires(expiryDate);
-            container.setUses(1);
-            container.setPayload(nonce);
-            this.tokenCollection.save(container);
-        }
+        this.nonceStore.put(key, new NonceStore.Entry(nonce, System.currentTimeMillis() + expires.toMillis()));
         return nonce;
     }
 
@@ -418,16 +545,16 @@ public final class TokenizerService implements TokenizerServiceProvider {
     @Override
     public boolean consumeNonce(String namespaceName, String id, String client_nonce, String payload, String hash)
             throws TokenizerException {
-        assertDatastoreReady();
+        assertNonceStoreReady();
         String key = namespaceName + NONCE_ID_NAMESPACE_SUFFIX + id;
-        TokenContainer container = this.tokenCollection.findById(key);
-        if (container == null || container.hasExpired() || container.getUses() <= 0) {
+        NonceStore.Entry issued = this.nonceStore.get(key);
+        if (issued == null) {
             throw new NonceExpiredException("Expired nonce");
         }
 
         // Consume the nonce and keep it for at least double it's expiry date
-        String nonce = container.getPayload(); // retrieve the server generated nonce from the id
-        long diffInMillies = container.getExpires().getTime() - new Date().getTime();
+        String nonce = issued.getPayload(); // retrieve the server generated nonce from the id
+        long diffInMillies = issued.getExpires() - System.currentTimeMillis();
         consumeNonce(namespaceName, nonce, Duration.ofMillis(diffInMillies * 2));
 
         try {
@@ -466,121 +593,152 @@ public final class TokenizerService implements TokenizerServiceProvider {
         }
     }
 
-    private boolean isNonceRequired(WebTokenDefinition webTokenDef) {
-        String alg = webTokenDef.getContentEncryptionAlg();
-
-        if (alg.equals(ExtendedContentEncryptionAlgorithmIdentifiers.AEAD_CHACHA20_POLY1305)) {
-            return true;
-        }
-
-        if (alg.equals(ExtendedContentEncryptionAlgorithmIdentifiers.AEAD_XCHACHA20_POLY1305)) {
-            return true;
-        }
-
-        if (alg.equals(ContentEncryptionAlgorithmIdentifiers.AES_128_GCM)) {
-            return true;
-        }
-
-        if (alg.equals(ContentEncryptionAlgorithmIdentifiers.AES_192_GCM)) {
-            return true;
-        }
-
-        if (alg.equals(ContentEncryptionAlgorithmIdentifiers.AES_256_GCM)) {
-            return true;
-        }
-
-        return false;
-    }
-
     private String produceOpaque(WebTokenDefinition webTokenDef, JwtClaims claims) throws Exception {
         return produceOpaqueStringToken(claims.toJson(), Duration.ofMinutes(webTokenDef.getExpires()));
     }
 
-    private String produceJws(WebTokenDefinition webTokenDef, JwtClaims claims) throws Exception {
-        JsonWebSignature jws = new JsonWebSignature();
-
-        jws.setContentTypeHeaderValue("JWT");
-
+    private String produceJws(TokenPipeline pipeline, JwtClaims claims) throws Exception {
+        JsonWebSignature jws = pipeline.newProducerJws(getKeyService());
         jws.setPayload(claims.toJson());
-
-        if (webTokenDef.getAlgHeader() != null) {
-            jws.setAlgorithmHeaderValue(webTokenDef.getAlgHeader());
-        }
-
-        KeyServiceProvider keyService = _serviceProvider.provideService(KeyServiceProvider.class);
-        KeyVersion keyVersion = keyService.resolveKey(new KeyRefImpl(webTokenDef.getKey()));
-        jws.setKey(keyVersion.getKey());
-        jws.setKeyIdHeaderValue(keyVersion.getVersionPath());
         return jws.getCompactSerialization();
     }
 
-    private String produceJwe(WebTokenDefinition webTokenDef, JwtClaims claims) throws Exception {
-        JsonWebEncryption jwe = new JsonWebEncryption();
-
-        jwe.setContentTypeHeaderValue("JWT");
-
+    /**
+     * @param iv the initialization vector if the pipeline requires a nonce, or
+     *           null to draw one
+     */
+    private String produceJwe(TokenPipeline pipeline, JwtClaims claims, String iv) throws Exception {
+        JsonWebEncryption jwe = pipeline.newProducerJwe(getKeyService());
         jwe.setPlaintext(claims.toJson());
-
-        if (webTokenDef.getAlgHeader() != null) {
-            jwe.setAlgorithmHeaderValue(webTokenDef.getAlgHeader());
+        if (pipeline.isNonceRequired()) {
+            String nonce = iv != null ? iv
+                    : getTokenGenerator(pipeline.getWebTokenDefinition().getContentEncryptionAlg()).produceToken();
+            jwe.setIv(Base64.getDecoder().decode(nonce));
         }
+        return jwe.getCompactSerialization();
+    }
 
-        if (webTokenDef.getContentEncryptionAlg() != null) {
-            jwe.setEncryptionMethodHeaderParameter(webTokenDef.getContentEncryptionAlg());
+    @Override
+    public String produceWebToken(String tokenType, Map<String, Object> userClaims) throws TokenizerException {
+        assertReady();
+
+        TokenPipeline pipeline = getTokenPipeline(tokenType);
+        try {
+            return produceWebToken(pipeline, toJwtClaims(pipeline.getWebTokenDefinition(), userClaims), null);
+        } catch (Exception exception) {
+            throw new TokenizerException("Failed to encrypt " + tokenType + " token", exception);
         }
+    }
+
+    private JwtClaims toJwtClaims(WebTokenDefinition webTokenDef, Map<String, Object> userClaims) {
+        JwtClaims claims = new JwtClaims();
+        claims.setIssuer(webTokenDef.getIssuer());
+        claims.setAudience(webTokenDef.getAudience());
+        claims.setExpirationTimeMinutesInTheFuture(webTokenDef.getExpires());
+        claims.setGeneratedJwtId();
+        claims.setIssuedAtToNow();
+        claims.setNotBeforeMinutesInThePast(webTokenDef.getNotBefore()); // time before which the token is not yet
+                                                                         // valid
+        userClaims.forEach((name, value) -> {
+            if (!claims.hasClaim(name)) {
+                claims.setClaim(name, value);
+            }
+        });
+        return claims;
+    }
 
-        if (isNonceRequired(webTokenDef)) {
-            String nonce = getTokenGenerator(webTokenDef.getContentEncryptionAlg()).produceToken();
-            byte[] iv = Base64.getDecoder().decode(nonce);
-            jwe.setIv(iv);
+    private String produceWebToken(TokenPipeline pipeline, JwtClaims claims, String iv) throws Exception {
+        WebTokenDefinition webTokenDef = pipeline.getWebTokenDefinition();
+        TokenMetaData.Type type = webTokenDef.getType();
+        if (type == null) {
+            throw new TokenizerException(
+                    "Invalid or unspecified token type for " + webTokenDef.getName() + " token definition");
+        }
+        switch (type) {
+        default:
+        case JWT:
+            return claims.toJson();
+        case JWS:
+            return produceJws(pipeline, claims);
+        case JWE:
+            return produceJwe(pipeline, claims, iv);
+        case OPAQUE:
+            return produceOpaque(webTokenDef, claims);
         }
+    }
 
-        KeyServiceProvider keyService = _serviceProvider.provideService(KeyServiceProvider.class);
-        KeyVersion keyVersion = keyService.resolveKey(new KeyRefImpl(webTokenDef.getKey()));
-        jwe.setKey(keyVersion.getKey());
-        jwe.setKeyIdHeaderValue(keyVersion.getVersionPath());
-        return jwe.getCompactSerialization();
+    private static boolean isSignedOrEncrypted(TokenPipeline pipeline) {
+        TokenMetaData.Type type = pipeline.getWebTokenDefinition().getType();
+        return type == TokenMetaData.Type.JWS || type == TokenMetaData.Type.JWE;
     }
 
+    /**
+     * Produce several web tokens in one pass. The key of each token type is
+     * resolved once and the initialization vectors of all the encrypted tokens
+     * are drawn together, then the tokens are signed or encrypted in parallel.
+     * Opaque tokens are stored in the datastore on the calling thread.
+     *
+     * @param requests the token types and claims of the tokens
+     * @return List<String> the tokens, in the order they were requested
+     */
     @Override
-    public String produceWebToken(String tokenType, Map<String, Object> userClaims) throws TokenizerException {
+    public List<String> produceWebTokens(List<TokenRequest> requests) throws TokenizerException {
         assertReady();
 
-        WebTokenDefinition webTokenDef = getWebTokenDefinition(tokenType);
-        try {
-
-            JwtClaims claims = new JwtClaims();
-            claims.setIssuer(webTokenDef.getIssuer());
-            claims.setAudience(webTokenDef.getAudience());
-            claims.setExpirationTimeMinutesInTheFuture(webTokenDef.getExpires());
-            claims.setGeneratedJwtId();
-            claims.setIssuedAtToNow();
-            claims.setNotBeforeMinutesInThePast(webTokenDef.getNotBefore()); // time before which the token is not yet
-                                                                             // valid
-            userClaims.forEach((name, value) -> {
-                if (!claims.hasClaim(name)) {
-                    claims.setClaim(name, value);
+        int count = requests.size();
+        List<TokenPipeline> pipelines = new ArrayList<>(count);
+        Map<String, Integer> ivCountByAlg = new HashMap<>();
+        for (TokenRequest request : requests) {
+            TokenPipeline pipeline = getTokenPipeline(request.getTokenType());
+            pipelines.add(pipeline);
+            if (pipeline.getWebTokenDefinition().getType() == TokenMetaData.Type.JWE && pipeline.isNonceRequired()) {
+                ivCountByAlg.merge(pipeline.getWebTokenDefinition().getContentEncryptionAlg(), 1, Integer::sum);
+            }
+        }
+        Map<String, Iterator<String>> ivsByAlg = new HashMap<>();
+        ivCountByAlg.forEach((alg, ivCount) -> ivsByAlg.put(alg,
+                getTokenGenerator(alg).produceTokens(ivCount).iterator()));
+
+        String[] tokens = new String[count];
+        List<CompletableFuture<Void>> signing = new ArrayList<>();
+        for (int index = 0; index < count; index++) {
+            TokenPipeline pipeline = pipelines.get(index);
+            WebTokenDefinition webTokenDef = pipeline.getWebTokenDefinition();
+            String tokenType = requests.get(index).getTokenType();
+            try {
+                JwtClaims claims = toJwtClaims(webTokenDef, requests.get(index).getClaims());
+                Iterator<String> ivs = ivsByAlg.get(webTokenDef.getContentEncryptionAlg());
+                String iv = webTokenDef.getType() == TokenMetaData.Type.JWE && pipeline.isNonceRequired()
+                        ? ivs.next()
+                        : null;
+                if (count > 1 && isSignedOrEncrypted(pipeline)) {
+                    // resolve the key here so the parallel work is only crypto
+                    pipeline.getProducerKey(getKeyService());
+                    int tokenIndex = index;
+                    signing.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            tokens[tokenIndex] = produceWebToken(pipeline, claims, iv);
+                        } catch (Exception exception) {
+                            throw new CompletionException(
+                                    new TokenizerException("Failed to encrypt " + tokenType + " token", exception));
+                        }
+                    }, signingPool));
+                } else {
+                    tokens[index] = produceWebToken(pipeline, claims, iv);
                 }
-            });
-            TokenMetaData.Type type = webTokenDef.getType();
-            if (type == null) {
-                throw new TokenizerException(
-                        "Invalid or unspecified token type for " + tokenType + " token definition");
+            } catch (Exception exception) {
+                throw new TokenizerException("Failed to encrypt " + tokenType + " token", exception);
             }
-            switch (type) {
-            default:
-            case JWT:
-                return claims.toJson();
-            case JWS:
-                return produceJws(webTokenDef, claims);
-            case JWE:
-                return produceJwe(webTokenDef, claims);
-            case OPAQUE:
-                return produceOpaque(webTokenDef, claims);
+        }
+        try {
+            CompletableFuture.allOf(signing.toArray(new CompletableFuture<?>[signing.size()])).join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof TokenizerException) {
+                throw (TokenizerException) exception.getCause();
             }
-        } catch (Exception exception) {
-            throw new TokenizerException("Failed to encrypt " + tokenType + " token", exception);
+            throw new TokenizerException("Failed to encrypt tokens", exception.getCause());
         }
+        return Arrays.asList(tokens);
     }
 
     private void validateAuthClaims(WebTokenDefinition webTokenDef, AuthClaims jwtClaims)
@@ -617,72 +775,23 @@ public final class TokenizerService implements TokenizerServiceProvider {
         }
     }
 
-    private String consumeJwe(WebTokenDefinition webTokenDef, String token, Key key)
+    private String consumeJwe(TokenPipeline pipeline, String token, Key key)
             throws JoseException, KeyProviderException, ServiceNotFoundException {
-        assertReady();
-
-        JsonWebEncryption jwe = new JsonWebEncryption();
-
-        if (webTokenDef.getAlgHeader() != null) {
-            AlgorithmConstraints algConstraints = new AlgorithmConstraints(ConstraintType.WHITELIST,
-                    webTokenDef.getAlgHeader());
-            jwe.setAlgorithmConstraints(algConstraints);
-        }
-
-        if (webTokenDef.getContentEncryptionAlg() != null) {
-            AlgorithmConstraints encConstraints = new AlgorithmConstraints(ConstraintType.WHITELIST,
-                    webTokenDef.getContentEncryptionAlg());
-
-            jwe.setContentEncryptionAlgorithmConstraints(encConstraints);
-        }
+        JsonWebEncryption jwe = pipeline.newConsumerJwe(getKeyService(), key);
 
         // Set the compact serialization on new Json Web Encryption object
         jwe.setCompactSerialization(token);
 
-        if (key == null) {
-            String keyPath = webTokenDef.getKey();
-            if (keyPath == null) {
-                throw new IllegalArgumentException(
-                        "Token definition " + webTokenDef.getName() + " does not define a key");
-            }
-            KeyServiceProvider keyService = _serviceProvider.provideService(KeyServiceProvider.class);
-            if(!KeyManagementAlgorithmIdentifiers.DIRECT.equals(webTokenDef.getAlgHeader())) {
-                keyPath += "/public";
-            }
-            KeyVersion keyVersion = keyService.resolveKey(new KeyRefImpl(keyPath));
-            key = keyVersion.getKey();
-        }
-        jwe.setKey(key);
-
         return jwe.getPlaintextString(); // Decrypt the JWE
     }
 
-    private String consumeJws(WebTokenDefinition webTokenDef, String token, Key key)
+    private String consumeJws(TokenPipeline pipeline, String token, Key key)
             throws JoseException, KeyProviderException, ServiceNotFoundException {
-        JsonWebSignature jws = new JsonWebSignature();
-
-        if (webTokenDef.getAlgHeader() != null) {
-            AlgorithmConstraints algConstraints = new AlgorithmConstraints(ConstraintType.WHITELIST,
-                    webTokenDef.getAlgHeader());
-            jws.setAlgorithmConstraints(algConstraints);
-        }
+        JsonWebSignature jws = pipeline.newConsumerJws(getKeyService(), key);
 
         // Set the compact serialization on new Json Web Encryption object
         jws.setCompactSerialization(token);
 
-        if (key == null) {
-            String keyPath = webTokenDef.getKey();
-            if (keyPath == null) {
-                throw new IllegalArgumentException(
-                        "Token definition " + webTokenDef.getName() + " does not define a key");
-            }
-            KeyServiceProvider keyService = _serviceProvider.provideService(KeyServiceProvider.class);
-
-            KeyVersion keyVersion = keyService.resolveKey(new KeyRefImpl(keyPath + "/public"));
-            key = keyVersion.getKey();
-        }
-        jws.setKey(key);
-
         return jws.getPayload(); // Decrypt the JWS
     }
 
@@ -690,7 +799,8 @@ public final class TokenizerService implements TokenizerServiceProvider {
     public AuthClaims consumeWebToken(String tokenType, String token) throws TokenizerException {
         assertReady();
 
-        WebTokenDefinition webTokenDef = getWebTokenDefinition(tokenType);
+        TokenPipeline pipeline = getTokenPipeline(tokenType);
+        WebTokenDefinition webTokenDef = pipeline.getWebTokenDefinition();
         try {
             String plainTextToken;
             TokenMetaData.Type type = webTokenDef.getType();
@@ -698,16 +808,32 @@ public final class TokenizerService implements TokenizerServiceProvider {
                 throw new TokenizerException(
                         "Invalid or unspecified token type for " + tokenType + " token definition");
             }
+            // opaque tokens are not cached, consuming one counts a use
+            VerifiedTokenCache verifiedTokens = type == TokenMetaData.Type.JWS || type == TokenMetaData.Type.JWE
+                    ? pipeline.getVerifiedTokenCache()
+                    : null;
+            String cacheKey = null;
+            if (verifiedTokens != null) {
+                cacheKey = VerifiedTokenCache.toKey(token);
+                String cachedClaims = pipeline.isConsumerKeyCurrent() ? verifiedTokens.get(cacheKey) : null;
+                if (cachedClaims != null) {
+                    // a copy of its own for each caller
+                    AuthClaims jwtClaims = AuthClaimsImpl.parse(cachedClaims);
+                    // the token may not be valid yet, or no longer, since it was cached
+                    validateAuthClaims(webTokenDef, jwtClaims);
+                    return jwtClaims;
+                }
+            }
             switch (type) {
             default:
             case JWT:
                 plainTextToken = token;
                 break;
             case JWS:
-                plainTextToken = consumeJws(webTokenDef, token, null);
+                plainTextToken = consumeJws(pipeline, token, null);
                 break;
             case JWE:
-                plainTextToken = consumeJwe(webTokenDef, token, null);
+                plainTextToken = consumeJwe(pipeline, token, null);
                 break;
             case OPAQUE:
                 plainTextToken = consumeOpaqueToken(token, String.class);
@@ -718,6 +844,10 @@ public final class TokenizerService implements TokenizerServiceProvider {
 
             validateAuthClaims(webTokenDef, jwtClaims);
 
+            if (verifiedTokens != null) {
+                verifiedTokens.put(cacheKey, plainTextToken, jwtClaims.getExpirationTime().getTime());
+            }
+
             return jwtClaims;
 
         } catch (KeyProviderException | MalformedAuthClaimException | ServiceNotFoundException
@@ -730,7 +860,8 @@ public final class TokenizerService implements TokenizerServiceProvider {
     public AuthClaims consumeWebTokenWithJwk(String tokenType, String token, String jwk) throws TokenizerException {
         assertReady();
 
-        WebTokenDefinition webTokenDef = getWebTokenDefinition(tokenType);
+        TokenPipeline pipeline = getTokenPipeline(tokenType);
+        WebTokenDefinition webTokenDef = pipeline.getWebTokenDefinition();
 
         try {
             String plainTextToken;
@@ -746,10 +877,10 @@ public final class TokenizerService implements TokenizerServiceProvider {
                 plainTextToken = token;
                 break;
             case JWS:
-                plainTextToken = consumeJws(webTokenDef, token, key);
+                plainTextToken = consumeJws(pipeline, token, key);
                 break;
             case JWE:
-                plainTextToken = consumeJwe(webTokenDef, token, key);
+                plainTextToken = consumeJwe(pipeline, token, key);
                 break;
             case OPAQUE:
                 plainTextToken = consumeOpaqueToken(token, String.class);
@@ -773,13 +904,7 @@ public final class TokenizerService implements TokenizerServiceProvider {
         assertReady();
 
         try {
-            WebTokenDefinition webTokenDef = getWebTokenDefinition(tokenType);
-            String publicKeyPath = webTokenDef.getKey() + "/public";
-            KeyServiceProvider keyService = _serviceProvider.provideService(KeyServiceProvider.class);
-            KeyVersion keyVersion = keyService.resolveKey(new KeyRefImpl(publicKeyPath));
-            JsonWebKey jwk = JsonWebKey.Factory.newJwk(keyVersion.getKey());
-            jwk.setKeyId(publicKeyPath);
-            return jwk.toJson();
+            return getTokenPipeline(tokenType).getPublicJwk(getKeyService());
         } catch (JoseException | KeyProviderException | ServiceNotFoundException exception) {
             throw new TokenizerException("Invalid token type", exception);
         }
@@ -787,14 +912,20 @@ public final class TokenizerService implements TokenizerServiceProvider {
 
     @Override
     public long removeAllExpired() throws TokenizerException {
-        assertDatastoreReady();
+        if (this.nonceStore == null) {
+            assertDatastoreReady();
+        }
+        assertReady();
 
+        long countRemoved = this.nonceStore == null ? 0 : this.nonceStore.removeAllExpired();
+        if (this.tokenCollection == null) {
+            return countRemoved;
+        }
         Query expiresBy = this.tokenCollection.buildQuery().root().property("expires").lessThan(new Date()).build();
         DatastoreCursor<TokenContainer> expiredContainers = this.tokenCollection.find(expiresBy);
         if (expiredContainers == null) {
-            return 0;
+            return countRemoved;
         } else {
-            int countRemoved = 0;
             for (TokenContainer expiredContainer : expiredContainers.toArray(TokenContainer[]::new)) {
                 this.tokenCollection.remove(expiredContainer);
                 countRemoved++;
@@ -0,0 +1,80 @@
+package org.daisleyharrison.security.services.tokenizer.models;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Where the tokenizer keeps the nonces it issued and the nonces it has seen
+ * used, until they expire.
+ *
+ * A used nonce is only recognized as a replay while its entry is kept, so the
+ * tokenizer keeps used nonces at least as long as the longest token lifetime
+ * plus the allowed clock skew, see tokenizer.nonce-store.max-token-lifetime and
+ * tokenizer.nonce-store.clock-skew.
+ */
+public interface NonceStore extends AutoCloseable {
+
+    public static class Entry {
+        private final String payload;
+        private final long expires;
+
+        /**
+         * @param payload the value kept with the key
+         * @param expires when the entry expires, in milliseconds since the epoch
+         */
+        public Entry(String payload, long expires) {
+            this.payload = payload;
+            this.expires = expires;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return long when the entry expires, in milliseconds since the epoch
+         */
+        public long getExpires() {
+            return expires;
+        }
+
+        public boolean hasExpired() {
+            return expires <= System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Add an entry unless the key holds one that has not expired, as a single
+     * atomic step, so of any number of callers adding the same key only one
+     * succeeds
+     *
+     * @return boolean true if the entry was added
+     */
+    public boolean putIfAbsent(String key, Entry entry);
+
+    /**
+     * Add an entry, replacing any entry of the key
+     */
+    public void put(String key, Entry entry);
+
+    /**
+     * @return Entry the entry of the key, or null if there is none or it has
+     *         expired
+     */
+    public Entry get(String key);
+
+    /**
+     * Pass every entry that has not expired to a consumer, used to load one
+     * store from another
+     *
+     * @param consumer called with the key and entry of every unexpired entry
+     */
+    public void forEachUnexpired(BiConsumer<String, Entry> consumer);
+
+    /**
+     * @return long the number of expired entries removed
+     */
+    public long removeAllExpired();
+
+    @Override
+    public void close();
+}
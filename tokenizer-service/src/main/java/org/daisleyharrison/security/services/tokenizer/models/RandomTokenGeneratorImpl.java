@@ -1,17 +1,28 @@
 package org.daisleyharrison.security.services.tokenizer.models;
 
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+
+import org.daisleyharrison.security.common.utilities.SecureRandomUtil;
 
 public class RandomTokenGeneratorImpl implements TokenGenerator {
-    private static SecureRandom s_secureRandom;
+    private final SecureRandom secureRandom;
     private String namespace;
     private int numberOfBytes;
     public static final int MINIMUM_NUMBER_OF_BYTES = 4;
     public static final int MAXIMUM_NUMBER_OF_BYTES = 256;
 
     public RandomTokenGeneratorImpl(String namespace, int numberOfBytes) {
+        this(namespace, numberOfBytes, SecureRandomUtil.getPooledSecureRandom());
+    }
+
+    /**
+     * @param secureRandom the source of the random bytes of the tokens
+     */
+    public RandomTokenGeneratorImpl(String namespace, int numberOfBytes, SecureRandom secureRandom) {
         if (namespace == null) {
             throw new IllegalArgumentException("namespace cannot be null");
         }
@@ -20,25 +31,33 @@ public class RandomTokenGeneratorImpl implements TokenGenerator {
         }
         this.namespace = namespace;
         this.numberOfBytes = numberOfBytes;
-        if (s_secureRandom == null) {
-            try {
-                s_secureRandom = SecureRandom.getInstanceStrong();
-            } catch (NoSuchAlgorithmException exception1) {
-                try {
-                    s_secureRandom = SecureRandom.getInstance("SHA1PRNG");
-                } catch (NoSuchAlgorithmException exception2) {
-                    throw new IllegalStateException("No valid secure random algorithm found.");
-                }
-            }
-        }
+        this.secureRandom = secureRandom;
     }
 
     @Override
     public String produceToken() {
         byte[] tokenBytes = new byte[this.numberOfBytes];
-        s_secureRandom.nextBytes(tokenBytes);
+        this.secureRandom.nextBytes(tokenBytes);
 
         return this.namespace + Base64.getEncoder().encodeToString(tokenBytes);
     }
 
+    /**
+     * Draw the random bytes of all the tokens at once
+     */
+    @Override
+    public List<String> produceTokens(int count) {
+        byte[] allTokenBytes = new byte[this.numberOfBytes * count];
+        this.secureRandom.nextBytes(allTokenBytes);
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        List<String> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] tokenBytes = Arrays.copyOfRange(allTokenBytes, i * this.numberOfBytes,
+                    (i + 1) * this.numberOfBytes);
+            tokens.add(this.namespace + encoder.encodeToString(tokenBytes));
+        }
+        return tokens;
+    }
+
 }
\ No newline at end of file
@@ -1,5 +1,16 @@
 package org.daisleyharrison.security.services.tokenizer.models;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface TokenGenerator {
     String produceToken();
+
+    default List<String> produceTokens(int count) {
+        List<String> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(produceToken());
+        }
+        return tokens;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,241 @@
+package org.daisleyharrison.security.services.tokenizer.models;
+
+import java.security.Key;
+
+import org.daisleyharrison.security.common.exceptions.KeyProviderException;
+import org.daisleyharrison.security.common.models.authorization.TokenMetaData;
+import org.daisleyharrison.security.common.models.key.KeyProvider;
+import org.daisleyharrison.security.common.models.key.KeyProvider.KeyVersion;
+import org.daisleyharrison.security.common.models.key.KeyReference;
+import org.daisleyharrison.security.jose4j.jwe.ExtendedContentEncryptionAlgorithmIdentifiers;
+import org.daisleyharrison.security.services.tokenizer.utilities.VerifiedTokenCache;
+import org.jose4j.jwa.AlgorithmConstraints;
+import org.jose4j.jwa.AlgorithmConstraints.ConstraintType;
+import org.jose4j.jwe.ContentEncryptionAlgorithmIdentifiers;
+import org.jose4j.jwe.JsonWebEncryption;
+import org.jose4j.jwe.KeyManagementAlgorithmIdentifiers;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.lang.JoseException;
+
+/**
+ * Everything about producing and consuming one type of web token that does not
+ * change from token to token, worked out once when the tokenizer is
+ * configured: the algorithm constraints, the header values, the key
+ * references and the resolved keys.
+ *
+ * A resolved key is kept until the key provider destroys it, which happens
+ * when the key expires from the key cache or its key store is reloaded, and is
+ * then resolved again on next use.
+ *
+ * Token types configured with a cache remember the claims of the tokens they
+ * verified. The cache is cleared when the consumer key is resolved to a new
+ * version.
+ */
+public class TokenPipeline {
+    private static final String PUBLIC_KEY_SUFFIX = "/public";
+    private static final String CONTENT_TYPE = "JWT";
+
+    private final WebTokenDefinition webTokenDef;
+    private final AlgorithmConstraints algConstraints;
+    private final AlgorithmConstraints encConstraints;
+    private final boolean nonceRequired;
+    private final KeyReference producerKeyRef;
+    private final KeyReference consumerKeyRef;
+    private final KeyReference publicKeyRef;
+    private final VerifiedTokenCache verifiedTokens;
+    private volatile KeyVersion producerKey;
+    private volatile KeyVersion consumerKey;
+    private volatile KeyVersion publicKey;
+    private volatile String publicJwk;
+
+    public TokenPipeline(WebTokenDefinition webTokenDef) {
+        this.webTokenDef = webTokenDef;
+        String algHeader = webTokenDef.getAlgHeader();
+        String contentEncryptionAlg = webTokenDef.getContentEncryptionAlg();
+        this.algConstraints = algHeader == null ? null
+                : new AlgorithmConstraints(ConstraintType.WHITELIST, algHeader);
+        this.encConstraints = contentEncryptionAlg == null ? null
+                : new AlgorithmConstraints(ConstraintType.WHITELIST, contentEncryptionAlg);
+        this.nonceRequired = isNonceRequired(contentEncryptionAlg);
+        this.verifiedTokens = webTokenDef.getCacheMaxEntries() > 0
+                ? new VerifiedTokenCache(webTokenDef.getCacheMaxEntries(), webTokenDef.getCacheMaxBytes())
+                : null;
+        String keyPath = webTokenDef.getKey();
+        if (keyPath == null) {
+            this.producerKeyRef = null;
+            this.consumerKeyRef = null;
+            this.publicKeyRef = null;
+        } else {
+            this.producerKeyRef = new KeyRefImpl(keyPath);
+            this.publicKeyRef = new KeyRefImpl(keyPath + PUBLIC_KEY_SUFFIX);
+            // a direct encryption key is symmetric, every other key is consumed with its public half
+            boolean directEncryption = webTokenDef.getType() == TokenMetaData.Type.JWE
+                    && KeyManagementAlgorithmIdentifiers.DIRECT.equals(algHeader);
+            this.consumerKeyRef = directEncryption ? this.producerKeyRef : this.publicKeyRef;
+        }
+    }
+
+    private static boolean isNonceRequired(String alg) {
+        if (alg == null) {
+            return false;
+        }
+        return alg.equals(ExtendedContentEncryptionAlgorithmIdentifiers.AEAD_CHACHA20_POLY1305)
+                || alg.equals(ExtendedContentEncryptionAlgorithmIdentifiers.AEAD_XCHACHA20_POLY1305)
+                || alg.equals(ContentEncryptionAlgorithmIdentifiers.AES_128_GCM)
+                || alg.equals(ContentEncryptionAlgorithmIdentifiers.AES_192_GCM)
+                || alg.equals(ContentEncryptionAlgorithmIdentifiers.AES_256_GCM);
+    }
+
+    public WebTokenDefinition getWebTokenDefinition() {
+        return webTokenDef;
+    }
+
+    /**
+     * @return boolean true if the content encryption algorithm needs a unique
+     *         initialization vector per token
+     */
+    public boolean isNonceRequired() {
+        return nonceRequired;
+    }
+
+    /**
+     * @return VerifiedTokenCache the claims of verified tokens, or null if this
+     *         token type does not cache them
+     */
+    public VerifiedTokenCache getVerifiedTokenCache() {
+        return verifiedTokens;
+    }
+
+    /**
+     * @return boolean true if the consumer key has been resolved and not
+     *         destroyed since
+     */
+    public boolean isConsumerKeyCurrent() {
+        return isCurrent(consumerKey);
+    }
+
+    private KeyReference assertKeyDefined(KeyReference keyRef) {
+        if (keyRef == null) {
+            throw new IllegalArgumentException("Token definition " + webTokenDef.getName() + " does not define a key");
+        }
+        return keyRef;
+    }
+
+    private static boolean isCurrent(KeyVersion keyVersion) {
+        return keyVersion != null && !keyVersion.isDestroyed();
+    }
+
+    /**
+     * @return KeyVersion the key tokens are signed or encrypted with
+     */
+    public KeyVersion getProducerKey(KeyProvider keyProvider) throws KeyProviderException {
+        KeyVersion keyVersion = producerKey;
+        if (!isCurrent(keyVersion)) {
+            keyVersion = keyProvider.resolveKey(assertKeyDefined(producerKeyRef));
+            producerKey = keyVersion;
+        }
+        return keyVersion;
+    }
+
+    /**
+     * @return KeyVersion the key tokens are verified or decrypted with
+     */
+    public KeyVersion getConsumerKey(KeyProvider keyProvider) throws KeyProviderException {
+        KeyVersion keyVersion = consumerKey;
+        if (!isCurrent(keyVersion)) {
+            KeyVersion previous = keyVersion;
+            keyVersion = keyProvider.resolveKey(assertKeyDefined(consumerKeyRef));
+            consumerKey = keyVersion;
+            if (verifiedTokens != null && previous != null
+                    && !previous.getVersionPath().equals(keyVersion.getVersionPath())) {
+                // the key was rotated, tokens verified with the old key are verified again
+                verifiedTokens.clear();
+            }
+        }
+        return keyVersion;
+    }
+
+    /**
+     * @return String the public key as a JSON web key
+     */
+    public String getPublicJwk(KeyProvider keyProvider) throws KeyProviderException, JoseException {
+        KeyVersion keyVersion = publicKey;
+        String jwk = publicJwk;
+        if (!isCurrent(keyVersion) || jwk == null) {
+            keyVersion = keyProvider.resolveKey(assertKeyDefined(publicKeyRef));
+            JsonWebKey jsonWebKey = JsonWebKey.Factory.newJwk(keyVersion.getKey());
+            jsonWebKey.setKeyId(publicKeyRef.getPath());
+            jwk = jsonWebKey.toJson();
+            publicJwk = jwk;
+            publicKey = keyVersion;
+        }
+        return jwk;
+    }
+
+    /**
+     * @return JsonWebSignature a signature with the headers and key of this
+     *         token type, ready for its payload
+     */
+    public JsonWebSignature newProducerJws(KeyProvider keyProvider) throws KeyProviderException {
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setContentTypeHeaderValue(CONTENT_TYPE);
+        if (webTokenDef.getAlgHeader() != null) {
+            jws.setAlgorithmHeaderValue(webTokenDef.getAlgHeader());
+        }
+        KeyVersion keyVersion = getProducerKey(keyProvider);
+        jws.setKey(keyVersion.getKey());
+        jws.setKeyIdHeaderValue(keyVersion.getVersionPath());
+        return jws;
+    }
+
+    /**
+     * @return JsonWebEncryption an encryption with the headers and key of this
+     *         token type, ready for its plaintext and initialization vector
+     */
+    public JsonWebEncryption newProducerJwe(KeyProvider keyProvider) throws KeyProviderException {
+        JsonWebEncryption jwe = new JsonWebEncryption();
+        jwe.setContentTypeHeaderValue(CONTENT_TYPE);
+        if (webTokenDef.getAlgHeader() != null) {
+            jwe.setAlgorithmHeaderValue(webTokenDef.getAlgHeader());
+        }
+        if (webTokenDef.getContentEncryptionAlg() != null) {
+            jwe.setEncryptionMethodHeaderParameter(webTokenDef.getContentEncryptionAlg());
+        }
+        KeyVersion keyVersion = getProducerKey(keyProvider);
+        jwe.setKey(keyVersion.getKey());
+        jwe.setKeyIdHeaderValue(keyVersion.getVersionPath());
+        return jwe;
+    }
+
+    /**
+     * @param key the key to verify with, or null for the key of this token type
+     * @return JsonWebSignature a signature constrained to the algorithms of this
+     *         token type, ready for its compact serialization
+     */
+    public JsonWebSignature newConsumerJws(KeyProvider keyProvider, Key key) throws KeyProviderException {
+        JsonWebSignature jws = new JsonWebSignature();
+        if (algConstraints != null) {
+            jws.setAlgorithmConstraints(algConstraints);
+        }
+        jws.setKey(key == null ? getConsumerKey(keyProvider).getKey() : key);
+        return jws;
+    }
+
+    /**
+     * @param key the key to decrypt with, or null for the key of this token type
+     * @return JsonWebEncryption an encryption constrained to the algorithms of
+     *         this token type, ready for its compact serialization
+     */
+    public JsonWebEncryption newConsumerJwe(KeyProvider keyProvider, Key key) throws KeyProviderException {
+        JsonWebEncryption jwe = new JsonWebEncryption();
+        if (algConstraints != null) {
+            jwe.setAlgorithmConstraints(algConstraints);
+        }
+        if (encConstraints != null) {
+            jwe.setContentEncryptionAlgorithmConstraints(encConstraints);
+        }
+        jwe.setKey(key == null ? getConsumerKey(keyProvider).getKey() : key);
+        return jwe;
+    }
+}
@@ -6,6 +6,8 @@ import org.daisleyharrison.security.common.spi.ConfigurationServiceProvider;
 public class WebTokenDefinition implements TokenMetaData {
     private static final int DEFAULT_EXPIRES_IN_MINUTES = 15;
     private static final int DEFAULT_NOT_BEFORE_IN_MINUTES = 2;
+    private static final int DEFAULT_CACHE_MAX_ENTRIES = 0; // verified tokens are not cached unless configured
+    private static final int DEFAULT_CACHE_MAX_BYTES = 16 * 1024 * 1024;
 
     private String name;
     private Type type;
@@ -16,6 +18,8 @@ public class WebTokenDefinition implements TokenMetaData {
     private String audience;
     private int expires;
     private int notBefore;
+    private int cacheMaxEntries;
+    private int cacheMaxBytes;
 
     public WebTokenDefinition(ConfigurationServiceProvider config, String prefix, String definitionName) {
         String propertyPrefix = prefix + "." + definitionName;
@@ -28,6 +32,8 @@ public class WebTokenDefinition implements TokenMetaData {
         setKey(config.getValue(propertyPrefix + ".key", null));
         setExpires(config.getIntegerValue(propertyPrefix + ".expires", DEFAULT_EXPIRES_IN_MINUTES));
         setNotBefore(config.getIntegerValue(propertyPrefix + ".not-before", DEFAULT_NOT_BEFORE_IN_MINUTES));
+        setCacheMaxEntries(config.getIntegerValue(propertyPrefix + ".cache.max-entries", DEFAULT_CACHE_MAX_ENTRIES));
+        setCacheMaxBytes(config.getIntegerValue(propertyPrefix + ".cache.max-bytes", DEFAULT_CACHE_MAX_BYTES));
 
     }
 
@@ -77,6 +83,35 @@ public class WebTokenDefinition implements TokenMetaData {
         this.notBefore = notBefore;
     }
 
+    /**
+     * @return int return the maximum number of verified tokens to cache, 0 if
+     *         verified tokens are not cached
+     */
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    /**
+     * @param cacheMaxEntries the cacheMaxEntries to set
+     */
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    /**
+     * @return int return the maximum bytes of verified token claims to cache
+     */
+    public int getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /**
+     * @param cacheMaxBytes the cacheMaxBytes to set
+     */
+    public void setCacheMaxBytes(int cacheMaxBytes) {
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
     @Override
     public String toString() {
         return "JwtDefinition{" + name + "}";
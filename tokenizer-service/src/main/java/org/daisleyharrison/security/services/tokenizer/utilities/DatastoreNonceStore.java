@@ -0,0 +1,80 @@
+package org.daisleyharrison.security.services.tokenizer.utilities;
+
+import java.util.Date;
+import java.util.function.BiConsumer;
+
+import org.daisleyharrison.security.common.models.datastore.DatastoreCollection;
+import org.daisleyharrison.security.common.models.datastore.DatastoreCursor;
+import org.daisleyharrison.security.common.models.datastore.Query;
+import org.daisleyharrison.security.data.models.TokenContainer;
+import org.daisleyharrison.security.services.tokenizer.models.NonceStore;
+
+/**
+ * Keeps nonces as token containers in the token collection of the datastore,
+ * shared with the opaque tokens. Each call reads and writes the datastore.
+ *
+ * putIfAbsent is a read followed by an upsert, made atomic by synchronizing on
+ * this store, so it is atomic only within one JVM. Tokenizers in different
+ * JVMs sharing the datastore can each accept the same nonce once, the
+ * collection offers no conditional insert to prevent it.
+ */
+public class DatastoreNonceStore implements NonceStore {
+    private final DatastoreCollection<TokenContainer> tokenCollection;
+
+    public DatastoreNonceStore(DatastoreCollection<TokenContainer> tokenCollection) {
+        this.tokenCollection = tokenCollection;
+    }
+
+    @Override
+    public synchronized boolean putIfAbsent(String key, Entry entry) {
+        TokenContainer container = tokenCollection.findById(key);
+        if (container != null && !container.hasExpired()) {
+            return false;
+        }
+        // uses==0, a used nonce
+        tokenCollection.upsert(new TokenContainer(key, new Date(entry.getExpires()), 0, entry.getPayload()));
+        return true;
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        tokenCollection.upsert(new TokenContainer(key, new Date(entry.getExpires()), 1, entry.getPayload()));
+    }
+
+    @Override
+    public Entry get(String key) {
+        TokenContainer container = tokenCollection.findById(key);
+        if (container == null || container.hasExpired() || container.getUses() <= 0) {
+            return null;
+        }
+        return new Entry(container.getPayload(), container.getExpires().getTime());
+    }
+
+    /**
+     * Nonces are the containers with at most one use, opaque tokens sharing the
+     * collection are skipped
+     */
+    @Override
+    public void forEachUnexpired(BiConsumer<String, Entry> consumer) {
+        Query unexpired = tokenCollection.buildQuery().root().property("expires").greaterThan(new Date())
+                .and("uses").lessOrEqual(1).build();
+        DatastoreCursor<TokenContainer> containers = tokenCollection.find(unexpired);
+        if (containers != null) {
+            containers.forEach(container -> consumer.accept(container.getId(),
+                    new Entry(container.getPayload(), container.getExpires().getTime())));
+        }
+    }
+
+    /**
+     * Expired nonces are removed with the other expired containers of the token
+     * collection, see TokenizerService.removeAllExpired
+     */
+    @Override
+    public long removeAllExpired() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,270 @@
+package org.daisleyharrison.security.services.tokenizer.utilities;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.daisleyharrison.security.services.tokenizer.models.NonceStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps nonces in memory, spread over lock striped segments.
+ *
+ * Within a segment the keys are also filed by the period of time in which they
+ * expire. A purge takes the periods that have passed and removes only the
+ * keys filed in them, so its work grows with the number of expired nonces,
+ * not with the number of nonces kept. Purges run on a scheduler shared by all
+ * stores, once per period.
+ *
+ * A nonce is never purged before it expires, a key is only removed once the
+ * whole period it is filed in has passed.
+ *
+ * With a write behind store, every nonce added is also queued and written to
+ * that store in the background, so the store is never waited on. The store is
+ * loaded with the unexpired nonces of the write behind store when it is
+ * created, so used nonces survive a restart, except those still queued when
+ * the previous store stopped.
+ */
+public class MemoryNonceStore implements NonceStore {
+    private static Logger LOGGER = LoggerFactory.getLogger(MemoryNonceStore.class);
+
+    public static final int DEFAULT_SEGMENT_COUNT = 16;
+    public static final Duration DEFAULT_EXPIRY_PERIOD = Duration.ofSeconds(1);
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nonce-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Segment {
+        private final Map<String, Entry> entries = new HashMap<>();
+        // the keys by the period in which they expire
+        private final TreeMap<Long, List<String>> expiring = new TreeMap<>();
+    }
+
+    private static class PendingWrite {
+        private final String key;
+        private final Entry entry;
+        private final boolean ifAbsent;
+
+        private PendingWrite(String key, Entry entry, boolean ifAbsent) {
+            this.key = key;
+            this.entry = entry;
+            this.ifAbsent = ifAbsent;
+        }
+    }
+
+    private final Segment[] segments;
+    private final long periodMillis;
+    private final NonceStore writeBehindStore;
+    private final ConcurrentLinkedQueue<PendingWrite> pendingWrites;
+    private final ScheduledFuture<?> purgeTask;
+    private final ScheduledFuture<?> flushTask;
+
+    public MemoryNonceStore() {
+        this(DEFAULT_SEGMENT_COUNT, DEFAULT_EXPIRY_PERIOD, null, null);
+    }
+
+    /**
+     * @param segmentCount     the number of lock striped segments
+     * @param expiryPeriod     the granularity of expiry, and how often expired
+     *                         nonces are purged
+     * @param writeBehindStore the store nonces are also written to, or null
+     * @param flushPeriod      how often queued nonces are written to the write
+     *                         behind store
+     */
+    public MemoryNonceStore(int segmentCount, Duration expiryPeriod, NonceStore writeBehindStore,
+            Duration flushPeriod) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be at least 1");
+        }
+        this.periodMillis = expiryPeriod.toMillis();
+        if (this.periodMillis <= 0) {
+            throw new IllegalArgumentException("expiryPeriod must be positive");
+        }
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.purgeTask = SCHEDULER.scheduleAtFixedRate(this::removeAllExpired, periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+        this.writeBehindStore = writeBehindStore;
+        if (writeBehindStore == null) {
+            this.pendingWrites = null;
+            this.flushTask = null;
+        } else {
+            long flushMillis = flushPeriod.toMillis();
+            if (flushMillis <= 0) {
+                throw new IllegalArgumentException("flushPeriod must be positive");
+            }
+            load(writeBehindStore);
+            this.pendingWrites = new ConcurrentLinkedQueue<>();
+            this.flushTask = SCHEDULER.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7FFFFFFF) % segments.length];
+    }
+
+    private void file(Segment segment, String key, Entry entry) {
+        segment.entries.put(key, entry);
+        segment.expiring.computeIfAbsent(entry.getExpires() / periodMillis, period -> new ArrayList<>()).add(key);
+    }
+
+    /**
+     * Add the unexpired nonces of another store
+     */
+    private void load(NonceStore store) {
+        try {
+            store.forEachUnexpired((key, entry) -> {
+                Segment segment = segmentFor(key);
+                synchronized (segment) {
+                    file(segment, key, entry);
+                }
+            });
+        } catch (RuntimeException exception) {
+            LOGGER.warn("Unable to load nonces written behind: {}", exception.getMessage());
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Entry entry) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry existing = segment.entries.get(key);
+            if (existing != null && !existing.hasExpired()) {
+                return false;
+            }
+            file(segment, key, entry);
+        }
+        writeBehind(key, entry, true);
+        return true;
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            // a replaced entry stays filed under its old period, the purge skips it
+            file(segment, key, entry);
+        }
+        writeBehind(key, entry, false);
+    }
+
+    @Override
+    public Entry get(String key) {
+        Segment segment = segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.entries.get(key);
+        }
+        return entry == null || entry.hasExpired() ? null : entry;
+    }
+
+    @Override
+    public void forEachUnexpired(BiConsumer<String, Entry> consumer) {
+        for (Segment segment : segments) {
+            List<Map.Entry<String, Entry>> unexpired = new ArrayList<>();
+            synchronized (segment) {
+                for (Map.Entry<String, Entry> entry : segment.entries.entrySet()) {
+                    if (!entry.getValue().hasExpired()) {
+                        unexpired.add(Map.entry(entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
+            for (Map.Entry<String, Entry> entry : unexpired) {
+                consumer.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return int the number of nonces kept, including those expired but not
+     *         yet purged
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long removeAllExpired() {
+        long now = System.currentTimeMillis();
+        // periods before the current one have passed entirely
+        long currentPeriod = now / periodMillis;
+        long countRemoved = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                while (!segment.expiring.isEmpty() && segment.expiring.firstKey() < currentPeriod) {
+                    for (String key : segment.expiring.pollFirstEntry().getValue()) {
+                        Entry entry = segment.entries.get(key);
+                        if (entry != null && entry.getExpires() <= now) {
+                            segment.entries.remove(key);
+                            countRemoved++;
+                        }
+                    }
+                }
+            }
+        }
+        return countRemoved;
+    }
+
+    private void writeBehind(String key, Entry entry, boolean ifAbsent) {
+        if (pendingWrites != null) {
+            pendingWrites.add(new PendingWrite(key, entry, ifAbsent));
+        }
+    }
+
+    /**
+     * Write the queued nonces to the write behind store
+     */
+    public void flush() {
+        if (pendingWrites == null) {
+            return;
+        }
+        PendingWrite pendingWrite;
+        while ((pendingWrite = pendingWrites.poll()) != null) {
+            if (pendingWrite.entry.hasExpired()) {
+                continue;
+            }
+            try {
+                if (pendingWrite.ifAbsent) {
+                    writeBehindStore.putIfAbsent(pendingWrite.key, pendingWrite.entry);
+                } else {
+                    writeBehindStore.put(pendingWrite.key, pendingWrite.entry);
+                }
+            } catch (RuntimeException exception) {
+                LOGGER.warn("Unable to write nonce {} behind: {}", pendingWrite.key, exception.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        purgeTask.cancel(false);
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flush();
+        }
+    }
+}
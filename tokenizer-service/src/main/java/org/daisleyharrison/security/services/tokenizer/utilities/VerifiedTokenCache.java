@@ -0,0 +1,136 @@
+package org.daisleyharrison.security.services.tokenizer.utilities;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least recently used cache of the claims of web tokens that were already
+ * decrypted or verified, keyed by a hash of the token so the tokens themselves
+ * are not kept.
+ *
+ * An entry expires at the expiration time of its token. The cache is bounded
+ * both by its number of entries and by an estimate of the bytes they hold,
+ * based on the length of each token's plaintext claims.
+ *
+ * The claims are kept as their JSON text, which cannot be changed, so each
+ * caller parses its own copy and one caller's changes are never seen by the
+ * next.
+ */
+public class VerifiedTokenCache {
+    private static final String TOKEN_HASH_ALGORITHM = "SHA-256";
+    // hash key, entry and map node overhead, roughly
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private static class Entry {
+        private final String claims;
+        private final long expires;
+        private final long bytes;
+
+        private Entry(String claims, long expires, long bytes) {
+            this.claims = claims;
+            this.expires = expires;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int maximumEntries;
+    private final long maximumBytes;
+    private final LinkedHashMap<String, Entry> entries;
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    public VerifiedTokenCache(int maximumEntries, long maximumBytes) {
+        this.maximumEntries = maximumEntries;
+        this.maximumBytes = maximumBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @param token the token as presented
+     * @return String the key of the token in the cache
+     */
+    public static String toKey(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(TOKEN_HASH_ALGORITHM);
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(TOKEN_HASH_ALGORITHM + " is not available", exception);
+        }
+    }
+
+    /**
+     * @param key the key of the token, see {@link #toKey(String)}
+     * @return String the JSON claims of the token, or null if the token is not
+     *         cached or has expired
+     */
+    public synchronized String get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.claims;
+    }
+
+    /**
+     * @param key     the key of the token, see {@link #toKey(String)}
+     * @param claims  the verified JSON claims of the token
+     * @param expires when the token expires, in milliseconds since the epoch
+     */
+    public synchronized void put(String key, String claims, long expires) {
+        long entryBytes = 2L * claims.length() + ENTRY_OVERHEAD_BYTES;
+        if (entryBytes > maximumBytes || expires <= System.currentTimeMillis()) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(claims, expires, entryBytes));
+        bytes += entryBytes;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maximumEntries || bytes > maximumBytes) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return long the estimated bytes held by the cached claims
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+}
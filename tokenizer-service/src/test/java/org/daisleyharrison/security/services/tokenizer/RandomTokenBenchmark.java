@@ -0,0 +1,70 @@
+package org.daisleyharrison.security.services.tokenizer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.daisleyharrison.security.common.utilities.SecureRandomUtil;
+import org.daisleyharrison.security.services.tokenizer.models.RandomTokenGeneratorImpl;
+import org.daisleyharrison.security.services.tokenizer.models.TokenGenerator;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the tokens per second of the strong and pooled random sources with
+ * several threads producing tokens at once, not part of the unit suite, run
+ * with -Pbenchmark
+ */
+public class RandomTokenBenchmark {
+
+    @Test
+    public void randomTokenThroughput() throws Exception {
+        int threads = 8;
+        int tokensPerThread = 20000;
+        TokenGenerator strong = new RandomTokenGeneratorImpl("", 16, SecureRandomUtil.getStrongSecureRandom());
+        TokenGenerator pooled = new RandomTokenGeneratorImpl("", 16, SecureRandomUtil.getPooledSecureRandom());
+        // warm up
+        produceTokensConcurrently(strong, threads, tokensPerThread / 10, new HashSet<>());
+        produceTokensConcurrently(pooled, threads, tokensPerThread / 10, new HashSet<>());
+
+        Set<String> strongTokens = new HashSet<>();
+        long strongNanos = produceTokensConcurrently(strong, threads, tokensPerThread, strongTokens);
+        Set<String> pooledTokens = new HashSet<>();
+        long pooledNanos = produceTokensConcurrently(pooled, threads, tokensPerThread, pooledTokens);
+
+        int total = threads * tokensPerThread;
+        assertEquals(total, strongTokens.size());
+        assertEquals("pooled random source repeated a token", total, pooledTokens.size());
+        System.out.println(String.format("tokens per second with %d threads: strong %.0f, pool %.0f", threads,
+                total * 1e9 / strongNanos, total * 1e9 / pooledNanos));
+    }
+
+    private long produceTokensConcurrently(TokenGenerator generator, int threads, int tokensPerThread,
+            Set<String> tokens) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<String>>> produced = new ArrayList<>();
+            long started = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                produced.add(executor.submit(() -> {
+                    List<String> threadTokens = new ArrayList<>(tokensPerThread);
+                    for (int j = 0; j < tokensPerThread; j++) {
+                        threadTokens.add(generator.produceToken());
+                    }
+                    return threadTokens;
+                }));
+            }
+            for (Future<List<String>> threadTokens : produced) {
+                tokens.addAll(threadTokens.get());
+            }
+            return System.nanoTime() - started;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
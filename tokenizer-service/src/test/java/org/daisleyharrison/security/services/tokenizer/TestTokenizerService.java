@@ -8,16 +8,23 @@ import org.daisleyharrison.security.common.models.Stage;
 import org.daisleyharrison.security.common.models.cypher.StringCypher;
 import org.daisleyharrison.security.common.serviceProvider.LibraryServiceProvider;
 import org.daisleyharrison.security.common.models.authorization.AuthClaims;
+import org.daisleyharrison.security.common.models.authorization.TokenRequest;
 import org.daisleyharrison.security.common.spi.ConfigurationServiceProvider;
 import org.daisleyharrison.security.common.spi.DatastoreServiceProvider;
 import org.daisleyharrison.security.common.spi.KeyServiceProvider;
 import org.daisleyharrison.security.common.spi.TokenizerServiceProvider;
+import org.daisleyharrison.security.common.utilities.SecureRandomPool;
+import org.daisleyharrison.security.services.tokenizer.models.NonceStore;
+import org.daisleyharrison.security.services.tokenizer.utilities.MemoryNonceStore;
+import org.daisleyharrison.security.services.tokenizer.utilities.VerifiedTokenCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -26,6 +33,7 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.security.DrbgParameters;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Base64;
@@ -34,6 +42,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TestTokenizerService {
 
@@ -370,6 +381,146 @@ public class TestTokenizerService {
         testJsonWebToken("aes");
     }
 
+    /**
+     * test web tokens of one type produced and consumed from several threads
+     */
+    @Test
+    public void testJWTTypeAESConcurrent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<AuthClaims>> consumed = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                consumed.add(executor.submit(() -> {
+                    Map<String, Object> requiredClaims = new HashMap<>();
+                    requiredClaims.put("user_name", "FredF");
+                    String token = tokenizerService.produceWebToken("aes", requiredClaims);
+                    return tokenizerService.consumeWebToken("aes", token);
+                }));
+            }
+            for (Future<AuthClaims> claims : consumed) {
+                assertEquals("FredF", claims.get().getClaimValue("user_name"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testJWTTypeAESCached() throws Exception {
+        testJsonWebToken("aes-cached");
+        Map<String, Object> requiredClaims = new HashMap<>();
+        requiredClaims.put("user_name", "FredF");
+        String token = tokenizerService.produceWebToken("aes-cached", requiredClaims);
+        AuthClaims first = tokenizerService.consumeWebToken("aes-cached", token);
+        first.setClaim("user_name", "Changed");
+        // each caller gets its own copy of the cached claims
+        AuthClaims second = tokenizerService.consumeWebToken("aes-cached", token);
+        assertTrue(first != second);
+        assertEquals("FredF", second.getClaimValue("user_name"));
+    }
+
+    @Test
+    public void testProduceWebTokens() throws Exception {
+        List<TokenRequest> requests = new ArrayList<>();
+        String[] tokenTypes = { "aes", "chacha20", "plaintext", "chacha20" };
+        for (int i = 0; i < tokenTypes.length; i++) {
+            Map<String, Object> requiredClaims = new HashMap<>();
+            requiredClaims.put("user_name", "FredF" + i);
+            requests.add(new TokenRequest(tokenTypes[i], requiredClaims));
+        }
+        List<String> tokens = tokenizerService.produceWebTokens(requests);
+        assertEquals(tokenTypes.length, tokens.size());
+        for (int i = 0; i < tokenTypes.length; i++) {
+            AuthClaims claims = tokenizerService.consumeWebToken(tokenTypes[i], tokens.get(i));
+            assertEquals("FredF" + i, claims.getClaimValue("user_name"));
+        }
+    }
+
+    @Test
+    public void testVerifiedTokenCache() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(2, 4096);
+        long expires = System.currentTimeMillis() + 60000;
+        String claims = "{\"user_name\":\"FredF\"}";
+        cache.put(VerifiedTokenCache.toKey("token1"), claims, expires);
+        cache.put(VerifiedTokenCache.toKey("token2"), claims, expires);
+        assertEquals(claims, cache.get(VerifiedTokenCache.toKey("token1")));
+        // bounded by entries, the least recently used token is dropped
+        cache.put(VerifiedTokenCache.toKey("token3"), claims, expires);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(VerifiedTokenCache.toKey("token2")));
+        // bounded by bytes
+        cache.put(VerifiedTokenCache.toKey("token4"), "x".repeat(1900), expires);
+        assertEquals(1, cache.size());
+        assertTrue(cache.getBytes() <= 4096);
+        // expired tokens are not returned
+        cache.put(VerifiedTokenCache.toKey("token5"), claims, System.currentTimeMillis() + 50);
+        Thread.sleep(100);
+        assertNull(cache.get(VerifiedTokenCache.toKey("token5")));
+    }
+
+    @Test
+    public void testMemoryNonceStore() throws Exception {
+        MemoryNonceStore writeBehindStore = new MemoryNonceStore();
+        try (MemoryNonceStore nonceStore = new MemoryNonceStore(4, Duration.ofMillis(20), writeBehindStore,
+                Duration.ofMillis(20))) {
+            // only one of the threads using the same nonce succeeds
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<Boolean>> added = new ArrayList<>();
+                long expires = System.currentTimeMillis() + 60000;
+                for (int i = 0; i < 64; i++) {
+                    added.add(executor
+                            .submit(() -> nonceStore.putIfAbsent("replayed", new NonceStore.Entry("", expires))));
+                }
+                int successes = 0;
+                for (Future<Boolean> result : added) {
+                    successes += result.get() ? 1 : 0;
+                }
+                assertEquals(1, successes);
+            } finally {
+                executor.shutdown();
+            }
+
+            nonceStore.put("issued", new NonceStore.Entry("nonce1", System.currentTimeMillis() + 60000));
+            assertEquals("nonce1", nonceStore.get("issued").getPayload());
+            // an expired nonce is gone, and may be used again
+            nonceStore.put("short", new NonceStore.Entry("nonce2", System.currentTimeMillis() + 10));
+            Thread.sleep(100);
+            assertNull(nonceStore.get("short"));
+            assertEquals(2, nonceStore.size());
+            assertTrue(nonceStore.putIfAbsent("short", new NonceStore.Entry("", System.currentTimeMillis() + 60000)));
+            nonceStore.flush();
+            assertEquals("nonce1", writeBehindStore.get("issued").getPayload());
+            assertTrue(writeBehindStore.get("replayed") != null);
+        }
+        // a new store, as after a restart, still refuses the used nonce
+        try (MemoryNonceStore nonceStore = new MemoryNonceStore(4, Duration.ofMillis(20), writeBehindStore,
+                Duration.ofMillis(20))) {
+            assertFalse(nonceStore.putIfAbsent("replayed", new NonceStore.Entry("", System.currentTimeMillis() + 60000)));
+            assertEquals("nonce1", nonceStore.get("issued").getPayload());
+        } finally {
+            writeBehindStore.close();
+        }
+    }
+
+    @Test
+    public void testSecureRandomPool() throws Exception {
+        try (SecureRandomPool pool = new SecureRandomPool(3, Duration.ofMillis(50))) {
+            assertEquals(4, pool.getStripeCount());
+            byte[] first = new byte[32];
+            byte[] second = new byte[32];
+            pool.nextBytes(first);
+            Thread.sleep(120);
+            pool.nextBytes(second);
+            assertFalse(Arrays.equals(first, second));
+            // requests with parameters go to the stripe too
+            byte[] third = new byte[32];
+            pool.nextBytes(third, DrbgParameters.nextBytes(256, false, null));
+            assertFalse(Arrays.equals(second, third));
+            pool.reseed();
+        }
+    }
+
     @Test
     public void testJWTTypeOpaque() throws Exception {
         testJsonWebToken("opaque");
@@ -402,6 +553,17 @@ public class TestTokenizerService {
         tokenizerService.consumeNonce("server", nonce, Duration.ofDays(1));
     }
 
+    @Test(expected = NonceReplayException.class)
+    public void testReplayNonceAfterShortExpiry() throws Exception {
+        String id = "3000a8bc-acf0-4bed-95bc-50037d91e994";
+        String nonce = tokenizerService.produceNonce("server", id, Duration.ofSeconds(5));
+        // a used nonce is kept for the token lifetime, not just the expiry asked for
+        tokenizerService.consumeNonce("server", nonce, Duration.ofMillis(10));
+        Thread.sleep(50);
+        tokenizerService.removeAllExpired();
+        tokenizerService.consumeNonce("server", nonce, Duration.ofMillis(10));
+    }
+
     @Test
     public void testGenerateAndValidateNonceWithHash() throws Exception {
         String id = "3000a8bc-acf0-4bed-95bc-50037d91e994";
@@ -5,17 +5,23 @@ import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
-import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.security.cert.CertificateException;
@@ -48,14 +54,27 @@ import org.daisleyharrison.security.common.models.key.KeyProvider.KeyVersion;
 import org.daisleyharrison.security.common.models.cypher.StringCypher;
 import org.daisleyharrison.security.services.vault.models.NamespaceMetaData;
 import org.daisleyharrison.security.services.vault.models.Policy;
+import org.daisleyharrison.security.services.vault.models.PolicyDecisionTree;
 import org.daisleyharrison.security.services.vault.models.Principle;
 import org.daisleyharrison.security.services.vault.models.VaultMetaData;
 import org.daisleyharrison.security.services.key.internal.CachedKeyProviderImpl;
 import org.daisleyharrison.security.services.cypher.cypherProvider.CypherProviderImpl;
-import org.daisleyharrison.security.services.vault.utilities.Glob;
 import org.daisleyharrison.security.services.vault.utilities.KeyGeneratorProviderImpl;
 import org.daisleyharrison.security.services.key.internal.KeyStoreKeyProviderImpl;
 import org.daisleyharrison.security.services.vault.utilities.PathUtils;
+import org.daisleyharrison.security.services.vault.storage.FileSecretStore;
+import org.daisleyharrison.security.services.vault.storage.SecretStore;
+import org.daisleyharrison.security.services.vault.storage.SecretStoreMigration;
+import org.daisleyharrison.security.services.vault.storage.StorageType;
+import org.daisleyharrison.security.services.vault.utilities.LoadOnceMap;
+import org.daisleyharrison.security.services.vault.utilities.PolicyDecisionCache;
+import org.daisleyharrison.security.services.vault.utilities.RevocationLog;
+import org.daisleyharrison.security.services.vault.utilities.SecuredManifest;
+import org.daisleyharrison.security.services.vault.utilities.SecretCache;
+import org.daisleyharrison.security.services.vault.utilities.TokenUseCounters;
+import org.daisleyharrison.security.services.vault.utilities.VaultExecutor;
+import org.daisleyharrison.security.services.vault.utilities.ValidatedTokenCache;
+import org.daisleyharrison.security.services.vault.utilities.ValidatedTokenCache.ValidatedToken;
 import org.daisleyharrison.security.services.vault.utilities.Template;
 import org.jose4j.jwa.AlgorithmConstraints;
 import org.jose4j.jwa.AlgorithmConstraints.ConstraintType;
@@ -79,12 +98,19 @@ public final class VaultService implements VaultServiceProvider {
     private static final String POLICY_PATH = SYS_PATH + "policy/";
     private static final String PRINCIPLE_PATH = SYS_PATH + "principle/";
     private static final String VAULT_METADATA_FILENAME = "vault.json";
+    private static final String REVOCATION_LOG_FILENAME = "revoked.log";
+    private static final String TOKEN_USE_JOURNAL_FILENAME = "token-uses.log";
+    private static final String SECURED_MANIFEST_FILENAME = "secured.json";
     private static final String NAMESPACE_METADATA_FILENAME = "namespace.json";
+    // stands in for the null path of the master namespace
+    private static final Path MASTER_NAMESPACE_KEY = Path.of("");
     private static final String TOKEN_ISSUER = "vault-service";
     private static final String TOKEN_AUDIENCE = TOKEN_ISSUER;
     private static final String ROOT_PRINCIPLE_NAME = "root";
     private static final String ROOT_POLICY_NAME = "root";
     private static final String VAULT_KEY_PATH_PREFIX = ".vault/";
+    // how long close() waits for running operations before closing the stores
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
 
     public enum State {
         CREATED, INITIALIZING, INITIALIZED, COMPROMISED, CLOSED, ERROR
@@ -96,12 +122,19 @@ public final class VaultService implements VaultServiceProvider {
     private VaultMetaData vaultMetaData;
     private NamespaceMetaData masterNamespace;
     private Principle rootPrinciple;
-    private Map<Path, NamespaceMetaData> namespaceByPath = new HashMap<>();
-    private Map<String, Policy> policiesByName = new HashMap<>();
+    private LoadOnceMap<Path, NamespaceMetaData> namespaceByPath = new LoadOnceMap<>();
+    private LoadOnceMap<String, Policy> policiesByName = new LoadOnceMap<>();
     private KeyGeneratorProvider keyGeneratorProvider;
     private CypherProviderImpl cypherProvider;
     private KeyProvider keyProvider;
     private CachedKeyProvider cachedKeyProvider;
+    private SecretCache secretCache;
+    private ValidatedTokenCache validatedTokens;
+    private RevocationLog revocationLog;
+    private PolicyDecisionCache policyDecisions;
+    private VaultExecutor executor;
+    private SecretStore secretStore;
+    private TokenUseCounters tokenUses;
 
     @Override
     public boolean isInitialized() {
@@ -201,16 +234,57 @@ public final class VaultService implements VaultServiceProvider {
 
             this.cypherProvider.setKeyProvider(this.cachedKeyProvider);
 
+            StorageType storage = vaultMetaData.getStorage();
+            if (storage == null) {
+                // vaults created before segment storage keep one file per secret,
+                // the choice is saved so it is only made once
+                storage = new FileSecretStore(this.rootPath).exists(toPrincipleSecretPath(ROOT_PRINCIPLE_NAME))
+                        ? StorageType.FILES
+                        : StorageType.SEGMENTS;
+                SecretStoreMigration.setStorage(this.rootPath, storage);
+                vaultMetaData.setStorage(storage);
+            }
+            this.secretStore = storage.open(this.rootPath, vaultMetaData.getSegmentSize(),
+                    Duration.ofSeconds(vaultMetaData.getSegmentCompactionInterval()));
+
+            if (vaultMetaData.getSecretCacheTTL() > 0) {
+                this.secretCache = new SecretCache(Duration.ofSeconds(vaultMetaData.getSecretCacheTTL()),
+                        vaultMetaData.getSecretCacheMaxBytes());
+            }
+
+            this.policyDecisions = new PolicyDecisionCache(vaultMetaData.getPolicyCacheMaxEntries());
+
+            int executorThreads = vaultMetaData.getExecutorThreads();
+            if (executorThreads <= 0) {
+                executorThreads = Runtime.getRuntime().availableProcessors() * 2;
+            }
+            this.executor = new VaultExecutor("vault-service", executorThreads,
+                    vaultMetaData.getExecutorQueueCapacity());
+
+            if (vaultMetaData.getTokenCacheTTL() > 0) {
+                this.validatedTokens = new ValidatedTokenCache(Duration.ofSeconds(vaultMetaData.getTokenCacheTTL()),
+                        vaultMetaData.getTokenCacheMaxEntries());
+            }
+
             NamespaceMetaData tempMasterNamespace = new NamespaceMetaData();
             tempMasterNamespace.setCypher(vaultMetaData.getMasterCypher());
-            namespaceByPath.put(null, tempMasterNamespace);
+            namespaceByPath.put(MASTER_NAMESPACE_KEY, tempMasterNamespace);
 
             masterNamespace = readNamespace(null, true);
-            namespaceByPath.put(null, masterNamespace);
+            namespaceByPath.put(MASTER_NAMESPACE_KEY, masterNamespace);
+
+            this.revocationLog = RevocationLog.open(metaDataPath.resolve(REVOCATION_LOG_FILENAME),
+                    toStringCypher(masterNamespace));
 
             rootPrinciple = createTempRootPrinciple(30);
             rootPrinciple = readRootPrinciple();
 
+            migrateRevokedTokens();
+
+            this.tokenUses = TokenUseCounters.open(metaDataPath.resolve(TOKEN_USE_JOURNAL_FILENAME),
+                    toStringCypher(masterNamespace), Duration.ofMillis(vaultMetaData.getTokenUseFlushInterval()),
+                    this::revokeExhaustedToken);
+
             secureAll(rootPrinciple);
 
         } catch (Exception exception) {
@@ -221,9 +295,10 @@ public final class VaultService implements VaultServiceProvider {
 
     private NamespaceMetaData readNamespace(Path path, boolean allowUnsecureRead) throws CypherException, IOException {
         Path absolutePath = path == null ? this.rootPath : this.rootPath.resolve(path);
-        Path metaDataPath = absolutePath.resolve(NAMESPACE_METADATA_FILENAME + SECURE_FILE_EXTENSION);
-        if (Files.exists(metaDataPath)) {
-            String secureMetaData = Files.readString(metaDataPath);
+        String metaDataSecretPath = path == null ? NAMESPACE_METADATA_FILENAME
+                : path.resolve(NAMESPACE_METADATA_FILENAME).toString();
+        if (secretStore.exists(metaDataSecretPath)) {
+            String secureMetaData = secretStore.read(metaDataSecretPath);
             NamespaceMetaData namespace;
             if (path == null) {
                 namespace = getNamespace(path);
@@ -232,7 +307,7 @@ public final class VaultService implements VaultServiceProvider {
             }
             return objectMapper.readValue(decrypt(secureMetaData, namespace), NamespaceMetaData.class);
         } else if (allowUnsecureRead) {
-            metaDataPath = absolutePath.resolve(NAMESPACE_METADATA_FILENAME);
+            Path metaDataPath = absolutePath.resolve(NAMESPACE_METADATA_FILENAME);
             if (Files.exists(metaDataPath)) {
                 String unsecureMetaData = Files.readString(metaDataPath);
                 return objectMapper.readValue(unsecureMetaData, NamespaceMetaData.class);
@@ -241,27 +316,57 @@ public final class VaultService implements VaultServiceProvider {
         return null;
     }
 
+    private static Path toNamespaceKey(Path path) {
+        return path == null ? MASTER_NAMESPACE_KEY : path;
+    }
+
+    /**
+     * Get the namespace of a path, loading it once however many threads ask for
+     * it at the same time
+     *
+     * @param path the path relative to the vault root, null for the master
+     *             namespace
+     */
     private NamespaceMetaData getNamespace(Path path) throws CypherException, IOException {
-        NamespaceMetaData namespace = namespaceByPath.get(path);
-        if (namespace == null) {
-            namespace = readNamespace(path, false);
-            if (namespace != null) {
-                if (path != null) {
-                    namespace.setParent(getNamespace(path.getParent()));
-                }
-                namespaceByPath.put(path, namespace);
-            } else if (path == null) {
-                return null;
-            } else {
-                namespace = getNamespace(path.getParent());
-                namespaceByPath.put(path, namespace);
+        return namespaceByPath.<CypherException, IOException>get(toNamespaceKey(path), () -> loadNamespace(path));
+    }
+
+    private NamespaceMetaData loadNamespace(Path path) throws CypherException, IOException {
+        NamespaceMetaData namespace = readNamespace(path, false);
+        if (namespace != null) {
+            if (path != null) {
+                namespace.setParent(getNamespace(path.getParent()));
             }
+            return namespace;
+        } else if (path == null) {
+            return null;
+        } else {
+            return getNamespace(path.getParent());
         }
-        return namespace;
     }
 
-    private Path secretPathToFilePath(String secretPath) {
-        return this.rootPath.resolve(secretPath + SECURE_FILE_EXTENSION);
+    /**
+     * Forget the namespace at a path and every namespace below it, called when
+     * the namespace metadata at the path is written or deleted
+     *
+     * @param path the path of the namespace, null for the master namespace
+     */
+    private void invalidateNamespace(Path path) {
+        if (path == null) {
+            namespaceByPath.invalidateAll(key -> !MASTER_NAMESPACE_KEY.equals(key));
+            try {
+                // the master namespace is pinned, reload it in place
+                NamespaceMetaData namespace = readNamespace(null, false);
+                if (namespace != null) {
+                    masterNamespace = namespace;
+                    namespaceByPath.put(MASTER_NAMESPACE_KEY, namespace);
+                }
+            } catch (CypherException | IOException exception) {
+                LOGGER.error("Error reloading master namespace: {}", exception.getMessage());
+            }
+        } else {
+            namespaceByPath.invalidateAll(key -> key.startsWith(path));
+        }
     }
 
     private Path secretPathToNonSecretFilePath(String secretPath) {
@@ -272,25 +377,90 @@ public final class VaultService implements VaultServiceProvider {
         return toRelativePath(path).toString();
     }
 
-    private void secureAll(Principle principle) throws IOException {
+    private String toSecretCacheKey(String secretPath) {
+        return Path.of(secretPath).normalize().toString();
+    }
 
-        Glob allUnsecureFilePaths = new Glob(this.rootPath, "regex:.+(?<!\\" + SECURE_FILE_EXTENSION + ")$");
-        allUnsecureFilePaths.forEach(path -> {
-            try {
-                String secretPath = filePathToSecretPath(path);
-                if (secretPath.startsWith(META_PATH)) {
-                    LOGGER.info("Skipping securing file: {}", path);
-                } else {
-                    LOGGER.info("Securing file: {}", path);
-                    String unsecure = Files.readString(path);
-                    writeSecret(principle, secretPath, unsecure);
-                    Files.delete(path);
+    /**
+     * Called whenever a secret is written or deleted
+     *
+     * @param secretPath the path of the secret
+     * @param newSecret  true if the secret was just created, so no token can
+     *                   have been validated against it
+     */
+    private void invalidateCaches(String secretPath, boolean newSecret) {
+        if (secretCache != null) {
+            secretCache.invalidate(toSecretCacheKey(secretPath));
+        }
+        if (secretPath.endsWith(NAMESPACE_METADATA_FILENAME)) {
+            invalidateNamespace(Path.of(secretPath).getParent());
+        }
+        if (secretPath.startsWith(POLICY_PATH)) {
+            policiesByName.invalidate(secretPath.substring(POLICY_PATH.length()));
+            if (policyDecisions != null) {
+                policyDecisions.clear();
+            }
+        }
+        if (validatedTokens != null) {
+            if (secretPath.startsWith(PRINCIPLE_PATH) || secretPath.startsWith(POLICY_PATH)) {
+                validatedTokens.clear();
+            } else if (secretPath.startsWith(TOKEN_PATH) && !newSecret) {
+                validatedTokens.invalidate(secretPath.substring(TOKEN_PATH.length()));
+            }
+        }
+    }
+
+    /**
+     * Secure the unsecured files dropped into the vault. Directories recorded
+     * in the secured manifest as unchanged since they were last secured are
+     * skipped, and the files found are secured in parallel on the vault
+     * executor.
+     */
+    private void secureAll(Principle principle) throws IOException {
+        Path metaDataPath = this.rootPath.resolve(META_PATH);
+        SecuredManifest manifest = SecuredManifest.open(metaDataPath.resolve(SECURED_MANIFEST_FILENAME));
+        Set<Path> attempted = new HashSet<>();
+        while (true) {
+            List<Path> unsecuredFiles = manifest.scan(this.rootPath,
+                    path -> path.getFileName().toString().endsWith(SECURE_FILE_EXTENSION),
+                    path -> path.startsWith(metaDataPath));
+            // files that failed to secure are left in place, stop once only they remain
+            unsecuredFiles.removeIf(path -> !attempted.add(path));
+            if (unsecuredFiles.isEmpty()) {
+                break;
+            }
+            // a namespace decides how the files below it are encrypted, so
+            // namespaces are secured first, in order, parents before children
+            List<Path> namespaceFiles = new ArrayList<>();
+            for (Path path : unsecuredFiles) {
+                if (path.getFileName().toString().equals(NAMESPACE_METADATA_FILENAME)) {
+                    namespaceFiles.add(path);
                 }
-            } catch (IOException | CypherException exception) {
-                LOGGER.error("Failed to secure secret {}: {}", PathUtils.removeExtension(path.toString()),
-                        exception.getMessage());
             }
-        });
+            namespaceFiles.sort(Comparator.comparingInt(Path::getNameCount).thenComparing(Comparator.naturalOrder()));
+            for (Path path : namespaceFiles) {
+                secureFile(principle, path);
+            }
+            unsecuredFiles.removeAll(namespaceFiles);
+            List<CompletableFuture<Void>> securing = new ArrayList<>(unsecuredFiles.size());
+            for (Path path : unsecuredFiles) {
+                securing.add(runAsync(() -> secureFile(principle, path)));
+            }
+            CompletableFuture.allOf(securing.toArray(new CompletableFuture<?>[securing.size()])).join();
+        }
+        manifest.save();
+    }
+
+    private void secureFile(Principle principle, Path path) {
+        try {
+            LOGGER.info("Securing file: {}", path);
+            String unsecure = Files.readString(path);
+            writeSecret(principle, filePathToSecretPath(path), unsecure);
+            Files.delete(path);
+        } catch (IOException | CypherException | AccessDeniedVaultException exception) {
+            LOGGER.error("Failed to secure secret {}: {}", PathUtils.removeExtension(path.toString()),
+                    exception.getMessage());
+        }
     }
 
     private void createKey(KeyStore keyStore, CypherMetaData cypherMetaData, char[] keyStorePassword)
@@ -341,37 +511,42 @@ public final class VaultService implements VaultServiceProvider {
         }
     }
 
-    public String encrypt(String secureText, NamespaceMetaData namespaceMetaData) throws CypherException {
+    private StringCypher toStringCypher(NamespaceMetaData namespaceMetaData) throws CypherException {
         CypherMetaData cypherMetaData = namespaceMetaData.getCypher();
         if (cypherMetaData != null) {
-            StringCypher cypher = cypherProvider.getStringCypher(cypherMetaData.toCypherSpec(),
-                    cypherMetaData.toKeySpec());
-            return cypher.encrypt(secureText);
+            return cypherProvider.getStringCypher(cypherMetaData.toCypherSpec(), cypherMetaData.toKeySpec());
         }
         throw new IllegalArgumentException("namespaceMetaData does not have a cypher defined.");
     }
 
+    public String encrypt(String secureText, NamespaceMetaData namespaceMetaData) throws CypherException {
+        return toStringCypher(namespaceMetaData).encrypt(secureText);
+    }
+
     private String decrypt(String secureText, NamespaceMetaData namespaceMetaData) throws CypherException {
-        CypherMetaData cypherMetaData = namespaceMetaData.getCypher();
-        if (cypherMetaData != null) {
-            StringCypher cypher = cypherProvider.getStringCypher(cypherMetaData.toCypherSpec(),
-                    cypherMetaData.toKeySpec());
-            return cypher.decrypt(secureText);
-        }
-        throw new IllegalArgumentException("namespaceMetaData does not have a cypher defined.");
+        return toStringCypher(namespaceMetaData).decrypt(secureText);
     }
 
     private String readSecret(Principle principle, String path) throws AccessDeniedVaultException {
         if (principle.hasCapability(Capability.READ)) {
-            Path filePath = secretPathToFilePath(path);
             Path namespacePath = Path.of(path).getParent();
             if (path.endsWith(NAMESPACE_METADATA_FILENAME)) {
                 namespacePath = namespacePath.getParent();
             }
             try {
-                String secureSecret = Files.readString(filePath);
-
-                return decrypt(secureSecret, getNamespace(namespacePath));
+                if (secretCache == null) {
+                    String secureSecret = secretStore.read(path);
+                    return decrypt(secureSecret, getNamespace(namespacePath));
+                }
+                String cacheKey = toSecretCacheKey(path);
+                String unsecureSecret = secretCache.get(cacheKey);
+                if (unsecureSecret == null) {
+                    long cacheVersion = secretCache.getVersion();
+                    String secureSecret = secretStore.read(path);
+                    unsecureSecret = decrypt(secureSecret, getNamespace(namespacePath));
+                    secretCache.put(cacheKey, unsecureSecret, cacheVersion);
+                }
+                return unsecureSecret;
             } catch (CypherException | IOException exception) {
                 LOGGER.error("Error reading secret " + path, exception);
                 throw new AccessDeniedVaultException();
@@ -399,54 +574,74 @@ public final class VaultService implements VaultServiceProvider {
 
     }
 
-    private static final OpenOption[] UPDATE_OPTIONS = new OpenOption[] { StandardOpenOption.WRITE,
-            StandardOpenOption.TRUNCATE_EXISTING };
-    private static final OpenOption[] CREATE_OPTIONS = new OpenOption[] { StandardOpenOption.CREATE,
-            StandardOpenOption.TRUNCATE_EXISTING };
-
-    private void writeSecretString(Principle principle, String path, String unsecureSecret)
+    private void writeSecretString(Principle principle, String path, String unsecureSecret, boolean newSecret)
             throws CypherException, IOException, AccessDeniedVaultException {
-        Path filePath = secretPathToFilePath(path);
         Path namespacePath = Path.of(path).getParent();
         if (path.endsWith(NAMESPACE_METADATA_FILENAME)) {
             namespacePath = namespacePath == null ? null : namespacePath.getParent();
         }
         String secureSecret = encrypt(unsecureSecret, getNamespace(namespacePath));
-        Path dirPath = filePath.getParent();
-        if (!Files.exists(dirPath)) {
-            if (principle.hasCapability(Capability.MANAGE)) {
-                Files.createDirectories(dirPath);
-            }
-        }
-        OpenOption[] openOptions = null;
+        boolean create;
         if (principle.hasCapability(Capability.MANAGE)) {
-            openOptions = CREATE_OPTIONS;
+            create = true;
         } else if (principle.hasCapability(Capability.CREATE)) {
-            openOptions = CREATE_OPTIONS;
+            create = true;
         } else if (principle.hasCapability(Capability.UPDATE)) {
-            openOptions = UPDATE_OPTIONS;
+            create = false;
         } else {
             throw new AccessDeniedVaultException();
         }
+        boolean manage = principle.hasCapability(Capability.MANAGE);
+        if (create && !manage && !secretStore.exists(path) && !directoryExists(path)) {
+            // only managers start new directories, whichever store is used
+            throw new AccessDeniedVaultException();
+        }
+
+        try {
+            secretStore.write(path, secureSecret, create, manage);
+        } finally {
+            invalidateCaches(path, newSecret);
+        }
+    }
 
-        Files.writeString(filePath, secureSecret, openOptions);
+    /**
+     * A directory exists once it holds a secret, so every store agrees on it
+     *
+     * @param secretPath the path of a secret in the directory
+     * @return boolean true if the directory of secretPath holds a secret
+     */
+    private boolean directoryExists(String secretPath) throws IOException {
+        String path = secretPath.replace('\\', '/');
+        int directoryEnd = path.lastIndexOf('/');
+        if (directoryEnd < 0) {
+            return true;
+        }
+        return !secretStore.list(path.substring(0, directoryEnd + 1), null, 1).isEmpty();
     }
 
     private void writeSecret(Principle principle, String path, Object unsecureSecret)
             throws CypherException, IOException, AccessDeniedVaultException {
+        writeSecret(principle, path, unsecureSecret, false);
+    }
+
+    private void writeSecret(Principle principle, String path, Object unsecureSecret, boolean newSecret)
+            throws CypherException, IOException, AccessDeniedVaultException {
         if (unsecureSecret instanceof String) {
-            writeSecretString(principle, path, (String) unsecureSecret);
+            writeSecretString(principle, path, (String) unsecureSecret, newSecret);
         } else {
-            writeSecretString(principle, path, objectMapper.writeValueAsString(unsecureSecret));
+            writeSecretString(principle, path, objectMapper.writeValueAsString(unsecureSecret), newSecret);
         }
     }
 
     private void deleteSecret(Principle principle, String path) throws AccessDeniedVaultException {
         if (principle.hasCapability(Capability.DELETE)) {
-            Path filePath = secretPathToFilePath(path);
             try {
-                if (Files.exists(filePath)) {
-                    Files.delete(filePath);
+                if (secretStore.exists(path)) {
+                    try {
+                        secretStore.delete(path);
+                    } finally {
+                        invalidateCaches(path, false);
+                    }
                 } else {
                     throw new AccessDeniedVaultException();
                 }
@@ -466,10 +661,6 @@ public final class VaultService implements VaultServiceProvider {
         return POLICY_PATH + policy;
     }
 
-    private String toRevokedTokenSecretPath(String token) {
-        return REVOKED_TOKEN_PATH + token;
-    }
-
     private String createJWT(TokenClaims claims, CypherMetaData signatureCypher)
             throws JoseException, IOException, GeneralSecurityException, KeyProviderException {
 
@@ -516,7 +707,8 @@ public final class VaultService implements VaultServiceProvider {
         String token = claims.toOpaqueToken();
         if (opaque) {
             String tokenSecretPath = toTokenSecretPath(token);
-            writeSecret(this.rootPrinciple, tokenSecretPath, claims.toJson());
+            // a new token id, there is nothing cached to invalidate
+            writeSecret(this.rootPrinciple, tokenSecretPath, claims.toJson(), true);
             return token;
         } else {
             if (vaultMetaData.getTokenSignatureCypher() == null) {
@@ -528,8 +720,23 @@ public final class VaultService implements VaultServiceProvider {
     }
 
     private boolean isRevokedToken(String token) {
-        Path revokedTokenPath = secretPathToFilePath(toRevokedTokenSecretPath(token));
-        return Files.exists(revokedTokenPath);
+        return revocationLog.isRevoked(token);
+    }
+
+    /**
+     * Move tokens revoked as one secret per token under sys/token/.revoked into
+     * the revocation log
+     */
+    private void migrateRevokedTokens() throws IOException {
+        for (String secretPath : secretStore.list(REVOKED_TOKEN_PATH)) {
+            try {
+                TokenClaims claims = readSecret(this.rootPrinciple, secretPath, TokenClaims.class);
+                revocationLog.revoke(claims.toOpaqueToken(), claims.getExpirationTime().getValueInMillis());
+                secretStore.delete(secretPath);
+            } catch (VaultException | CypherException | MalformedClaimException exception) {
+                LOGGER.error("Failed to migrate revoked token {}: {}", secretPath, exception.getMessage());
+            }
+        }
     }
 
     private TokenClaims readToken(String token) throws VaultException {
@@ -546,12 +753,7 @@ public final class VaultService implements VaultServiceProvider {
     }
 
     private Policy getPolicy(String policyName) throws VaultException {
-        Policy policy = policiesByName.get(policyName);
-        if (policy == null) {
-            policy = readPolicy(policyName);
-            policiesByName.put(policyName, policy);
-        }
-        return policy;
+        return policiesByName.get(policyName, () -> readPolicy(policyName));
     }
 
     private String toPrincipleSecretPath(String principleId) {
@@ -567,23 +769,31 @@ public final class VaultService implements VaultServiceProvider {
         }
         String lastPolicyName = null;
         try {
-            Policy combined = null;
-            for (String policyName : claims.getPolicies()) {
-                lastPolicyName = policyName;
-                Policy policy = getPolicy(policyName);
-                if (policy == null) {
-                    LOGGER.info("Missing policy '{}' for principle '{}'", policyName, claims.getSubject());
-                    return Policy.DENY_ALL;
-                }
-                if (policy.applysToPath(path)) {
-                    if (combined == null) {
-                        combined = policy;
-                    } else {
-                        combined = combined.combine(policy);
+            List<String> policyNames = claims.getPolicies();
+            String pathString = PolicyDecisionTree.toPolicyPath(path);
+            Policy decision = policyDecisions.get(policyNames, pathString);
+            if (decision != null) {
+                return decision;
+            }
+            long cacheVersion = policyDecisions.getVersion();
+            PolicyDecisionTree decisionTree = policyDecisions.getDecisionTree(policyNames);
+            if (decisionTree == null) {
+                List<Policy> policies = new ArrayList<>(policyNames.size());
+                for (String policyName : policyNames) {
+                    lastPolicyName = policyName;
+                    Policy policy = getPolicy(policyName);
+                    if (policy == null) {
+                        LOGGER.info("Missing policy '{}' for principle '{}'", policyName, claims.getSubject());
+                        return Policy.DENY_ALL;
                     }
+                    policies.add(policy);
                 }
+                decisionTree = new PolicyDecisionTree(policies);
+                policyDecisions.putDecisionTree(policyNames, decisionTree, cacheVersion);
             }
-            return combined == null ? Policy.DENY_ALL : combined;
+            decision = decisionTree.decide(path);
+            policyDecisions.put(policyNames, pathString, decision, cacheVersion);
+            return decision;
         } catch (MalformedClaimException | VaultException exception) {
             try {
                 if (lastPolicyName == null) {
@@ -618,11 +828,10 @@ public final class VaultService implements VaultServiceProvider {
     private Principle readRootPrinciple() throws IOException, GeneralSecurityException, VaultException {
         assertInitializing();
         PrincipleClaims root = null;
-        Path principleFilePath = secretPathToFilePath(toPrincipleSecretPath(ROOT_PRINCIPLE_NAME));
-        if (Files.exists(principleFilePath)) {
+        if (secretStore.exists(toPrincipleSecretPath(ROOT_PRINCIPLE_NAME))) {
             root = readPrinciple(this.rootPrinciple, ROOT_PRINCIPLE_NAME);
         } else {
-            principleFilePath = secretPathToNonSecretFilePath(toPrincipleSecretPath(ROOT_PRINCIPLE_NAME));
+            Path principleFilePath = secretPathToNonSecretFilePath(toPrincipleSecretPath(ROOT_PRINCIPLE_NAME));
             if (Files.exists(principleFilePath)) {
                 String content = Files.readString(principleFilePath);
                 try {
@@ -650,9 +859,35 @@ public final class VaultService implements VaultServiceProvider {
 
     private void revokeToken(Principle principle, TokenClaims claims, boolean ensureDeletion) throws IOException,
             GeneralSecurityException, MalformedClaimException, AccessDeniedVaultException, CypherException {
-        String token = claims.toOpaqueToken();
-        String revokedTokenSecretPath = toRevokedTokenSecretPath(token);
-        writeSecret(principle, revokedTokenSecretPath, claims.toJson());
+        if (!principle.hasCapability(Capability.MANAGE) && !principle.hasCapability(Capability.CREATE)
+                && !principle.hasCapability(Capability.UPDATE)) {
+            throw new AccessDeniedVaultException();
+        }
+        revokeToken(principle, claims.toOpaqueToken(), claims.getExpirationTime().getValueInMillis(),
+                ensureDeletion);
+    }
+
+    /**
+     * Revoke a token whose last use was taken, called by the token use counters
+     * once the exhausted count is in the journal
+     */
+    private void revokeExhaustedToken(String token, long expiry) {
+        try {
+            revokeToken(this.rootPrinciple, token, expiry, false);
+        } catch (IOException | CypherException | AccessDeniedVaultException exception) {
+            LOGGER.error("Failed to revoke exhausted token: {}", exception.getMessage());
+        }
+    }
+
+    private void revokeToken(Principle principle, String token, long expiry, boolean ensureDeletion)
+            throws IOException, AccessDeniedVaultException, CypherException {
+        try {
+            revocationLog.revoke(token, expiry);
+        } finally {
+            if (validatedTokens != null) {
+                validatedTokens.invalidate(token);
+            }
+        }
         String tokenSecretPath = toTokenSecretPath(token);
         try {
             deleteSecret(principle, tokenSecretPath);
@@ -699,21 +934,11 @@ public final class VaultService implements VaultServiceProvider {
                 throw new InvalidTokenVaultException("revoked");
             } else {
                 if (tokenClaims.hasUses()) {
-                    int uses = tokenClaims.getUses();
-                    if (uses == 1) {
-                        revokeToken(this.rootPrinciple, tokenClaims, false);
-                    } else {
-                        TokenClaims savedClaims = readToken(tokenClaims.toOpaqueToken());
-                        if (savedClaims == null) {
-                            savedClaims = tokenClaims;
-                        }
-                        savedClaims.setUses(savedClaims.getUses() - 1);
-                        writeToken(this.rootPrinciple, savedClaims);
-                    }
+                    useToken(tokenClaims);
                 }
                 return tokenClaims;
             }
-        } catch (VaultException | MalformedClaimException | CypherException | InvalidJwtException exception) {
+        } catch (VaultException | MalformedClaimException | InvalidJwtException exception) {
             throw new InvalidTokenVaultException(exception.getMessage(), exception);
         }
     }
@@ -730,14 +955,7 @@ public final class VaultService implements VaultServiceProvider {
             }
 
             if (claims.hasUses()) {
-                int uses = claims.getUses();
-                if (uses == 1) {
-                    claims.setUses(0);
-                    revokeToken(this.rootPrinciple, claims, true);
-                } else {
-                    claims.setUses(uses - 1);
-                    writeToken(this.rootPrinciple, claims);
-                }
+                useToken(claims);
             }
 
             return claims;
@@ -747,7 +965,19 @@ public final class VaultService implements VaultServiceProvider {
         }
     }
 
-    private PrincipleClaims validateToken(String token, Path path) throws VaultException {
+    /**
+     * Take one use of a use limited token. The count is held in memory and
+     * written behind to the token use journal; the token is revoked once its
+     * last use has been journaled.
+     */
+    private void useToken(TokenClaims claims) throws InvalidTokenVaultException, MalformedClaimException {
+        String token = claims.toOpaqueToken();
+        if (tokenUses.use(token, claims.getUses(), claims.getExpirationTime().getValueInMillis()) < 0) {
+            throw new InvalidTokenVaultException();
+        }
+    }
+
+    private ValidatedToken validateToken(String token) throws VaultException {
         try {
             TokenClaims claims;
             if (TokenClaims.isOpaqueToken(token)) {
@@ -758,7 +988,16 @@ public final class VaultService implements VaultServiceProvider {
             if (claims == null) {
                 throw new InvalidTokenVaultException();
             }
+            PrincipleClaims principleClaims = readPrinciple(this.rootPrinciple, claims.getSubject());
+            return new ValidatedToken(claims.toOpaqueToken(), claims, principleClaims);
 
+        } catch (IOException | GeneralSecurityException | MalformedClaimException | KeyProviderException exception) {
+            throw new InvalidTokenVaultException();
+        }
+    }
+
+    private void assertInScope(TokenClaims claims, Path path) throws VaultException {
+        try {
             // if the path is supplied and the token claims have scope defined
             // check to see if the path is in scope
             if (path != null) {
@@ -775,24 +1014,68 @@ public final class VaultService implements VaultServiceProvider {
                     }
                 }
             }
-
-            return readPrinciple(this.rootPrinciple, claims.getSubject());
-
-        } catch (IOException | GeneralSecurityException | MalformedClaimException | KeyProviderException exception) {
+        } catch (MalformedClaimException exception) {
             throw new InvalidTokenVaultException();
         }
     }
 
+    /**
+     * Validate a token for an operation on a path
+     */
     private Principle validateTokenFor(String token, Path path) throws VaultException {
-        PrincipleClaims claims = validateToken(token, path);
+        return principleFor(validateCachedToken(token), path);
+    }
+
+    /**
+     * Validate a token, taking one use of a use limited token. Validated tokens
+     * are remembered in the validated token cache, so repeated operations with
+     * the same token skip validation and reuse the policy computed per path.
+     */
+    private ValidatedToken validateCachedToken(String token) throws VaultException {
+        ValidatedToken validatedToken = validatedTokens == null ? null : validatedTokens.get(token);
+        if (validatedToken == null) {
+            long cacheVersion = validatedTokens == null ? 0 : validatedTokens.getVersion();
+            validatedToken = validateToken(token);
+            TokenClaims tokenClaims = validatedToken.getTokenClaims();
+            if (validatedTokens != null) {
+                try {
+                    validatedTokens.put(token, validatedToken, tokenClaims.getExpirationTime().getValueInMillis(),
+                            cacheVersion);
+                } catch (MalformedClaimException exception) {
+                    throw new InvalidTokenVaultException();
+                }
+            }
+        } else if (validatedToken.getTokenClaims().hasUses()) {
+            try {
+                useToken(validatedToken.getTokenClaims());
+            } catch (MalformedClaimException exception) {
+                throw new InvalidTokenVaultException();
+            }
+        }
+        return validatedToken;
+    }
+
+    /**
+     * @return Principle the principle of a validated token with the policy that
+     *         applies to a path
+     */
+    private Principle principleFor(ValidatedToken validatedToken, Path path) throws VaultException {
+        Principle principle = validatedToken.getPrinciple(path);
+        if (principle != null) {
+            return principle;
+        }
+        assertInScope(validatedToken.getTokenClaims(), path);
+        PrincipleClaims claims = validatedToken.getPrincipleClaims();
         Policy policy = computePolicyForPath(claims, path);
-        return new PrincipleClaimsForPath(claims, path, policy);
+        principle = new PrincipleClaimsForPath(claims, path, policy);
+        validatedToken.putPrinciple(path, principle);
+        return principle;
     }
 
     @Override
     public CompletableFuture<String> readFromVault(String token, String path) {
         assertReady();
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyAsync(() -> {
             try {
                 Principle principle = validateTokenFor(token, Path.of(path));
                 return readSecret(principle, path);
@@ -806,7 +1089,7 @@ public final class VaultService implements VaultServiceProvider {
     @Override
     public CompletableFuture<Void> removeFromVault(String token, String path) {
         assertReady();
-        return CompletableFuture.runAsync(() -> {
+        return runAsync(() -> {
             try {
                 Principle principle = validateTokenFor(token, Path.of(path));
                 deleteSecret(principle, path);
@@ -820,7 +1103,7 @@ public final class VaultService implements VaultServiceProvider {
     @Override
     public CompletableFuture<Void> writeToVault(String token, String path, String unsecureSecret) {
         assertReady();
-        return CompletableFuture.runAsync(() -> {
+        return runAsync(() -> {
             try {
                 Principle principle = validateTokenFor(token, Path.of(path));
                 writeSecret(principle, path, unsecureSecret);
@@ -831,9 +1114,121 @@ public final class VaultService implements VaultServiceProvider {
         });
     }
 
+    /**
+     * Validate a token once for a batch of operations
+     */
+    private CompletableFuture<ValidatedToken> validateTokenForBatch(String token) {
+        return supplyAsync(() -> {
+            try {
+                return validateCachedToken(token);
+            } catch (VaultException exception) {
+                LOGGER.error("Error validating token for batch: {}", exception.getMessage());
+                throw new CompletionException(exception);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, String>> readManyFromVault(String token, List<String> paths) {
+        assertReady();
+        return validateTokenForBatch(token).thenCompose(validatedToken -> {
+            List<CompletableFuture<String>> reads = new ArrayList<>(paths.size());
+            for (String path : paths) {
+                reads.add(supplyAsync(() -> {
+                    try {
+                        Principle principle = principleFor(validatedToken, Path.of(path));
+                        return readSecret(principle, path);
+                    } catch (VaultException exception) {
+                        LOGGER.error("Error reading secret {}: {}", path, exception.getMessage());
+                        throw new CompletionException(exception);
+                    }
+                }));
+            }
+            return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[reads.size()])).thenApply(done -> {
+                Map<String, String> secrets = new LinkedHashMap<>();
+                for (int index = 0; index < paths.size(); index++) {
+                    secrets.put(paths.get(index), reads.get(index).join());
+                }
+                return secrets;
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> writeManyToVault(String token, Map<String, String> secrets) {
+        assertReady();
+        return validateTokenForBatch(token).thenCompose(validatedToken -> {
+            List<CompletableFuture<Void>> writes = new ArrayList<>(secrets.size());
+            secrets.forEach((path, unsecureSecret) -> writes.add(runAsync(() -> {
+                try {
+                    Principle principle = principleFor(validatedToken, Path.of(path));
+                    writeSecret(principle, path, unsecureSecret);
+                } catch (VaultException | CypherException | IOException exception) {
+                    LOGGER.error("Error writing secret {}: {}", path, exception.getMessage());
+                    throw new CompletionException(exception);
+                }
+            })));
+            return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()]));
+        });
+    }
+
+    /**
+     * List the secrets under a prefix a page at a time. The token needs the list
+     * capability on the prefix, and only the secrets it may also list are
+     * returned.
+     *
+     * @param token      the vault token
+     * @param prefix     the path prefix, e.g. secret/app/
+     * @param startAfter the last path of the previous page, or null for the
+     *                   first page
+     * @param limit      the maximum number of paths in the page
+     * @return CompletableFuture<List<String>> the paths, in order
+     */
+    @Override
+    public CompletableFuture<List<String>> listVault(String token, String prefix, String startAfter, int limit) {
+        assertReady();
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return validateTokenForBatch(token).thenCompose(validatedToken -> supplyAsync(() -> {
+            try {
+                if (!principleFor(validatedToken, Path.of(prefix)).hasCapability(Capability.LIST)) {
+                    throw new AccessDeniedVaultException();
+                }
+                List<String> page = new ArrayList<>(Math.min(limit, 64));
+                String after = startAfter;
+                while (page.size() < limit) {
+                    List<String> paths = secretStore.list(prefix, after, limit - page.size());
+                    if (paths.isEmpty()) {
+                        break;
+                    }
+                    for (String path : paths) {
+                        if (canList(validatedToken, path)) {
+                            page.add(path);
+                        }
+                    }
+                    after = paths.get(paths.size() - 1);
+                }
+                return page;
+            } catch (VaultException | IOException exception) {
+                LOGGER.error("Error listing secrets {}: {}", prefix, exception.getMessage());
+                throw new CompletionException(exception);
+            }
+        }));
+    }
+
+    private boolean canList(ValidatedToken validatedToken, String path) throws VaultException {
+        try {
+            return principleFor(validatedToken, Path.of(path)).hasCapability(Capability.LIST);
+        } catch (AccessDeniedVaultException | InvalidTokenVaultException exception) {
+            // out of the scope of the token
+            return false;
+        }
+    }
+
     @Override
     public CompletableFuture<Void> revokeVaultToken(String token, String tokenToRevoke) {
-        return CompletableFuture.runAsync(() -> {
+        return runAsync(() -> {
             try {
                 Principle principle = validateTokenFor(token, Path.of(TOKEN_PATH));
                 boolean isOpaqueToken = TokenClaims.isOpaqueToken(tokenToRevoke);
@@ -861,7 +1256,7 @@ public final class VaultService implements VaultServiceProvider {
 
     @Override
     public CompletableFuture<String> renewVaultToken(String token, String tokenToRenew) {
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyAsync(() -> {
             try {
                 Principle principle = validateTokenFor(token, Path.of(TOKEN_PATH));
                 TokenClaims claimsToRenew = readToken(tokenToRenew);
@@ -888,7 +1283,7 @@ public final class VaultService implements VaultServiceProvider {
     @Override
     public CompletableFuture<String> createVaultToken(String token, String scope, int uses, int ttl, boolean opaque,
             boolean renewable) {
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyAsync(() -> {
             Principle principle = null;
             try {
                 Path path = Path.of(scope);
@@ -910,7 +1305,7 @@ public final class VaultService implements VaultServiceProvider {
 
     @Override
     public CompletableFuture<String> authenticate(String principleId, char[] password) {
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyAsync(() -> {
             try {
                 PrincipleClaims principle = readPrinciple(this.rootPrinciple, principleId);
                 if (principle == null) {
@@ -932,9 +1327,89 @@ public final class VaultService implements VaultServiceProvider {
         });
     }
 
+    /**
+     * @return VaultExecutor the executor vault operations run on, for its
+     *         metrics
+     */
+    public VaultExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Run an operation on the vault executor. When the vault is not configured
+     * or its executor has been closed the returned future fails with a
+     * RejectedExecutionException, the rejection is never thrown to the caller.
+     */
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> operation) {
+        VaultExecutor vaultExecutor = this.executor;
+        if (vaultExecutor == null) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "vault-service is in state " + state.toString() + " and is not configured"));
+        }
+        try {
+            return CompletableFuture.supplyAsync(operation, vaultExecutor);
+        } catch (RejectedExecutionException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    private CompletableFuture<Void> runAsync(Runnable operation) {
+        return supplyAsync(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
     @Override
     public void close() {
         this.state = State.CLOSED;
+        if (this.executor != null) {
+            this.executor.close();
+            try {
+                if (!this.executor.awaitTermination(CLOSE_TIMEOUT)) {
+                    LOGGER.warn("vault-service operations still running after {}", CLOSE_TIMEOUT);
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            this.executor = null;
+        }
+        if (this.secretCache != null) {
+            this.secretCache.clear();
+            this.secretCache = null;
+        }
+        if (this.validatedTokens != null) {
+            this.validatedTokens.clear();
+            this.validatedTokens = null;
+        }
+        if (this.policyDecisions != null) {
+            this.policyDecisions.clear();
+            this.policyDecisions = null;
+        }
+        if (this.tokenUses != null) {
+            try {
+                this.tokenUses.close();
+            } catch (IOException exception) {
+                LOGGER.error("Error closing token use journal: {}", exception.getMessage());
+            }
+            this.tokenUses = null;
+        }
+        if (this.revocationLog != null) {
+            try {
+                this.revocationLog.close();
+            } catch (IOException exception) {
+                LOGGER.error("Error closing revocation log: {}", exception.getMessage());
+            }
+            this.revocationLog = null;
+        }
+        if (this.secretStore != null) {
+            try {
+                this.secretStore.close();
+            } catch (IOException exception) {
+                LOGGER.error("Error closing secret store: {}", exception.getMessage());
+            }
+            this.secretStore = null;
+        }
     }
 
 }
\ No newline at end of file
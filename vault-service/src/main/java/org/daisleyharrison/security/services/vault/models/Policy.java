@@ -91,7 +91,7 @@ public class Policy {
             this.capabilities.forEach(capability -> combined.add(capability));
             policy.capabilities.forEach(capability -> combined.add(capability));
             Policy combinedPolicy = new Policy();
-            combinedPolicy.setCapabilities(new ArrayList<>(capabilities));
+            combinedPolicy.setCapabilities(new ArrayList<>(combined));
             return combinedPolicy;
         }
     }
@@ -0,0 +1,124 @@
+package org.daisleyharrison.security.services.vault.models;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The policies of a principle compiled into a prefix tree keyed by the literal
+ * prefix of each policy path, so deciding the policy for a path only runs the
+ * path matchers of the policies whose prefix the path starts with.
+ */
+public class PolicyDecisionTree {
+    private static final String GLOB_SPECIAL_CHARACTERS = "*?[{\\";
+
+    private static class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private int[] policyIndexes = new int[0];
+
+        private Node child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            Node child = new Node();
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newLabels[index] = label;
+            newChildren[index] = child;
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            labels = newLabels;
+            children = newChildren;
+            return child;
+        }
+
+        private void addPolicyIndex(int policyIndex) {
+            policyIndexes = Arrays.copyOf(policyIndexes, policyIndexes.length + 1);
+            policyIndexes[policyIndexes.length - 1] = policyIndex;
+        }
+    }
+
+    private final Policy[] policies;
+    private final Node root;
+
+    /**
+     * @param policies the policies of a principle, in the order they are combined
+     */
+    public PolicyDecisionTree(List<Policy> policies) {
+        this.policies = policies.toArray(new Policy[policies.size()]);
+        this.root = new Node();
+        for (int i = 0; i < this.policies.length; i++) {
+            String prefix = literalPrefix(this.policies[i]);
+            Node node = root;
+            for (int j = 0; j < prefix.length(); j++) {
+                node = node.child(prefix.charAt(j));
+            }
+            node.addPolicyIndex(i);
+        }
+    }
+
+    /**
+     * @return String the part of the policy path every matching path starts
+     *         with
+     */
+    private static String literalPrefix(Policy policy) {
+        String path = policy.getPath();
+        if (path == null || policy.getPathType() != PolicyPathType.GLOB) {
+            return "";
+        }
+        for (int i = 0; i < path.length(); i++) {
+            if (GLOB_SPECIAL_CHARACTERS.indexOf(path.charAt(i)) >= 0) {
+                return path.substring(0, i);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * @param path the path
+     * @return String the path with '/' separators, the separator policy paths
+     *         are written with
+     */
+    public static String toPolicyPath(Path path) {
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @param path the path
+     * @return Policy the combination of the policies that apply to the path, or
+     *         {@link Policy#DENY_ALL} if none apply
+     */
+    public Policy decide(Path path) {
+        String pathString = toPolicyPath(path);
+        BitSet candidates = new BitSet(policies.length);
+        Node node = root;
+        for (int i = 0;; i++) {
+            for (int policyIndex : node.policyIndexes) {
+                candidates.set(policyIndex);
+            }
+            if (i == pathString.length()) {
+                break;
+            }
+            int index = Arrays.binarySearch(node.labels, pathString.charAt(i));
+            if (index < 0) {
+                break;
+            }
+            node = node.children[index];
+        }
+        Policy combined = null;
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            Policy policy = policies[i];
+            if (policy.applysToPath(path)) {
+                combined = combined == null ? policy : combined.combine(policy);
+            }
+        }
+        return combined == null ? Policy.DENY_ALL : combined;
+    }
+}
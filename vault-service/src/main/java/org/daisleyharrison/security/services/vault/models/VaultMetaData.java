@@ -3,11 +3,29 @@ package org.daisleyharrison.security.services.vault.models;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import org.daisleyharrison.security.services.vault.storage.SegmentSecretStore;
+import org.daisleyharrison.security.services.vault.storage.StorageType;
+
 public class VaultMetaData {
     private static final int DEFAULT_KEY_TTL_IN_SECONDS = 10;
+    private static final long DEFAULT_SECRET_CACHE_MAX_BYTES = 16 * 1024 * 1024;
+    private static final int DEFAULT_TOKEN_CACHE_TTL_IN_SECONDS = 30;
+    private static final int DEFAULT_TOKEN_CACHE_MAX_ENTRIES = 10000;
+    private static final int DEFAULT_TOKEN_USE_FLUSH_INTERVAL_IN_MILLISECONDS = 1000;
+    private static final int DEFAULT_POLICY_CACHE_MAX_ENTRIES = 10000;
+    private static final int DEFAULT_EXECUTOR_QUEUE_CAPACITY = 1000;
+    private static final int DEFAULT_SEGMENT_COMPACTION_INTERVAL_IN_SECONDS = 60;
 
     public VaultMetaData() {
         keyTTL = DEFAULT_KEY_TTL_IN_SECONDS;
+        secretCacheMaxBytes = DEFAULT_SECRET_CACHE_MAX_BYTES;
+        tokenCacheTTL = DEFAULT_TOKEN_CACHE_TTL_IN_SECONDS;
+        tokenCacheMaxEntries = DEFAULT_TOKEN_CACHE_MAX_ENTRIES;
+        tokenUseFlushInterval = DEFAULT_TOKEN_USE_FLUSH_INTERVAL_IN_MILLISECONDS;
+        policyCacheMaxEntries = DEFAULT_POLICY_CACHE_MAX_ENTRIES;
+        executorQueueCapacity = DEFAULT_EXECUTOR_QUEUE_CAPACITY;
+        segmentSize = SegmentSecretStore.DEFAULT_SEGMENT_SIZE;
+        segmentCompactionInterval = DEFAULT_SEGMENT_COMPACTION_INTERVAL_IN_SECONDS;
     }
 
     @JsonProperty("keyStore")
@@ -30,6 +48,28 @@ public class VaultMetaData {
     private int userPrincipleTokenTTL;
     @JsonProperty("servicePrincipleTokenTTL")
     private int servicePrincipleTokenTTL;
+    @JsonProperty("secretCacheTTL")
+    private int secretCacheTTL;
+    @JsonProperty("secretCacheMaxBytes")
+    private long secretCacheMaxBytes;
+    @JsonProperty("tokenCacheTTL")
+    private int tokenCacheTTL;
+    @JsonProperty("tokenCacheMaxEntries")
+    private int tokenCacheMaxEntries;
+    @JsonProperty("tokenUseFlushInterval")
+    private int tokenUseFlushInterval;
+    @JsonProperty("policyCacheMaxEntries")
+    private int policyCacheMaxEntries;
+    @JsonProperty("executorThreads")
+    private int executorThreads;
+    @JsonProperty("executorQueueCapacity")
+    private int executorQueueCapacity;
+    @JsonProperty("storage")
+    private StorageType storage;
+    @JsonProperty("segmentSize")
+    private long segmentSize;
+    @JsonProperty("segmentCompactionInterval")
+    private int segmentCompactionInterval;
 
     /**
      * @return KeyStore return the keystore
@@ -151,6 +191,164 @@ public class VaultMetaData {
         this.servicePrincipleTokenTTL = servicePrincipleTokenTTL;
     }
 
+    /**
+     * @return int return the secretCacheTTL in seconds, 0 disables the secret
+     *         cache
+     */
+    public int getSecretCacheTTL() {
+        return secretCacheTTL;
+    }
+
+    /**
+     * @param secretCacheTTL the secretCacheTTL to set
+     */
+    public void setSecretCacheTTL(int secretCacheTTL) {
+        this.secretCacheTTL = secretCacheTTL;
+    }
+
+    /**
+     * @return long return the secretCacheMaxBytes
+     */
+    public long getSecretCacheMaxBytes() {
+        return secretCacheMaxBytes;
+    }
+
+    /**
+     * @param secretCacheMaxBytes the secretCacheMaxBytes to set
+     */
+    public void setSecretCacheMaxBytes(long secretCacheMaxBytes) {
+        this.secretCacheMaxBytes = secretCacheMaxBytes;
+    }
+
+    /**
+     * @return int return the tokenCacheTTL in seconds, 0 disables the validated
+     *         token cache
+     */
+    public int getTokenCacheTTL() {
+        return tokenCacheTTL;
+    }
+
+    /**
+     * @param tokenCacheTTL the tokenCacheTTL to set
+     */
+    public void setTokenCacheTTL(int tokenCacheTTL) {
+        this.tokenCacheTTL = tokenCacheTTL;
+    }
+
+    /**
+     * @return int return the tokenCacheMaxEntries
+     */
+    public int getTokenCacheMaxEntries() {
+        return tokenCacheMaxEntries;
+    }
+
+    /**
+     * @param tokenCacheMaxEntries the tokenCacheMaxEntries to set
+     */
+    public void setTokenCacheMaxEntries(int tokenCacheMaxEntries) {
+        this.tokenCacheMaxEntries = tokenCacheMaxEntries;
+    }
+
+    /**
+     * @return int return the tokenUseFlushInterval in milliseconds, how often
+     *         token use counts are written to the journal
+     */
+    public int getTokenUseFlushInterval() {
+        return tokenUseFlushInterval;
+    }
+
+    /**
+     * @param tokenUseFlushInterval the tokenUseFlushInterval to set
+     */
+    public void setTokenUseFlushInterval(int tokenUseFlushInterval) {
+        this.tokenUseFlushInterval = tokenUseFlushInterval;
+    }
+
+    /**
+     * @return int return the policyCacheMaxEntries
+     */
+    public int getPolicyCacheMaxEntries() {
+        return policyCacheMaxEntries;
+    }
+
+    /**
+     * @param policyCacheMaxEntries the policyCacheMaxEntries to set
+     */
+    public void setPolicyCacheMaxEntries(int policyCacheMaxEntries) {
+        this.policyCacheMaxEntries = policyCacheMaxEntries;
+    }
+
+    /**
+     * @return int return the executorThreads, 0 for twice the number of
+     *         processors
+     */
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    /**
+     * @param executorThreads the executorThreads to set
+     */
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    /**
+     * @return int return the executorQueueCapacity
+     */
+    public int getExecutorQueueCapacity() {
+        return executorQueueCapacity;
+    }
+
+    /**
+     * @param executorQueueCapacity the executorQueueCapacity to set
+     */
+    public void setExecutorQueueCapacity(int executorQueueCapacity) {
+        this.executorQueueCapacity = executorQueueCapacity;
+    }
+
+    /**
+     * @return StorageType return the storage, null if not set
+     */
+    public StorageType getStorage() {
+        return storage;
+    }
+
+    /**
+     * @param storage the storage to set
+     */
+    public void setStorage(StorageType storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * @return long return the segmentSize in bytes
+     */
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @param segmentSize the segmentSize to set
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return int return the segmentCompactionInterval in seconds
+     */
+    public int getSegmentCompactionInterval() {
+        return segmentCompactionInterval;
+    }
+
+    /**
+     * @param segmentCompactionInterval the segmentCompactionInterval to set
+     */
+    public void setSegmentCompactionInterval(int segmentCompactionInterval) {
+        this.segmentCompactionInterval = segmentCompactionInterval;
+    }
+
     /**
      * @return CypherMetaData return the tokenSignatureCypher
      */
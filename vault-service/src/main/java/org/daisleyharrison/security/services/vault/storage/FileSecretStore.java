@@ -0,0 +1,90 @@
+package org.daisleyharrison.security.services.vault.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The original vault layout, each secret in its own file named after the
+ * secret path with a .sec extension.
+ */
+public class FileSecretStore implements SecretStore {
+    public static final String SECURE_FILE_EXTENSION = ".sec";
+    private static final OpenOption[] UPDATE_OPTIONS = new OpenOption[] { StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING };
+    private static final OpenOption[] CREATE_OPTIONS = new OpenOption[] { StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING };
+
+    private final Path rootPath;
+
+    public FileSecretStore(Path rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    private Path toFilePath(String secretPath) {
+        return this.rootPath.resolve(secretPath + SECURE_FILE_EXTENSION);
+    }
+
+    @Override
+    public boolean exists(String secretPath) {
+        return Files.exists(toFilePath(secretPath));
+    }
+
+    @Override
+    public String read(String secretPath) throws IOException {
+        return Files.readString(toFilePath(secretPath));
+    }
+
+    @Override
+    public void write(String secretPath, String secureSecret, boolean create, boolean createParents)
+            throws IOException {
+        Path filePath = toFilePath(secretPath);
+        Path dirPath = filePath.getParent();
+        if (createParents && !Files.exists(dirPath)) {
+            Files.createDirectories(dirPath);
+        }
+        Files.writeString(filePath, secureSecret, create ? CREATE_OPTIONS : UPDATE_OPTIONS);
+    }
+
+    @Override
+    public boolean delete(String secretPath) throws IOException {
+        try {
+            Files.delete(toFilePath(secretPath));
+            return true;
+        } catch (NoSuchFileException exception) {
+            return false;
+        }
+    }
+
+    @Override
+    public List<String> list(String prefix, String startAfter, int limit) throws IOException {
+        int directoryEnd = prefix.lastIndexOf('/');
+        Path directory = directoryEnd < 0 ? rootPath : rootPath.resolve(prefix.substring(0, directoryEnd));
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(SECURE_FILE_EXTENSION))
+                    .filter(Files::isRegularFile).map(this::toSecretPath)
+                    .filter(secretPath -> secretPath.startsWith(prefix))
+                    .filter(secretPath -> startAfter == null || secretPath.compareTo(startAfter) > 0).sorted()
+                    .limit(limit).collect(Collectors.toList());
+        }
+    }
+
+    private String toSecretPath(Path filePath) {
+        String relativePath = rootPath.relativize(filePath).toString().replace(File.separatorChar, '/');
+        return relativePath.substring(0, relativePath.length() - SECURE_FILE_EXTENSION.length());
+    }
+
+    @Override
+    public void close() {
+    }
+}
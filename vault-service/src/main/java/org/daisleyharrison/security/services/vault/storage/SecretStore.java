@@ -0,0 +1,65 @@
+package org.daisleyharrison.security.services.vault.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where the vault keeps its encrypted secrets. A store only ever sees secrets
+ * after they have been encrypted.
+ *
+ * Secret paths use '/' separators and are relative to the vault root, e.g.
+ * sys/token/abc.
+ */
+public interface SecretStore extends Closeable {
+    /**
+     * @param secretPath the secret path
+     * @return boolean true if the secret exists
+     */
+    public boolean exists(String secretPath) throws IOException;
+
+    /**
+     * @param secretPath the secret path
+     * @return String the encrypted secret
+     * @throws java.nio.file.NoSuchFileException if the secret does not exist
+     */
+    public String read(String secretPath) throws IOException;
+
+    /**
+     * @param secretPath    the secret path
+     * @param secureSecret  the encrypted secret
+     * @param create        false to only replace an existing secret
+     * @param createParents true to create missing parent directories, ignored
+     *                      by stores without directories. The vault decides
+     *                      who may start a new directory before calling this.
+     * @throws java.nio.file.NoSuchFileException if create is false and the
+     *                                           secret does not exist
+     */
+    public void write(String secretPath, String secureSecret, boolean create, boolean createParents)
+            throws IOException;
+
+    /**
+     * @param secretPath the secret path
+     * @return boolean true if the secret existed
+     */
+    public boolean delete(String secretPath) throws IOException;
+
+    /**
+     * @param prefix the path prefix, e.g. sys/token/
+     * @return List<String> the paths of the secrets starting with prefix, in
+     *         order
+     */
+    public default List<String> list(String prefix) throws IOException {
+        return list(prefix, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param prefix     the path prefix, e.g. sys/token/
+     * @param startAfter the last path of the previous page, or null for the
+     *                   first page
+     * @param limit      the maximum number of paths to return
+     * @return List<String> the paths of the secrets starting with prefix that
+     *         come after startAfter, in order
+     */
+    public List<String> list(String prefix, String startAfter, int limit) throws IOException;
+}
@@ -0,0 +1,86 @@
+package org.daisleyharrison.security.services.vault.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Moves the secrets of a vault from one kind of store to another. Secrets are
+ * copied still encrypted, no keys are needed. The vault must not be running.
+ *
+ * usage: SecretStoreMigration vault-root-path files|segments files|segments
+ */
+public class SecretStoreMigration {
+    private static final String VAULT_METADATA_PATH = ".vault/vault.json";
+    private static final String STORAGE_PROPERTY = "storage";
+
+    /**
+     * Copy every secret from one store to another
+     *
+     * @param source       the store to copy from
+     * @param target       the store to copy to
+     * @param deleteSource true to delete each secret from source once copied
+     * @return int the number of secrets copied
+     */
+    public static int migrate(SecretStore source, SecretStore target, boolean deleteSource) throws IOException {
+        int count = 0;
+        for (String secretPath : source.list("")) {
+            target.write(secretPath, source.read(secretPath), true, true);
+            if (deleteSource) {
+                source.delete(secretPath);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: SecretStoreMigration vault-root-path files|segments files|segments");
+            System.exit(1);
+        }
+        Path rootPath = Path.of(args[0]);
+        StorageType from = StorageType.fromValue(args[1]);
+        StorageType to = StorageType.fromValue(args[2]);
+        if (from == to) {
+            System.err.println("the vault already uses " + to + " storage");
+            System.exit(1);
+        }
+        int count;
+        try (SecretStore source = from.open(rootPath, SegmentSecretStore.DEFAULT_SEGMENT_SIZE, Duration.ZERO);
+                SecretStore target = to.open(rootPath, SegmentSecretStore.DEFAULT_SEGMENT_SIZE, Duration.ZERO)) {
+            count = migrate(source, target, true);
+        }
+        if (from == StorageType.SEGMENTS) {
+            // only delete records are left
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(
+                    rootPath.resolve(StorageType.SEGMENTS_DIRECTORY))) {
+                for (Path segment : segments) {
+                    Files.delete(segment);
+                }
+            }
+        }
+        setStorage(rootPath, to);
+        System.out.println("Moved " + count + " secrets from " + from + " to " + to + " storage");
+    }
+
+    /**
+     * Record the storage of a vault in its vault.json, leaving the rest of the
+     * file as it is
+     *
+     * @param rootPath the vault root path
+     * @param storage  the storage the vault uses
+     */
+    public static void setStorage(Path rootPath, StorageType storage) throws IOException {
+        Path metaDataPath = rootPath.resolve(VAULT_METADATA_PATH);
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectNode metaData = (ObjectNode) objectMapper.readTree(Files.readString(metaDataPath));
+        metaData.put(STORAGE_PROPERTY, storage.toValue());
+        Files.writeString(metaDataPath, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(metaData));
+    }
+}
@@ -0,0 +1,595 @@
+package org.daisleyharrison.security.services.vault.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps every secret in a few large append only segment files instead of one
+ * file per secret.
+ *
+ * Each write or delete appends a checksummed record to the active segment.
+ * When the active segment is full it is sealed and memory mapped, and a new
+ * active segment is started. An in memory index maps each secret path to the
+ * record holding its current value; it is rebuilt by scanning the segments,
+ * oldest first, when the store is opened. A record torn by a crash at the end
+ * of the active segment is truncated away.
+ *
+ * A write or delete returns once its record is forced to disk. Writers that
+ * arrive while another writer is forcing the active segment share the next
+ * force, so concurrent writes cost one force between them rather than one
+ * each.
+ *
+ * A background task compacts sealed segments that are mostly superseded
+ * records by copying their live records to the active segment. A compacted
+ * segment is closed and deleted once the last read still using it finishes.
+ */
+public class SegmentSecretStore implements SecretStore {
+    private static Logger LOGGER = LoggerFactory.getLogger(SegmentSecretStore.class);
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.ofMinutes(1);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_EXTENSION = ".dat";
+    private static final int RECORD_MAGIC = 0x56534731;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    // magic, type, path length, value length
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+    // crc32 of type through value
+    private static final int TRAILER_SIZE = 4;
+    // compact a sealed segment once less than this fraction of it is live
+    private static final double COMPACTION_LIVE_RATIO = 0.5;
+
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private volatile MappedByteBuffer mapped;
+        private long size;
+        private final AtomicLong liveBytes = new AtomicLong();
+        // one for the store while the segment is listed, plus one for each
+        // read or compaction using it
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        public Segment(long id, Path path, FileChannel channel) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * @return boolean true if the segment can be used until release() is
+         *         called, false if it has been compacted away
+         */
+        private boolean acquire() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                mapped = null;
+                try {
+                    channel.close();
+                    Files.delete(path);
+                } catch (IOException exception) {
+                    // its records are all superseded, it is compacted again on the next open
+                    LOGGER.warn("Failed to delete compacted segment {}: {}", path, exception.getMessage());
+                }
+            }
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int recordSize;
+        private final long valueOffset;
+        private final int valueLength;
+
+        public Location(Segment segment, long offset, int recordSize, long valueOffset, int valueLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.recordSize = recordSize;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final String path;
+        private final int valueOffset;
+        private final int valueLength;
+        private final int recordSize;
+
+        public Record(byte type, String path, int valueOffset, int valueLength, int recordSize) {
+            this.type = type;
+            this.path = path;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.recordSize = recordSize;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final ConcurrentSkipListMap<String, Location> index;
+    // oldest first, the last segment is the active segment
+    private final List<Segment> segments;
+    private Segment active;
+    // records appended, guarded by this
+    private long appendCount;
+    // records known to be on disk, guarded by syncLock
+    private long syncCount;
+    private final Object syncLock = new Object();
+    private ScheduledExecutorService compactor;
+
+    /**
+     * Open a segment store, creating it if the directory holds no segments
+     *
+     * @param directory          the directory of the segment files
+     * @param segmentSize        the size at which the active segment is sealed
+     * @param compactionInterval how often sealed segments are checked for
+     *                           compaction, zero to only compact on request
+     */
+    public SegmentSecretStore(Path directory, long segmentSize, Duration compactionInterval) throws IOException {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentSize must be between 1 and " + Integer.MAX_VALUE);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.index = new ConcurrentSkipListMap<>();
+        this.segments = new ArrayList<>();
+        Files.createDirectories(directory);
+        open();
+        if (!compactionInterval.isZero()) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "vault-segment-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = compactionInterval.toMillis();
+            this.compactor.scheduleWithFixedDelay(this::compactQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Path toSegmentPath(long id) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_EXTENSION));
+    }
+
+    private static long toSegmentId(Path segmentPath) {
+        String fileName = segmentPath.getFileName().toString();
+        return Long.parseLong(
+                fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    private static String toKey(String secretPath) {
+        String key = Path.of(secretPath).normalize().toString().replace(File.separatorChar, '/');
+        return key.startsWith("/") ? key.substring(1) : key;
+    }
+
+    private synchronized void open() throws IOException {
+        List<Path> segmentPaths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_EXTENSION)) {
+            files.forEach(segmentPaths::add);
+        }
+        segmentPaths.sort((left, right) -> Long.compare(toSegmentId(left), toSegmentId(right)));
+        for (int i = 0; i < segmentPaths.size(); i++) {
+            Path segmentPath = segmentPaths.get(i);
+            boolean isLast = i == segmentPaths.size() - 1;
+            Segment segment = new Segment(toSegmentId(segmentPath), segmentPath, FileChannel.open(segmentPath,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.add(segment);
+            if (isLast) {
+                // read rather than map the active segment, a mapped file
+                // cannot be truncated on every platform
+                ByteBuffer buffer = ByteBuffer.allocate((int) segment.size);
+                readFully(segment, buffer, 0);
+                long validSize = scan(segment, buffer);
+                if (validSize < segment.size) {
+                    LOGGER.warn("Truncating {} unreadable bytes at the end of {}", segment.size - validSize,
+                            segmentPath);
+                    segment.channel.truncate(validSize);
+                    segment.size = validSize;
+                }
+                active = segment;
+            } else {
+                segment.mapped = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+                long validSize = scan(segment, segment.mapped);
+                if (validSize < segment.size) {
+                    LOGGER.warn("Ignoring {} unreadable bytes at the end of {}", segment.size - validSize,
+                            segmentPath);
+                }
+            }
+        }
+        if (active == null) {
+            startSegment(1);
+        }
+    }
+
+    private long scan(Segment segment, ByteBuffer buffer) {
+        int offset = 0;
+        while (offset < segment.size) {
+            Record record = parse(buffer, offset, segment.size);
+            if (record == null) {
+                break;
+            }
+            if (record.type == PUT) {
+                applyPut(record.path, new Location(segment, offset, record.recordSize, record.valueOffset,
+                        record.valueLength));
+            } else {
+                applyDelete(record.path);
+            }
+            offset += record.recordSize;
+        }
+        return offset;
+    }
+
+    /**
+     * @return Record the record at offset, or null if it is incomplete or
+     *         corrupt
+     */
+    private static Record parse(ByteBuffer buffer, int offset, long limit) {
+        if (offset + HEADER_SIZE + TRAILER_SIZE > limit || buffer.getInt(offset) != RECORD_MAGIC) {
+            return null;
+        }
+        byte type = buffer.get(offset + 4);
+        int pathLength = buffer.getInt(offset + 5);
+        int valueLength = buffer.getInt(offset + 9);
+        if ((type != PUT && type != DELETE) || pathLength < 0 || valueLength < 0) {
+            return null;
+        }
+        long recordSize = (long) HEADER_SIZE + pathLength + valueLength + TRAILER_SIZE;
+        if (offset + recordSize > limit) {
+            return null;
+        }
+        int checkedEnd = (int) (offset + recordSize - TRAILER_SIZE);
+        ByteBuffer checked = buffer.duplicate();
+        checked.position(offset + 4).limit(checkedEnd);
+        CRC32 crc = new CRC32();
+        crc.update(checked);
+        if ((int) crc.getValue() != buffer.getInt(checkedEnd)) {
+            return null;
+        }
+        ByteBuffer path = buffer.duplicate();
+        path.position(offset + HEADER_SIZE).limit(offset + HEADER_SIZE + pathLength);
+        return new Record(type, StandardCharsets.UTF_8.decode(path).toString(),
+                offset + HEADER_SIZE + pathLength, valueLength, (int) recordSize);
+    }
+
+    private void applyPut(String key, Location location) {
+        Location previous = index.put(key, location);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.recordSize);
+        }
+        location.segment.liveBytes.addAndGet(location.recordSize);
+    }
+
+    private void applyDelete(String key) {
+        Location previous = index.remove(key);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.recordSize);
+        }
+    }
+
+    private void startSegment(long id) throws IOException {
+        Path segmentPath = toSegmentPath(id);
+        active = new Segment(id, segmentPath, FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.add(active);
+    }
+
+    private void seal() throws IOException {
+        active.channel.force(false);
+        active.mapped = active.channel.map(FileChannel.MapMode.READ_ONLY, 0, active.size);
+        startSegment(active.id + 1);
+    }
+
+    /**
+     * Append a record to the active segment, the caller holds the lock
+     *
+     * @return Location the location of the record
+     */
+    private Location append(byte type, String key, byte[] value) throws IOException {
+        byte[] path = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? 0 : value.length;
+        int recordSize = HEADER_SIZE + path.length + valueLength + TRAILER_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(RECORD_MAGIC).put(type).putInt(path.length).putInt(valueLength).put(path);
+        if (value != null) {
+            record.put(value);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, recordSize - 4 - TRAILER_SIZE);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        if (active.size > 0 && active.size + recordSize > segmentSize) {
+            seal();
+        }
+        long offset = active.size;
+        while (record.hasRemaining()) {
+            active.channel.write(record, offset + record.position());
+        }
+        active.size += recordSize;
+        appendCount++;
+        return new Location(active, offset, recordSize, offset + HEADER_SIZE + path.length, valueLength);
+    }
+
+    /**
+     * Wait until every record appended so far is on disk. A writer that finds
+     * another writer forcing the active segment waits for it and is then
+     * usually covered by that force, or forces once for every writer that
+     * queued up behind it.
+     *
+     * @param sequence the appendCount just after the caller's record
+     */
+    private void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            if (syncCount >= sequence) {
+                return;
+            }
+            Segment segment;
+            long target;
+            synchronized (this) {
+                segment = active;
+                target = appendCount;
+                // the active segment is never compacted, this cannot fail
+                segment.acquire();
+            }
+            try {
+                // a segment sealed since is already forced
+                segment.channel.force(false);
+            } finally {
+                segment.release();
+            }
+            syncCount = target;
+        }
+    }
+
+    @Override
+    public boolean exists(String secretPath) {
+        return index.containsKey(toKey(secretPath));
+    }
+
+    @Override
+    public String read(String secretPath) throws IOException {
+        String key = toKey(secretPath);
+        while (true) {
+            Location location = index.get(key);
+            if (location == null) {
+                throw new NoSuchFileException(secretPath);
+            }
+            if (location.segment.acquire()) {
+                try {
+                    return StandardCharsets.UTF_8.decode(readValue(location)).toString();
+                } finally {
+                    location.segment.release();
+                }
+            }
+            // the segment was compacted away, the index now has the new location
+        }
+    }
+
+    private static ByteBuffer readValue(Location location) throws IOException {
+        MappedByteBuffer mapped = location.segment.mapped;
+        if (mapped != null) {
+            ByteBuffer value = mapped.duplicate();
+            value.position((int) location.valueOffset).limit((int) location.valueOffset + location.valueLength);
+            return value;
+        }
+        ByteBuffer value = ByteBuffer.allocate(location.valueLength);
+        readFully(location.segment, value, location.valueOffset);
+        value.flip();
+        return value;
+    }
+
+    private static void readFully(Segment segment, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (segment.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment " + segment.path);
+            }
+        }
+    }
+
+    /**
+     * Segments have no directories, createParents is ignored
+     */
+    @Override
+    public void write(String secretPath, String secureSecret, boolean create, boolean createParents)
+            throws IOException {
+        String key = toKey(secretPath);
+        long sequence;
+        synchronized (this) {
+            if (!create && !index.containsKey(key)) {
+                throw new NoSuchFileException(secretPath);
+            }
+            applyPut(key, append(PUT, key, secureSecret.getBytes(StandardCharsets.UTF_8)));
+            sequence = appendCount;
+        }
+        sync(sequence);
+    }
+
+    @Override
+    public boolean delete(String secretPath) throws IOException {
+        String key = toKey(secretPath);
+        long sequence;
+        synchronized (this) {
+            if (!index.containsKey(key)) {
+                return false;
+            }
+            append(DELETE, key, null);
+            applyDelete(key);
+            sequence = appendCount;
+        }
+        sync(sequence);
+        return true;
+    }
+
+    @Override
+    public List<String> list(String prefix, String startAfter, int limit) {
+        String key = prefix.isEmpty() ? "" : toKey(prefix) + (prefix.endsWith("/") ? "/" : "");
+        String end = key + Character.MAX_VALUE;
+        NavigableSet<String> keys;
+        String after = startAfter == null ? null : toKey(startAfter);
+        if (after != null && after.compareTo(key) >= 0) {
+            keys = index.subMap(after, false, end, false).navigableKeySet();
+        } else {
+            keys = index.subMap(key, true, end, false).navigableKeySet();
+        }
+        List<String> page = new ArrayList<>(Math.min(limit, 64));
+        for (String path : keys) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(path);
+        }
+        return page;
+    }
+
+    /**
+     * @return int the number of secrets in the store
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Compact every sealed segment that is mostly superseded records
+     *
+     * @throws IOException if a segment cannot be compacted
+     */
+    public void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                if (segment != active && segment.liveBytes.get() < segment.size * COMPACTION_LIVE_RATIO) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        for (Segment segment : candidates) {
+            compact(segment);
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        if (!segment.acquire()) {
+            // already compacted
+            return;
+        }
+        try {
+            MappedByteBuffer mapped = segment.mapped;
+            // a delete may still hide a value in an older segment, including a
+            // file left behind by a compaction that could not delete it
+            boolean keepDeletes;
+            synchronized (this) {
+                keepDeletes = segments.get(0) != segment;
+            }
+            keepDeletes = keepDeletes || hasOlderSegmentFile(segment.id);
+            int offset = 0;
+            while (offset < segment.size) {
+                Record record = parse(mapped, offset, segment.size);
+                if (record == null) {
+                    break;
+                }
+                synchronized (this) {
+                    if (record.type == PUT) {
+                        Location location = index.get(record.path);
+                        if (location != null && location.segment == segment && location.offset == offset) {
+                            byte[] value = new byte[record.valueLength];
+                            ByteBuffer source = mapped.duplicate();
+                            source.position(record.valueOffset);
+                            source.get(value);
+                            applyPut(record.path, append(PUT, record.path, value));
+                        }
+                    } else if (keepDeletes && !index.containsKey(record.path)) {
+                        append(DELETE, record.path, null);
+                    }
+                }
+                offset += record.recordSize;
+            }
+            synchronized (this) {
+                active.channel.force(false);
+                if (segments.remove(segment)) {
+                    // drop the store's reference, reads in progress keep it open
+                    segment.release();
+                }
+            }
+        } finally {
+            segment.release();
+        }
+    }
+
+    private boolean hasOlderSegmentFile(long id) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_EXTENSION)) {
+            for (Path file : files) {
+                if (toSegmentId(file) < id) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException exception) {
+            LOGGER.error("Failed to compact segments in {}: {}", directory, exception.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            active.channel.force(false);
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+        }
+    }
+}
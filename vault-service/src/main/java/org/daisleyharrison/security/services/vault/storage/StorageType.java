@@ -0,0 +1,53 @@
+package org.daisleyharrison.security.services.vault.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+public enum StorageType {
+    FILES("files"), SEGMENTS("segments");
+
+    public static final String SEGMENTS_DIRECTORY = ".vault/segments";
+
+    private String value;
+
+    StorageType(String value) {
+        this.value = value;
+    }
+
+    @JsonValue
+    public String toValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    public static StorageType fromValue(String value) {
+        for (StorageType storageType : values()) {
+            if (storageType.value.equals(value)) {
+                return storageType;
+            }
+        }
+        throw new IllegalArgumentException("unknown storage type " + value);
+    }
+
+    /**
+     * Open the store of this type for a vault
+     *
+     * @param rootPath           the vault root path
+     * @param segmentSize        the segment size of a segment store
+     * @param compactionInterval the compaction interval of a segment store
+     * @return SecretStore the store
+     */
+    public SecretStore open(Path rootPath, long segmentSize, Duration compactionInterval) throws IOException {
+        if (this == SEGMENTS) {
+            return new SegmentSecretStore(rootPath.resolve(SEGMENTS_DIRECTORY), segmentSize, compactionInterval);
+        }
+        return new FileSecretStore(rootPath);
+    }
+}
@@ -0,0 +1,148 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import org.daisleyharrison.security.common.exceptions.CypherException;
+import org.daisleyharrison.security.common.models.cypher.StringCypher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append only file of entries, each entry encrypted on its own line. The
+ * file can be atomically rewritten to compact it.
+ */
+public class EncryptedLog implements Closeable {
+    private static Logger LOGGER = LoggerFactory.getLogger(EncryptedLog.class);
+
+    private final Path logPath;
+    private final StringCypher cypher;
+    private FileChannel channel;
+    private int lineCount;
+
+    public EncryptedLog(Path logPath, StringCypher cypher) {
+        this.logPath = logPath;
+        this.cypher = cypher;
+    }
+
+    private void openChannel() throws IOException {
+        Files.createDirectories(logPath.getParent());
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private String toLine(String entry) throws CypherException {
+        return cypher.encrypt(entry) + '\n';
+    }
+
+    /**
+     * Read every entry and open the log for appending
+     *
+     * @param onEntry called with each decrypted entry, may throw a
+     *                RuntimeException to reject a malformed entry
+     * @return int the number of unreadable entries that were skipped
+     * @throws IOException if the log cannot be read or opened
+     */
+    public synchronized int open(Consumer<String> onEntry) throws IOException {
+        int unreadable = 0;
+        lineCount = 0;
+        if (Files.exists(logPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(logPath, StandardCharsets.US_ASCII)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    lineCount++;
+                    try {
+                        onEntry.accept(cypher.decrypt(line));
+                    } catch (CypherException | RuntimeException exception) {
+                        // most likely a line torn by a crash while appending
+                        LOGGER.warn("Skipping unreadable entry in {}", logPath);
+                        unreadable++;
+                    }
+                }
+            }
+        }
+        openChannel();
+        return unreadable;
+    }
+
+    /**
+     * Append entries, the entries are on disk when this method returns
+     *
+     * @param entries the entries to append
+     * @throws IOException     if the entries cannot be written
+     * @throws CypherException if an entry cannot be encrypted
+     */
+    public synchronized void append(Collection<String> entries) throws IOException, CypherException {
+        if (channel == null) {
+            throw new IllegalStateException("log " + logPath + " is not open");
+        }
+        StringBuilder lines = new StringBuilder();
+        for (String entry : entries) {
+            lines.append(toLine(entry));
+        }
+        ByteBuffer buffer = StandardCharsets.US_ASCII.encode(lines.toString());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        lineCount += entries.size();
+    }
+
+    /**
+     * Atomically replace the content of the log
+     *
+     * @param entries the entries the log holds after the rewrite
+     * @throws IOException if the log cannot be rewritten
+     */
+    public synchronized void rewrite(Collection<String> entries) throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Path rewritePath = logPath.resolveSibling(logPath.getFileName() + ".compact");
+        try {
+            try (Writer writer = Files.newBufferedWriter(rewritePath, StandardCharsets.US_ASCII)) {
+                for (String entry : entries) {
+                    writer.write(toLine(entry));
+                }
+            } catch (CypherException exception) {
+                Files.deleteIfExists(rewritePath);
+                throw new IOException("Failed to rewrite " + logPath, exception);
+            }
+            Files.move(rewritePath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lineCount = entries.size();
+        } finally {
+            openChannel();
+        }
+    }
+
+    /**
+     * @return int the number of entries in the log, including entries that have
+     *         been superseded
+     */
+    public synchronized int getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * A concurrent map whose values are loaded on first use. Threads asking for a
+ * key that is being loaded wait for that load instead of loading it again, and
+ * a loader may itself get other keys from the map. A load that fails or
+ * returns null is not remembered.
+ */
+public class LoadOnceMap<K, V> {
+    public interface Loader<V, E1 extends Exception, E2 extends Exception> {
+        public V load() throws E1, E2;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> values = new ConcurrentHashMap<>();
+
+    /**
+     * @param key    the key, cannot be null
+     * @param loader loads the value if it is not loaded or being loaded
+     * @return V the value, or null if the loader returned null
+     */
+    public <E1 extends Exception, E2 extends Exception> V get(K key, Loader<V, E1, E2> loader) throws E1, E2 {
+        while (true) {
+            CompletableFuture<V> value = values.get(key);
+            if (value == null) {
+                CompletableFuture<V> loading = new CompletableFuture<>();
+                value = values.putIfAbsent(key, loading);
+                if (value == null) {
+                    return load(key, loading, loader);
+                }
+            }
+            try {
+                return value.join();
+            } catch (CompletionException exception) {
+                // the load failed on another thread, try it on this one
+                values.remove(key, value);
+            }
+        }
+    }
+
+    private <E1 extends Exception, E2 extends Exception> V load(K key, CompletableFuture<V> loading,
+            Loader<V, E1, E2> loader) throws E1, E2 {
+        try {
+            V value = loader.load();
+            if (value == null) {
+                values.remove(key, loading);
+            }
+            loading.complete(value);
+            return value;
+        } catch (Throwable throwable) {
+            values.remove(key, loading);
+            loading.completeExceptionally(throwable);
+            throw throwable;
+        }
+    }
+
+    /**
+     * Set a value, replacing any loaded value
+     */
+    public void put(K key, V value) {
+        values.put(key, CompletableFuture.completedFuture(value));
+    }
+
+    /**
+     * Forget a value, a load in progress completes for its callers but is not
+     * remembered
+     */
+    public void invalidate(K key) {
+        values.remove(key);
+    }
+
+    public void invalidateAll(Predicate<K> keyFilter) {
+        values.keySet().removeIf(keyFilter);
+    }
+
+    public void clear() {
+        values.clear();
+    }
+}
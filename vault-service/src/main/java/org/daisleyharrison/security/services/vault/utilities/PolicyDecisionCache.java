@@ -0,0 +1,116 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.daisleyharrison.security.services.vault.models.Policy;
+import org.daisleyharrison.security.services.vault.models.PolicyDecisionTree;
+
+/**
+ * A least recently used cache of policy decisions per set of policies and
+ * path, along with the compiled decision tree of each set of policies.
+ *
+ * The cache is cleared whenever a policy is written. A decision computed while
+ * the cache was cleared is not cached, see {@link #getVersion()}.
+ */
+public class PolicyDecisionCache {
+    private static final int MAXIMUM_DECISION_TREES = 1024;
+
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maximumSize;
+
+        public LruMap(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maximumSize;
+        }
+    }
+
+    private static final class DecisionKey {
+        private final List<String> policySet;
+        private final String path;
+
+        public DecisionKey(List<String> policySet, String path) {
+            this.policySet = policySet;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey key = (DecisionKey) other;
+            return policySet.equals(key.policySet) && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(policySet, path);
+        }
+    }
+
+    private final LruMap<DecisionKey, Policy> decisions;
+    private final LruMap<List<String>, PolicyDecisionTree> decisionTrees;
+    private long version;
+
+    public PolicyDecisionCache(int maximumSize) {
+        this.decisions = new LruMap<>(maximumSize);
+        this.decisionTrees = new LruMap<>(Math.min(maximumSize, MAXIMUM_DECISION_TREES));
+    }
+
+    /**
+     * @return long the version of the cache, to be passed to
+     *         {@link #put(List, String, Policy, long)} for a decision computed
+     *         after this call
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param policySet the names of the policies of a principle, in the order
+     *                  they are combined
+     * @param path      the path
+     * @return Policy the cached decision, or null
+     */
+    public synchronized Policy get(List<String> policySet, String path) {
+        return decisions.get(new DecisionKey(policySet, path));
+    }
+
+    public synchronized void put(List<String> policySet, String path, Policy decision, long version) {
+        if (version == this.version) {
+            decisions.put(new DecisionKey(new ArrayList<>(policySet), path), decision);
+        }
+    }
+
+    /**
+     * @param policySet the names of the policies of a principle, in the order
+     *                  they are combined
+     * @return PolicyDecisionTree the compiled policies, or null
+     */
+    public synchronized PolicyDecisionTree getDecisionTree(List<String> policySet) {
+        return decisionTrees.get(policySet);
+    }
+
+    public synchronized void putDecisionTree(List<String> policySet, PolicyDecisionTree decisionTree,
+            long version) {
+        if (version == this.version) {
+            decisionTrees.put(new ArrayList<>(policySet), decisionTree);
+        }
+    }
+
+    public synchronized void clear() {
+        version++;
+        decisions.clear();
+        decisionTrees.clear();
+    }
+}
@@ -0,0 +1,133 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.daisleyharrison.security.common.exceptions.CypherException;
+import org.daisleyharrison.security.common.models.cypher.StringCypher;
+
+/**
+ * An in memory index of revoked tokens backed by an append only log.
+ *
+ * Each revocation is appended to the log as one encrypted line holding the
+ * token and the time it expires. The index is rebuilt from the log when it is
+ * opened, and the log is rewritten without the expired revocations whenever it
+ * has grown to twice the number of live revocations, so it never holds much
+ * more than the tokens that could still be presented.
+ */
+public class RevocationLog implements Closeable {
+    private static final int MINIMUM_COMPACTION_THRESHOLD = 1024;
+    // keep revocations a while past expiry to cover clock skew
+    private static final long EXPIRY_GRACE_MILLIS = 5 * 60 * 1000;
+
+    private final EncryptedLog log;
+    private final Map<String, Long> expiryByToken;
+    private int compactionThreshold;
+
+    private RevocationLog(Path logPath, StringCypher cypher) {
+        this.log = new EncryptedLog(logPath, cypher);
+        this.expiryByToken = new ConcurrentHashMap<>();
+        this.compactionThreshold = MINIMUM_COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Open a revocation log, creating it if it does not exist
+     *
+     * @param logPath the path of the log file
+     * @param cypher  the cypher used to encrypt each entry
+     * @return RevocationLog the opened log
+     * @throws IOException if the log cannot be read or written
+     */
+    public static RevocationLog open(Path logPath, StringCypher cypher) throws IOException {
+        RevocationLog revocationLog = new RevocationLog(logPath, cypher);
+        revocationLog.load();
+        return revocationLog;
+    }
+
+    private synchronized void load() throws IOException {
+        int unreadable = log.open(entry -> {
+            int separator = entry.lastIndexOf(' ');
+            expiryByToken.put(entry.substring(0, separator), Long.parseLong(entry.substring(separator + 1)));
+        });
+        if (unreadable > 0 || expiryByToken.size() < log.getLineCount()) {
+            compact();
+        } else {
+            compactWhenExpired();
+        }
+    }
+
+    static boolean isLive(long expiry, long now) {
+        return expiry + EXPIRY_GRACE_MILLIS >= now;
+    }
+
+    private static String toEntry(String token, long expiry) {
+        return token + ' ' + expiry;
+    }
+
+    private void compactWhenExpired() throws IOException {
+        long now = System.currentTimeMillis();
+        if (expiryByToken.values().stream().anyMatch(expiry -> !isLive(expiry, now))) {
+            compact();
+        } else {
+            compactionThreshold = Math.max(MINIMUM_COMPACTION_THRESHOLD, expiryByToken.size() * 2);
+        }
+    }
+
+    /**
+     * @param token the opaque token
+     * @return boolean true if the token was revoked
+     */
+    public boolean isRevoked(String token) {
+        return expiryByToken.containsKey(token);
+    }
+
+    /**
+     * Revoke a token, the revocation is on disk when this method returns
+     *
+     * @param token  the opaque token
+     * @param expiry the time the token expires, in milliseconds
+     * @throws IOException     if the revocation cannot be written
+     * @throws CypherException if the revocation cannot be encrypted
+     */
+    public synchronized void revoke(String token, long expiry) throws IOException, CypherException {
+        if (expiryByToken.containsKey(token)) {
+            return;
+        }
+        log.append(Collections.singletonList(toEntry(token, expiry)));
+        expiryByToken.put(token, expiry);
+        if (log.getLineCount() >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Drop expired revocations and rewrite the log with the live ones
+     *
+     * @throws IOException if the log cannot be rewritten
+     */
+    public synchronized void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        expiryByToken.values().removeIf(expiry -> !isLive(expiry, now));
+        List<String> entries = new ArrayList<>(expiryByToken.size());
+        for (Map.Entry<String, Long> entry : expiryByToken.entrySet()) {
+            entries.add(toEntry(entry.getKey(), entry.getValue()));
+        }
+        log.rewrite(entries);
+        compactionThreshold = Math.max(MINIMUM_COMPACTION_THRESHOLD, expiryByToken.size() * 2);
+    }
+
+    public int size() {
+        return expiryByToken.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+}
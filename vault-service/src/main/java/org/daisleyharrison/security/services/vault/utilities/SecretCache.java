@@ -0,0 +1,171 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A least recently used cache of decrypted secrets bounded by time to live and
+ * by the number of bytes held.
+ *
+ * Secrets are held as UTF-8 byte arrays that are zeroed when they leave the
+ * cache. A secret read from storage is only cached when no invalidation
+ * happened since the read started, see {@link #getVersion()}, so a read that
+ * races a write cannot cache the value the write replaced.
+ */
+public class SecretCache {
+    // approximate per entry overhead of the map entry, the entry and the arrays
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static class Entry {
+        private final byte[] secret;
+        private final long expiryTime;
+        private final long size;
+
+        public Entry(String path, byte[] secret, long expiryTime) {
+            this.secret = secret;
+            this.expiryTime = expiryTime;
+            this.size = ENTRY_OVERHEAD + path.length() * 2L + secret.length;
+        }
+
+        public void destroy() {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    private final long ttl;
+    private final long maximumBytes;
+    private final LinkedHashMap<String, Entry> entries;
+    private long bytes;
+    private long version;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SecretCache(Duration ttl, long maximumBytes) {
+        this.ttl = ttl.toMillis();
+        this.maximumBytes = maximumBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private void unlink(String path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            bytes -= entry.size;
+            entry.destroy();
+        }
+    }
+
+    /**
+     * @return long the version of the cache, to be passed to
+     *         {@link #put(String, String, long)} for a secret read after this call
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param path the secret path
+     * @return String the cached secret, or null if not cached
+     */
+    public synchronized String get(String path) {
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            if (System.currentTimeMillis() > entry.expiryTime) {
+                unlink(path);
+            } else {
+                hits.increment();
+                return new String(entry.secret, StandardCharsets.UTF_8);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache a secret read from storage
+     *
+     * @param path    the secret path
+     * @param secret  the decrypted secret
+     * @param version the version returned by {@link #getVersion()} before the
+     *                secret was read
+     */
+    public void put(String path, String secret, long version) {
+        byte[] secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+        Entry entry = new Entry(path, secretBytes, System.currentTimeMillis() + ttl);
+        if (entry.size > maximumBytes) {
+            entry.destroy();
+            return;
+        }
+        synchronized (this) {
+            if (version != this.version) {
+                // invalidated while the secret was being read
+                entry.destroy();
+                return;
+            }
+            unlink(path);
+            entries.put(path, entry);
+            bytes += entry.size;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maximumBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                bytes -= evicted.size;
+                evicted.destroy();
+            }
+        }
+    }
+
+    /**
+     * Remove a secret, called whenever the secret is written or deleted
+     *
+     * @param path the secret path
+     */
+    public synchronized void invalidate(String path) {
+        version++;
+        unlink(path);
+    }
+
+    /**
+     * Remove every secret whose path matches a filter
+     *
+     * @param pathFilter selects the secret paths to remove
+     */
+    public synchronized void invalidateAll(Predicate<String> pathFilter) {
+        version++;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (pathFilter.test(entry.getKey())) {
+                iterator.remove();
+                bytes -= entry.getValue().size;
+                entry.getValue().destroy();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        version++;
+        for (Entry entry : entries.values()) {
+            entry.destroy();
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
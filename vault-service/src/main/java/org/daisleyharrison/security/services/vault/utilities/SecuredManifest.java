@@ -0,0 +1,157 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the directories of the vault known to hold only secured files, so
+ * the vault does not have to look at every file each time it starts.
+ *
+ * Adding, removing or renaming a file in a directory changes its last modified
+ * time, so a directory whose time matches the one recorded when it was last
+ * found secured is skipped without being listed, and only its recorded sub
+ * directories are visited. The work of a scan grows with the number of
+ * directories and unsecured files, not with the number of secured files.
+ */
+public class SecuredManifest {
+    private static Logger LOGGER = LoggerFactory.getLogger(SecuredManifest.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // file systems with coarse timestamps can hide a change made within this
+    // long of the last one, so directories changed that recently are not recorded
+    private static final long MODIFIED_TIME_RESOLUTION_MILLIS = 2000;
+
+    public static class SecuredDirectory {
+        @JsonProperty("modified")
+        private long modified;
+        @JsonProperty("subdirectories")
+        private List<String> subdirectories;
+
+        public SecuredDirectory() {
+        }
+
+        public SecuredDirectory(long modified, List<String> subdirectories) {
+            this.modified = modified;
+            this.subdirectories = subdirectories;
+        }
+    }
+
+    private final Path manifestPath;
+    private final Map<String, SecuredDirectory> directories;
+    private boolean changed;
+
+    private SecuredManifest(Path manifestPath, Map<String, SecuredDirectory> directories) {
+        this.manifestPath = manifestPath;
+        this.directories = directories;
+    }
+
+    /**
+     * Open a manifest, an unreadable manifest is treated as empty so every
+     * directory is scanned again
+     */
+    public static SecuredManifest open(Path manifestPath) {
+        Map<String, SecuredDirectory> directories = new HashMap<>();
+        if (Files.exists(manifestPath)) {
+            try (InputStream input = Files.newInputStream(manifestPath)) {
+                directories = objectMapper.readValue(input, new TypeReference<HashMap<String, SecuredDirectory>>() {
+                });
+            } catch (IOException exception) {
+                LOGGER.warn("Ignoring unreadable manifest {}: {}", manifestPath, exception.getMessage());
+            }
+        }
+        return new SecuredManifest(manifestPath, directories);
+    }
+
+    /**
+     * Find the unsecured files under a root directory. Directories found to
+     * hold no unsecured files are recorded as secured, those holding unsecured
+     * files are scanned again by the next call.
+     *
+     * @param rootPath      the directory to scan
+     * @param isSecured     tests whether a file is secured
+     * @param skipDirectory tests whether a directory should not be scanned
+     * @return List<Path> the unsecured files
+     */
+    public List<Path> scan(Path rootPath, Predicate<Path> isSecured, Predicate<Path> skipDirectory)
+            throws IOException {
+        long scanStarted = System.currentTimeMillis();
+        List<Path> unsecuredFiles = new ArrayList<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        pending.push(rootPath);
+        while (!pending.isEmpty()) {
+            Path directory = pending.pop();
+            if (skipDirectory.test(directory)) {
+                continue;
+            }
+            String key = rootPath.relativize(directory).toString();
+            long modified = Files.getLastModifiedTime(directory).toMillis();
+            SecuredDirectory securedDirectory = directories.get(key);
+            if (securedDirectory != null && securedDirectory.modified == modified) {
+                for (String subdirectory : securedDirectory.subdirectories) {
+                    Path subdirectoryPath = directory.resolve(subdirectory);
+                    if (Files.isDirectory(subdirectoryPath, LinkOption.NOFOLLOW_LINKS)) {
+                        pending.push(subdirectoryPath);
+                    }
+                }
+                continue;
+            }
+            List<String> subdirectories = new ArrayList<>();
+            boolean secured = true;
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        subdirectories.add(child.getFileName().toString());
+                        pending.push(child);
+                    } else if (!isSecured.test(child)) {
+                        unsecuredFiles.add(child);
+                        secured = false;
+                    }
+                }
+            }
+            if (secured && modified < scanStarted - MODIFIED_TIME_RESOLUTION_MILLIS) {
+                directories.put(key, new SecuredDirectory(modified, subdirectories));
+            } else {
+                directories.remove(key);
+            }
+            changed = true;
+        }
+        return unsecuredFiles;
+    }
+
+    /**
+     * @return int the number of directories recorded as secured
+     */
+    public int size() {
+        return directories.size();
+    }
+
+    /**
+     * Write the manifest if a scan changed it
+     */
+    public void save() throws IOException {
+        if (changed) {
+            Path tempPath = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+            Files.write(tempPath, objectMapper.writeValueAsBytes(directories));
+            Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changed = false;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.daisleyharrison.security.common.exceptions.CypherException;
+import org.daisleyharrison.security.common.models.cypher.StringCypher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remaining use counts of use limited tokens.
+ *
+ * A use is taken with a compare and set on an in memory counter, so concurrent
+ * uses of a token never see the same remaining count and a use never waits on
+ * disk. Changed counts are written behind, in batches, to an encrypted journal
+ * that is replayed when the counters are opened. Tokens whose last use was
+ * taken are handed to an {@link OnExhausted} handler once their count is in
+ * the journal.
+ */
+public class TokenUseCounters implements Closeable {
+    private static Logger LOGGER = LoggerFactory.getLogger(TokenUseCounters.class);
+    private static final int MINIMUM_COMPACTION_THRESHOLD = 1024;
+
+    public interface OnExhausted {
+        public void exhausted(String token, long expiry);
+    }
+
+    private static class Counter {
+        private final AtomicInteger remaining;
+        private final long expiry;
+
+        public Counter(int remaining, long expiry) {
+            this.remaining = new AtomicInteger(remaining);
+            this.expiry = expiry;
+        }
+    }
+
+    private final EncryptedLog journal;
+    private final OnExhausted onExhausted;
+    private final Map<String, Counter> counters;
+    private final Set<String> changedTokens;
+    private final Set<String> exhaustedTokens;
+    private ScheduledExecutorService flusher;
+    private int compactionThreshold;
+
+    private TokenUseCounters(Path journalPath, StringCypher cypher, OnExhausted onExhausted) {
+        this.journal = new EncryptedLog(journalPath, cypher);
+        this.onExhausted = onExhausted;
+        this.counters = new ConcurrentHashMap<>();
+        this.changedTokens = ConcurrentHashMap.newKeySet();
+        this.exhaustedTokens = ConcurrentHashMap.newKeySet();
+        this.compactionThreshold = MINIMUM_COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Open the counters, replaying the journal
+     *
+     * @param journalPath   the path of the journal file
+     * @param cypher        the cypher used to encrypt each journal entry
+     * @param flushInterval how often changed counts are written to the journal
+     * @param onExhausted   called for each token whose last use was taken
+     * @return TokenUseCounters the opened counters
+     * @throws IOException if the journal cannot be read or written
+     */
+    public static TokenUseCounters open(Path journalPath, StringCypher cypher, Duration flushInterval,
+            OnExhausted onExhausted) throws IOException {
+        TokenUseCounters tokenUseCounters = new TokenUseCounters(journalPath, cypher, onExhausted);
+        tokenUseCounters.load();
+        tokenUseCounters.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-use-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, flushInterval.toMillis());
+        tokenUseCounters.flusher.scheduleWithFixedDelay(tokenUseCounters::flushQuietly, interval, interval,
+                TimeUnit.MILLISECONDS);
+        return tokenUseCounters;
+    }
+
+    private void load() throws IOException {
+        int unreadable = journal.open(entry -> {
+            String[] fields = entry.split(" ");
+            // later entries supersede earlier ones
+            counters.put(fields[0], new Counter(Integer.parseInt(fields[1]), Long.parseLong(fields[2])));
+        });
+        if (unreadable > 0 || counters.size() < journal.getLineCount()) {
+            compact();
+        }
+        // exhausted tokens the handler may not have seen before a restart
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            if (entry.getValue().remaining.get() <= 0) {
+                notifyExhausted(entry.getKey(), entry.getValue().expiry);
+            }
+        }
+    }
+
+    private static String toEntry(String token, Counter counter) {
+        return token + ' ' + counter.remaining.get() + ' ' + counter.expiry;
+    }
+
+    /**
+     * Take one use of a token
+     *
+     * @param token       the opaque token
+     * @param initialUses the uses the token had when it was first seen, only
+     *                    read the first time a token is used
+     * @param expiry      the time the token expires, in milliseconds
+     * @return int the uses remaining after this one, or -1 if the token has no
+     *         uses left
+     */
+    public int use(String token, int initialUses, long expiry) {
+        Counter counter = counters.computeIfAbsent(token, key -> new Counter(initialUses, expiry));
+        while (true) {
+            int remaining = counter.remaining.get();
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (counter.remaining.compareAndSet(remaining, remaining - 1)) {
+                changedTokens.add(token);
+                if (remaining == 1) {
+                    // only the use that took the last one gets here
+                    exhaustedTokens.add(token);
+                }
+                return remaining - 1;
+            }
+        }
+    }
+
+    /**
+     * Write changed counts to the journal
+     *
+     * @throws IOException     if the journal cannot be written
+     * @throws CypherException if a count cannot be encrypted
+     */
+    public synchronized void flush() throws IOException, CypherException {
+        if (changedTokens.isEmpty()) {
+            return;
+        }
+        // a token is marked changed before it is marked exhausted, so taking the
+        // exhausted tokens first guarantees their final count is in this flush
+        List<String> exhausted = drain(exhaustedTokens);
+        List<String> changed = drain(changedTokens);
+        List<String> entries = new ArrayList<>(changed.size());
+        for (String token : changed) {
+            Counter counter = counters.get(token);
+            if (counter != null) {
+                entries.add(toEntry(token, counter));
+            }
+        }
+        try {
+            journal.append(entries);
+        } catch (IOException | CypherException exception) {
+            // try again on the next flush
+            changedTokens.addAll(changed);
+            exhaustedTokens.addAll(exhausted);
+            throw exception;
+        }
+        for (String token : exhausted) {
+            Counter counter = counters.get(token);
+            if (counter != null) {
+                notifyExhausted(token, counter.expiry);
+            }
+        }
+        if (journal.getLineCount() >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    private static List<String> drain(Set<String> tokens) {
+        List<String> drained = new ArrayList<>();
+        Iterator<String> iterator = tokens.iterator();
+        while (iterator.hasNext()) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+        return drained;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | CypherException | RuntimeException exception) {
+            LOGGER.error("Failed to write token use journal: {}", exception.getMessage());
+        }
+    }
+
+    private void notifyExhausted(String token, long expiry) {
+        try {
+            onExhausted.exhausted(token, expiry);
+        } catch (RuntimeException exception) {
+            LOGGER.warn("Exhausted token handler failed: {}", exception.getMessage());
+        }
+    }
+
+    /**
+     * Drop the counts of expired tokens and rewrite the journal with the
+     * remaining ones
+     *
+     * @throws IOException if the journal cannot be rewritten
+     */
+    public synchronized void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        counters.entrySet().removeIf(entry -> !RevocationLog.isLive(entry.getValue().expiry, now)
+                && !changedTokens.contains(entry.getKey()));
+        List<String> entries = new ArrayList<>(counters.size());
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            entries.add(toEntry(entry.getKey(), entry.getValue()));
+        }
+        journal.rewrite(entries);
+        compactionThreshold = Math.max(MINIMUM_COMPACTION_THRESHOLD, counters.size() * 2);
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            flush();
+        } catch (CypherException exception) {
+            throw new IOException("Failed to write token use journal", exception);
+        } finally {
+            journal.close();
+        }
+    }
+}
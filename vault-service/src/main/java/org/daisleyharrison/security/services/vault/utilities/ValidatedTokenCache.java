@@ -0,0 +1,192 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.daisleyharrison.security.services.vault.models.Principle;
+import org.daisleyharrison.security.services.vault.models.PrincipleClaims;
+import org.daisleyharrison.security.services.vault.models.TokenClaims;
+
+/**
+ * A short lived cache of validated tokens, so repeated operations with the same
+ * token skip signature verification, the revocation check and reading the
+ * principle.
+ *
+ * An entry lives until the token expires or the cache time to live elapses,
+ * whichever comes first, and is removed as soon as the token is revoked or
+ * rewritten. Cached tokens are indexed by their opaque form, so invalidating a
+ * token only touches its own entries. A token validated while that token was
+ * invalidated is not cached, see {@link #getVersion()}.
+ */
+public class ValidatedTokenCache {
+    private static final int MAXIMUM_PATHS_PER_TOKEN = 64;
+
+    public static class ValidatedToken {
+        private final String opaqueToken;
+        private final TokenClaims tokenClaims;
+        private final PrincipleClaims principleClaims;
+        private long expiryTime;
+        private final Map<Path, Principle> principleByPath;
+
+        public ValidatedToken(String opaqueToken, TokenClaims tokenClaims, PrincipleClaims principleClaims) {
+            this.opaqueToken = opaqueToken;
+            this.tokenClaims = tokenClaims;
+            this.principleClaims = principleClaims;
+            this.principleByPath = new LinkedHashMap<>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Path, Principle> eldest) {
+                    return size() > MAXIMUM_PATHS_PER_TOKEN;
+                }
+            };
+        }
+
+        public String getOpaqueToken() {
+            return opaqueToken;
+        }
+
+        public TokenClaims getTokenClaims() {
+            return tokenClaims;
+        }
+
+        public PrincipleClaims getPrincipleClaims() {
+            return principleClaims;
+        }
+
+        /**
+         * @param path the path the principle was resolved for
+         * @return Principle the principle with its policy for the path, or null
+         */
+        public synchronized Principle getPrinciple(Path path) {
+            return principleByPath.get(path);
+        }
+
+        public synchronized void putPrinciple(Path path, Principle principle) {
+            principleByPath.put(path, principle);
+        }
+    }
+
+    private final long ttl;
+    private final int maximumSize;
+    private final LinkedHashMap<String, ValidatedToken> validatedTokens;
+    // every form of a token presented, by its opaque form
+    private final Map<String, Set<String>> tokensByOpaqueToken;
+    // the version each recently invalidated opaque token was invalidated at
+    private final LinkedHashMap<String, Long> invalidations;
+    // the latest version of an invalidation no longer in invalidations
+    private long forgottenVersion;
+    private long version;
+
+    public ValidatedTokenCache(Duration ttl, int maximumSize) {
+        this.ttl = ttl.toMillis();
+        this.maximumSize = maximumSize;
+        this.validatedTokens = new LinkedHashMap<>(16, 0.75f, true);
+        this.tokensByOpaqueToken = new HashMap<>();
+        this.invalidations = new LinkedHashMap<>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > maximumSize) {
+                    forgottenVersion = Math.max(forgottenVersion, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return long the version of the cache, to be passed to
+     *         {@link #put(String, ValidatedToken, long, long)} for a token
+     *         validated after this call. The token is not cached if it is
+     *         invalidated in between, invalidating other tokens does not
+     *         matter.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param token the token as presented
+     * @return ValidatedToken the cached validation, or null
+     */
+    public synchronized ValidatedToken get(String token) {
+        ValidatedToken validatedToken = validatedTokens.get(token);
+        if (validatedToken != null && System.currentTimeMillis() > validatedToken.expiryTime) {
+            remove(token);
+            return null;
+        }
+        return validatedToken;
+    }
+
+    /**
+     * @param token          the token as presented
+     * @param validatedToken the result of validating the token
+     * @param tokenExpiry    the time the token expires, in milliseconds
+     * @param version        the version returned by {@link #getVersion()}
+     *                       before the token was validated
+     */
+    public synchronized void put(String token, ValidatedToken validatedToken, long tokenExpiry, long version) {
+        Long invalidated = invalidations.get(validatedToken.opaqueToken);
+        if (version < forgottenVersion || (invalidated != null && version < invalidated)) {
+            return;
+        }
+        validatedToken.expiryTime = Math.min(tokenExpiry, System.currentTimeMillis() + ttl);
+        remove(token);
+        validatedTokens.put(token, validatedToken);
+        tokensByOpaqueToken.computeIfAbsent(validatedToken.opaqueToken, opaqueToken -> new HashSet<>()).add(token);
+        Iterator<Map.Entry<String, ValidatedToken>> eldest = validatedTokens.entrySet().iterator();
+        while (validatedTokens.size() > maximumSize && eldest.hasNext()) {
+            Map.Entry<String, ValidatedToken> entry = eldest.next();
+            unindex(entry.getKey(), entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Remove every cached validation of a token
+     *
+     * @param opaqueToken the opaque form of the token
+     */
+    public synchronized void invalidate(String opaqueToken) {
+        version++;
+        invalidations.remove(opaqueToken);
+        invalidations.put(opaqueToken, version);
+        Set<String> tokens = tokensByOpaqueToken.remove(opaqueToken);
+        if (tokens != null) {
+            for (String token : tokens) {
+                validatedTokens.remove(token);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        version++;
+        forgottenVersion = version;
+        invalidations.clear();
+        validatedTokens.clear();
+        tokensByOpaqueToken.clear();
+    }
+
+    private void remove(String token) {
+        ValidatedToken validatedToken = validatedTokens.remove(token);
+        if (validatedToken != null) {
+            unindex(token, validatedToken);
+        }
+    }
+
+    private void unindex(String token, ValidatedToken validatedToken) {
+        Set<String> tokens = tokensByOpaqueToken.get(validatedToken.opaqueToken);
+        if (tokens != null && tokens.remove(token) && tokens.isEmpty()) {
+            tokensByOpaqueToken.remove(validatedToken.opaqueToken);
+        }
+    }
+}
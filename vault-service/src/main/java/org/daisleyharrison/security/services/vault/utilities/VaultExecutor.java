@@ -0,0 +1,124 @@
+package org.daisleyharrison.security.services.vault.utilities;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The executor the vault runs its operations on, so blocking file I/O and key
+ * operations stay off the common fork join pool.
+ *
+ * The pool has a fixed number of threads and a bounded queue. When the queue
+ * is full the submitting thread runs the operation itself, which slows callers
+ * down to the rate the vault can serve rather than queueing without bound.
+ * Once the executor is closed new operations are rejected with a
+ * RejectedExecutionException.
+ */
+public class VaultExecutor implements Executor, AutoCloseable {
+    private final ThreadPoolExecutor threadPool;
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder totalQueueTime = new LongAdder();
+    private final LongAdder totalRunTime = new LongAdder();
+
+    public VaultExecutor(String name, int threads, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("vault executor " + name + " is closed");
+                    }
+                    callerRuns.increment();
+                    runnable.run();
+                });
+        this.threadPool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long submitted = System.nanoTime();
+        threadPool.execute(() -> {
+            long started = System.nanoTime();
+            try {
+                command.run();
+            } finally {
+                tasks.increment();
+                totalQueueTime.add(started - submitted);
+                totalRunTime.add(System.nanoTime() - started);
+            }
+        });
+    }
+
+    /**
+     * @return int the number of operations waiting for a thread
+     */
+    public int getQueueDepth() {
+        return threadPool.getQueue().size();
+    }
+
+    /**
+     * @return int the number of threads running an operation
+     */
+    public int getActiveCount() {
+        return threadPool.getActiveCount();
+    }
+
+    /**
+     * @return long the number of operations completed
+     */
+    public long getCompletedCount() {
+        return tasks.sum();
+    }
+
+    /**
+     * @return long the number of operations run by the submitting thread
+     *         because the queue was full
+     */
+    public long getCallerRunsCount() {
+        return callerRuns.sum();
+    }
+
+    /**
+     * @return Duration the average time an operation waited for a thread
+     */
+    public Duration getAverageQueueTime() {
+        long count = tasks.sum();
+        return count == 0 ? Duration.ZERO : Duration.ofNanos(totalQueueTime.sum() / count);
+    }
+
+    /**
+     * @return Duration the average time from submitting an operation to its
+     *         completion
+     */
+    public Duration getAverageLatency() {
+        long count = tasks.sum();
+        return count == 0 ? Duration.ZERO : Duration.ofNanos((totalQueueTime.sum() + totalRunTime.sum()) / count);
+    }
+
+    /**
+     * Wait for the operations already submitted to complete after the executor
+     * has been closed.
+     *
+     * @param timeout the longest time to wait
+     * @return boolean true if all operations completed, false if the timeout
+     *         elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(Duration timeout) throws InterruptedException {
+        return threadPool.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        threadPool.shutdown();
+    }
+}
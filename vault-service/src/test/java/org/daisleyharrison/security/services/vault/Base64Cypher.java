@@ -0,0 +1,22 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.daisleyharrison.security.common.models.cypher.StringCypher;
+
+/**
+ * Stands in for the vault master cypher in log tests
+ */
+class Base64Cypher implements StringCypher {
+
+    @Override
+    public String encrypt(String unsecure) {
+        return Base64.getEncoder().encodeToString(unsecure.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String decrypt(String secure) {
+        return new String(Base64.getDecoder().decode(secure), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.daisleyharrison.security.services.vault.utilities.LoadOnceMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LoadOnceMapTest {
+
+    @Test
+    public void testLoadOnceMap() throws Exception {
+        LoadOnceMap<String, String> namespaces = new LoadOnceMap<>();
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> namespaceFutures = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            namespaceFutures.add(executor.submit(() -> namespaces.get("child", () -> {
+                loads.incrementAndGet();
+                Thread.sleep(10);
+                // a loader may load other keys
+                return namespaces.get("parent", () -> "parent") + "/child";
+            })));
+        }
+        for (Future<String> namespaceFuture : namespaceFutures) {
+            assertEquals("parent/child", namespaceFuture.get());
+        }
+        executor.shutdown();
+        assertEquals(1, loads.get());
+
+        // a failed load is not remembered
+        try {
+            namespaces.get("broken", () -> {
+                throw new IOException("unreadable");
+            });
+            fail("load should have failed");
+        } catch (IOException exception) {
+            assertEquals("unreadable", exception.getMessage());
+        }
+        assertEquals("fixed", namespaces.get("broken", () -> "fixed"));
+    }
+}
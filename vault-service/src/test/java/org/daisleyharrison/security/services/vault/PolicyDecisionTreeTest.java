@@ -0,0 +1,55 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.daisleyharrison.security.services.vault.models.Capability;
+import org.daisleyharrison.security.services.vault.models.Policy;
+import org.daisleyharrison.security.services.vault.models.PolicyDecisionTree;
+import org.daisleyharrison.security.services.vault.utilities.PolicyDecisionCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PolicyDecisionTreeTest {
+
+    @Test
+    public void testPolicyDecisionTree() throws Exception {
+        PolicyDecisionTree decisionTree = new PolicyDecisionTree(Arrays.asList(
+                new Policy("/secret/**", Capability.READ), new Policy("/secret/team/**", Capability.UPDATE),
+                new Policy("/other/**", Capability.DELETE)));
+        Policy policy = decisionTree.decide(Path.of("/secret/team/key"));
+        assertTrue(policy.hasCapability(Capability.READ));
+        assertTrue(policy.hasCapability(Capability.UPDATE));
+        assertFalse(policy.hasCapability(Capability.DELETE));
+        assertEquals(Policy.DENY_ALL, decisionTree.decide(Path.of("/public/key")));
+    }
+
+    @Test
+    public void testPolicyDecisionCache() throws Exception {
+        Policy policy = new Policy("/secret/**", Capability.READ);
+        PolicyDecisionCache policyDecisions = new PolicyDecisionCache(16);
+        long version = policyDecisions.getVersion();
+        policyDecisions.clear();
+        // a decision made before the policies changed is not cached
+        policyDecisions.put(List.of("reader"), "/secret/key", policy, version);
+        assertNull(policyDecisions.get(List.of("reader"), "/secret/key"));
+
+        // policy sets are compared by their names, not a joined string
+        policyDecisions.put(List.of("a", "b"), "/secret/key", policy, policyDecisions.getVersion());
+        assertEquals(policy, policyDecisions.get(new ArrayList<>(List.of("a", "b")), "/secret/key"));
+        assertNull(policyDecisions.get(List.of("a,b"), "/secret/key"));
+        assertNull(policyDecisions.get(List.of("b", "a"), "/secret/key"));
+    }
+
+    @Test
+    public void testPolicyPath() throws Exception {
+        Path path = Path.of("/", "secret", "team", "key");
+        assertEquals("/secret/team/key", PolicyDecisionTree.toPolicyPath(path));
+    }
+}
@@ -0,0 +1,34 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.daisleyharrison.security.common.models.cypher.StringCypher;
+import org.daisleyharrison.security.services.vault.utilities.RevocationLog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RevocationLogTest {
+
+    @Test
+    public void testRevocationLog() throws Exception {
+        StringCypher cypher = new Base64Cypher();
+        Path logPath = Files.createTempDirectory("revocation").resolve("revoked.log");
+        long now = System.currentTimeMillis();
+        try (RevocationLog revocationLog = RevocationLog.open(logPath, cypher)) {
+            revocationLog.revoke("live", now + 60000);
+            revocationLog.revoke("expired", now - 3600000);
+            assertTrue(revocationLog.isRevoked("live"));
+            assertFalse(revocationLog.isRevoked("unknown"));
+        }
+        // reopening rebuilds the index and compacts the expired revocation away
+        try (RevocationLog revocationLog = RevocationLog.open(logPath, cypher)) {
+            assertTrue(revocationLog.isRevoked("live"));
+            assertFalse(revocationLog.isRevoked("expired"));
+            assertEquals(1, Files.readAllLines(logPath).size());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.time.Duration;
+
+import org.junit.Test;
+import org.daisleyharrison.security.services.vault.utilities.SecretCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SecretCacheTest {
+    public static final String QUICK = "The quick brown fox jumped over the lazy dog.";
+
+    @Test
+    public void testSecretCache() throws Exception {
+        SecretCache secretCache = new SecretCache(Duration.ofMinutes(1), 4096);
+        long version = secretCache.getVersion();
+        secretCache.put("test/unittest/quick", QUICK, version);
+        assertEquals(QUICK, secretCache.get("test/unittest/quick"));
+
+        // a read that started before a write must not be cached
+        version = secretCache.getVersion();
+        secretCache.invalidate("test/unittest/quick");
+        secretCache.put("test/unittest/quick", QUICK, version);
+        assertNull(secretCache.get("test/unittest/quick"));
+
+        for (int i = 0; i < 1000; i++) {
+            secretCache.put("test/unittest/quick" + i, QUICK, secretCache.getVersion());
+        }
+        assertTrue(secretCache.getBytes() <= 4096);
+        assertEquals(QUICK, secretCache.get("test/unittest/quick999"));
+    }
+}
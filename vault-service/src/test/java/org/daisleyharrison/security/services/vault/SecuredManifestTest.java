@@ -0,0 +1,51 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+import org.daisleyharrison.security.services.vault.utilities.SecuredManifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SecuredManifestTest {
+    public static final String QUICK = "The quick brown fox jumped over the lazy dog.";
+
+    @Test
+    public void testSecuredManifest() throws Exception {
+        Path rootPath = Files.createTempDirectory("vault");
+        Path metaPath = Files.createDirectories(rootPath.resolve(".vault"));
+        Path bPath = Files.createDirectories(rootPath.resolve("a/b"));
+        Path cPath = Files.createDirectories(rootPath.resolve("c"));
+        Files.writeString(bPath.resolve("x.sec"), QUICK);
+        Files.writeString(cPath.resolve("y.sec"), QUICK);
+        Files.writeString(rootPath.resolve("a/plain.txt"), QUICK);
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        for (Path path : List.of(rootPath, rootPath.resolve("a"), bPath, cPath)) {
+            Files.setLastModifiedTime(path, old);
+        }
+        Predicate<Path> isSecured = path -> path.toString().endsWith(".sec");
+        Predicate<Path> isMeta = path -> path.startsWith(metaPath);
+
+        SecuredManifest manifest = SecuredManifest.open(metaPath.resolve("secured.json"));
+        assertEquals(List.of(rootPath.resolve("a/plain.txt")), manifest.scan(rootPath, isSecured, isMeta));
+        assertEquals(3, manifest.size());
+        Files.delete(rootPath.resolve("a/plain.txt"));
+        Files.setLastModifiedTime(rootPath.resolve("a"), old);
+        assertTrue(manifest.scan(rootPath, isSecured, isMeta).isEmpty());
+        assertEquals(4, manifest.size());
+        manifest.save();
+
+        // a directory unchanged since it was secured is not listed again
+        manifest = SecuredManifest.open(metaPath.resolve("secured.json"));
+        assertEquals(4, manifest.size());
+        Files.writeString(bPath.resolve("hidden.txt"), QUICK);
+        Files.setLastModifiedTime(bPath, old);
+        Files.writeString(cPath.resolve("plain.txt"), QUICK);
+        assertEquals(List.of(cPath.resolve("plain.txt")), manifest.scan(rootPath, isSecured, isMeta));
+    }
+}
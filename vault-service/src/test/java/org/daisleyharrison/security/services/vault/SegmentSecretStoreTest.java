@@ -0,0 +1,125 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.daisleyharrison.security.services.vault.storage.FileSecretStore;
+import org.daisleyharrison.security.services.vault.storage.SecretStoreMigration;
+import org.daisleyharrison.security.services.vault.storage.SegmentSecretStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentSecretStoreTest {
+    public static final String QUICK = "The quick brown fox jumped over the lazy dog.";
+
+    @Test
+    public void testSegmentSecretStore() throws Exception {
+        Path segmentsPath = Files.createTempDirectory("segments");
+        try (SegmentSecretStore store = new SegmentSecretStore(segmentsPath, 1024, Duration.ZERO)) {
+            for (int i = 0; i < 100; i++) {
+                store.write("sys/token/" + i, QUICK + i, true, false);
+            }
+            for (int i = 0; i < 90; i++) {
+                store.delete("sys/token/" + i);
+            }
+            store.write("test/unittest/quick", QUICK, true, false);
+            try {
+                store.write("test/unittest/missing", QUICK, false, false);
+                fail("update of a missing secret should fail");
+            } catch (NoSuchFileException exception) {
+            }
+            int segmentCount = store.getSegmentCount();
+            store.compact();
+            assertTrue(store.getSegmentCount() < segmentCount);
+            assertEquals(QUICK + 95, store.read("sys/token/95"));
+        }
+        // a torn record at the end of the active segment is dropped
+        Path lastSegment = Files.list(segmentsPath).sorted().reduce((first, second) -> second).get();
+        Files.write(lastSegment, new byte[] { 0x56, 0x53 }, StandardOpenOption.APPEND);
+        try (SegmentSecretStore store = new SegmentSecretStore(segmentsPath, 1024, Duration.ZERO)) {
+            assertEquals(11, store.size());
+            assertFalse(store.exists("sys/token/5"));
+            assertEquals(QUICK, store.read("test/unittest/quick"));
+            assertEquals(10, store.list("sys/token/").size());
+
+            Path filesPath = Files.createTempDirectory("files");
+            try (FileSecretStore files = new FileSecretStore(filesPath)) {
+                assertEquals(11, SecretStoreMigration.migrate(store, files, false));
+                assertEquals(QUICK, files.read("test/unittest/quick"));
+                assertEquals(store.list(""), files.list(""));
+                List<String> firstPage = store.list("sys/token/", null, 4);
+                assertEquals(firstPage, files.list("sys/token/", null, 4));
+                List<String> lastPage = store.list("sys/token/", firstPage.get(3), 100);
+                assertEquals(lastPage, files.list("sys/token/", firstPage.get(3), 100));
+                assertEquals(6, lastPage.size());
+                assertTrue(lastPage.get(0).compareTo(firstPage.get(3)) > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSegmentSecretStoreKeepsDeletesOverLeftoverSegments() throws Exception {
+        Path segmentsPath = Files.createTempDirectory("segments");
+        try (SegmentSecretStore store = new SegmentSecretStore(segmentsPath, 1024, Duration.ZERO)) {
+            store.write("sys/token/deleted", QUICK, true, false);
+            // an older segment holding the value, as if a compaction failed to delete it
+            Path leftover = Files.createTempFile("segment", ".dat");
+            Files.copy(Files.list(segmentsPath).findFirst().get(), leftover, StandardCopyOption.REPLACE_EXISTING);
+            store.delete("sys/token/deleted");
+            for (int i = 0; i < 100; i++) {
+                store.write("sys/token/live", QUICK + i, true, false);
+            }
+            Files.move(leftover, segmentsPath.resolve("segment-0000000000.dat"));
+            store.compact();
+        }
+        try (SegmentSecretStore store = new SegmentSecretStore(segmentsPath, 1024, Duration.ZERO)) {
+            assertFalse(store.exists("sys/token/deleted"));
+            assertEquals(QUICK + 99, store.read("sys/token/live"));
+        }
+    }
+
+    @Test
+    public void testSegmentSecretStoreReadsDuringCompaction() throws Exception {
+        Path segmentsPath = Files.createTempDirectory("segments");
+        try (SegmentSecretStore store = new SegmentSecretStore(segmentsPath, 1024, Duration.ZERO)) {
+            for (int i = 0; i < 100; i++) {
+                store.write("sys/token/" + i, QUICK + i, true, false);
+            }
+            for (int i = 0; i < 90; i++) {
+                store.delete("sys/token/" + i);
+            }
+            ExecutorService readers = Executors.newFixedThreadPool(4);
+            try {
+                Future<?> reads = readers.submit(() -> {
+                    for (int round = 0; round < 200; round++) {
+                        for (int i = 90; i < 100; i++) {
+                            assertEquals(QUICK + i, store.read("sys/token/" + i));
+                        }
+                    }
+                    return null;
+                });
+                store.compact();
+                reads.get();
+            } finally {
+                readers.shutdown();
+            }
+            // compacted segments are gone from the directory once unused
+            try (Stream<Path> files = Files.list(segmentsPath)) {
+                assertEquals(store.getSegmentCount(), files.count());
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.daisleyharrison.security.services.vault.utilities.TokenUseCounters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenUseCountersTest {
+
+    @Test
+    public void testTokenUseCounters() throws Exception {
+        Path journalPath = Files.createTempDirectory("token-uses").resolve("token-uses.log");
+        long expiry = System.currentTimeMillis() + 60000;
+        List<String> exhausted = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger granted = new AtomicInteger();
+        try (TokenUseCounters tokenUses = TokenUseCounters.open(journalPath, new Base64Cypher(),
+                Duration.ofMillis(10), (token, tokenExpiry) -> exhausted.add(token))) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < 1000; i++) {
+                executor.execute(() -> {
+                    if (tokenUses.use("limited", 100, expiry) >= 0) {
+                        granted.incrementAndGet();
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            tokenUses.flush();
+        }
+        assertEquals(100, granted.get());
+        assertEquals(Collections.singletonList("limited"), exhausted);
+
+        // the journal remembers the token is used up
+        try (TokenUseCounters tokenUses = TokenUseCounters.open(journalPath, new Base64Cypher(),
+                Duration.ofMillis(10), (token, tokenExpiry) -> {
+                })) {
+            assertEquals(-1, tokenUses.use("limited", 100, expiry));
+        }
+    }
+}
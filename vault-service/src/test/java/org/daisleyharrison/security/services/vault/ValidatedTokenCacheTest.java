@@ -0,0 +1,55 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.time.Duration;
+
+import org.junit.Test;
+import org.daisleyharrison.security.services.vault.utilities.ValidatedTokenCache;
+import org.daisleyharrison.security.services.vault.utilities.ValidatedTokenCache.ValidatedToken;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ValidatedTokenCacheTest {
+
+    @Test
+    public void testValidatedTokenCache() throws Exception {
+        ValidatedTokenCache tokenCache = new ValidatedTokenCache(Duration.ofMinutes(1), 2);
+        long expiry = System.currentTimeMillis() + 60000;
+        ValidatedToken jwt = new ValidatedToken("opaque1", null, null);
+        ValidatedToken opaque = new ValidatedToken("opaque1", null, null);
+        tokenCache.put("jwt1", jwt, expiry, tokenCache.getVersion());
+        tokenCache.put("opaque1", opaque, expiry, tokenCache.getVersion());
+        assertTrue(tokenCache.get("jwt1") == jwt);
+
+        // revoking the opaque token removes every form of it
+        tokenCache.invalidate("opaque1");
+        assertNull(tokenCache.get("jwt1"));
+        assertNull(tokenCache.get("opaque1"));
+
+        // a token validated while it was invalidated is not cached
+        long version = tokenCache.getVersion();
+        tokenCache.invalidate("opaque1");
+        tokenCache.put("jwt1", jwt, expiry, version);
+        assertNull(tokenCache.get("jwt1"));
+
+        // invalidating another token does not stop it being cached
+        version = tokenCache.getVersion();
+        tokenCache.invalidate("other");
+        tokenCache.put("jwt1", jwt, expiry, version);
+        assertTrue(tokenCache.get("jwt1") == jwt);
+        tokenCache.invalidate("opaque1");
+
+        // expired tokens are not served
+        tokenCache.put("short", new ValidatedToken("short", null, null), System.currentTimeMillis() - 1,
+                tokenCache.getVersion());
+        assertNull(tokenCache.get("short"));
+
+        // bounded by size, the least recently used token is dropped
+        for (int i = 0; i < 3; i++) {
+            tokenCache.put("token" + i, new ValidatedToken("token" + i, null, null), expiry,
+                    tokenCache.getVersion());
+        }
+        assertNull(tokenCache.get("token0"));
+        assertTrue(tokenCache.get("token2") != null);
+    }
+}
@@ -0,0 +1,55 @@
+package org.daisleyharrison.security.services.vault;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+import org.daisleyharrison.security.services.vault.utilities.VaultExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VaultExecutorTest {
+
+    @Test
+    public void testVaultExecutorBackPressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (VaultExecutor executor = new VaultExecutor("vault-test", 1, 1)) {
+            CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }, executor);
+            CompletableFuture<Void> queued = CompletableFuture.runAsync(() -> {
+            }, executor);
+            // the queue is full so this runs on the submitting thread
+            Thread submitter = Thread.currentThread();
+            CompletableFuture<Boolean> overflow = CompletableFuture
+                    .supplyAsync(() -> Thread.currentThread() == submitter, executor);
+            assertTrue(overflow.get());
+            assertEquals(1, executor.getCallerRunsCount());
+            assertEquals(1, executor.getQueueDepth());
+            release.countDown();
+            blocked.get();
+            queued.get();
+            assertTrue(executor.getCompletedCount() >= 1);
+        }
+    }
+
+    @Test
+    public void testVaultExecutorRejectsAfterClose() throws Exception {
+        VaultExecutor executor = new VaultExecutor("vault-test", 1, 1);
+        executor.close();
+        try {
+            executor.execute(() -> {
+            });
+            fail("a closed executor should reject work");
+        } catch (RejectedExecutionException exception) {
+        }
+        assertEquals(0, executor.getCallerRunsCount());
+    }
+}
@@ -3,6 +3,10 @@ package org.daisleyharrison.security.services.vault;
 import java.util.ServiceLoader;
 import java.util.concurrent.ExecutionException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.junit.Ignore;
@@ -77,6 +81,23 @@ public class VaultServiceTest {
 
     public static final String QUICK = "The quick brown fox jumped over the lazy dog.";
 
+    @Test
+    public void testRevokeCachedToken() throws Exception {
+        VaultServiceProvider vaultService = getConfiguredVaultService();
+        assertNotNull(vaultService);
+        String token = vaultService.authenticate("root", "password".toCharArray()).get();
+        // the first use caches the validated token, the second is served from it
+        vaultService.writeToVault(token, "test/unittest/quick", QUICK).get();
+        assertEquals(QUICK, vaultService.readFromVault(token, "test/unittest/quick").get());
+        vaultService.revokeVaultToken(token).get();
+        try {
+            vaultService.readFromVault(token, "test/unittest/quick").get();
+            assertTrue("Revoked token was served from the token cache", false);
+        } catch (ExecutionException exception) {
+
+        }
+    }
+
     @Test(expected = ExecutionException.class)
     public void testReadInvalidPathQuick() throws Exception {
         VaultServiceProvider vaultService = getConfiguredVaultService();
@@ -142,6 +163,25 @@ public class VaultServiceTest {
         vaultService.revokeVaultToken(token).get();
     }
 
+    @Test
+    public void testWriteReadManyQuick() throws Exception {
+        VaultServiceProvider vaultService = getConfiguredVaultService();
+        assertNotNull(vaultService);
+        String token = vaultService.authenticate("root", "password".toCharArray()).get();
+        Map<String, String> secrets = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            secrets.put("test/unittest/many/quick" + i, QUICK + i);
+        }
+        vaultService.writeManyToVault(token, secrets).get();
+        Map<String, String> read = vaultService.readManyFromVault(token, new ArrayList<>(secrets.keySet())).get();
+        assertEquals(secrets, read);
+        List<String> firstPage = vaultService.listVault(token, "test/unittest/many/", null, 4).get();
+        assertEquals(4, firstPage.size());
+        List<String> lastPage = vaultService.listVault(token, "test/unittest/many/", firstPage.get(3), 100).get();
+        assertEquals(6, lastPage.size());
+        vaultService.revokeVaultToken(token).get();
+    }
+
     @Test
     public void testWriteReadQuickJwtToken() throws Exception {
         VaultServiceProvider vaultService = getConfiguredVaultService();